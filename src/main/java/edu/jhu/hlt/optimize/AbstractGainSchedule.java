@@ -0,0 +1,111 @@
+package edu.jhu.hlt.optimize;
+
+import edu.jhu.prim.util.Lambda.FnIntDoubleToDouble;
+import edu.jhu.prim.vector.IntDoubleVector;
+
+/**
+ * A gain schedule which can convert a whole gradient into a step at once.
+ * Subclasses override {@link #scaleGradient(int, IntDoubleVector, boolean)}
+ * to avoid a call to {@link #getLearningRate(int, int)} for every nonzero.
+ *
+ * Optimizers should scale gradients with
+ * {@link #scaleGradient(GainSchedule, int, IntDoubleVector, boolean)}, which
+ * falls back to the per-coordinate learning rates for any other
+ * {@link GainSchedule}.
+ */
+public abstract class AbstractGainSchedule implements GainSchedule {
+
+    /**
+     * Scales each entry of the gradient in place by its learning rate, and
+     * negates it for minimization. This converts the gradient into the step
+     * to be added to the current point. For a diagonal rescaling, this is
+     * equivalent to multiplying each entry by
+     * {@link #getLearningRate(int, int)}, which is what the default does.
+     * Schedules such as Adam which precondition the gradient may instead
+     * report a base learning rate.
+     * 
+     * @param iterCount The current iteration.
+     * @param gradient The input gradient and output step.
+     * @param maximize Whether we are maximizing (true) or minimizing (false).
+     */
+    public void scaleGradient(int iterCount, IntDoubleVector gradient, boolean maximize) {
+        scaleByLearningRates(this, iterCount, gradient, maximize);
+    }
+
+    /**
+     * Whether several threads may update and read this schedule at once
+     * without losing any updates. The default is false.
+     */
+    public boolean isThreadSafe() {
+        return false;
+    }
+
+    /**
+     * Whether several threads may update this schedule at once with relaxed
+     * Hogwild-style writes, which may lose an update to a parameter's state
+     * but never corrupt the state of another parameter or throw. This holds
+     * for any thread-safe schedule.
+     */
+    public boolean allowsRelaxedWrites() {
+        return isThreadSafe();
+    }
+
+    /**
+     * Whether every parameter has the same learning rate on any given
+     * iteration, so that the rate does not depend on the parameter's index.
+     * The default is false.
+     */
+    public boolean hasUniformLearningRates() {
+        return false;
+    }
+
+    /**
+     * Whether the given schedule is thread-safe. Schedules which do not
+     * extend this class are assumed not to be.
+     */
+    public static boolean isThreadSafe(GainSchedule sched) {
+        return (sched instanceof AbstractGainSchedule) && ((AbstractGainSchedule) sched).isThreadSafe();
+    }
+
+    /**
+     * Whether the given schedule allows relaxed concurrent writes. Schedules
+     * which do not extend this class are assumed not to.
+     */
+    public static boolean allowsRelaxedWrites(GainSchedule sched) {
+        return (sched instanceof AbstractGainSchedule) && ((AbstractGainSchedule) sched).allowsRelaxedWrites();
+    }
+
+    /**
+     * Whether the given schedule has the same learning rate for every
+     * parameter. Schedules which do not extend this class are assumed not to.
+     */
+    public static boolean hasUniformLearningRates(GainSchedule sched) {
+        return (sched instanceof AbstractGainSchedule) && ((AbstractGainSchedule) sched).hasUniformLearningRates();
+    }
+
+    /**
+     * Converts the gradient into a step in place with the given schedule,
+     * using its bulk operation if it has one.
+     * 
+     * @see #scaleGradient(int, IntDoubleVector, boolean)
+     */
+    public static void scaleGradient(GainSchedule sched, int iterCount, IntDoubleVector gradient, boolean maximize) {
+        if (sched instanceof AbstractGainSchedule) {
+            ((AbstractGainSchedule) sched).scaleGradient(iterCount, gradient, maximize);
+        } else {
+            scaleByLearningRates(sched, iterCount, gradient, maximize);
+        }
+    }
+
+    /** Multiplies each entry of the gradient by its learning rate, one coordinate at a time. */
+    private static void scaleByLearningRates(final GainSchedule sched, final int iterCount, IntDoubleVector gradient, final boolean maximize) {
+        gradient.apply(new FnIntDoubleToDouble() {
+            @Override
+            public double call(int index, double value) {
+                double lr = sched.getLearningRate(iterCount, index);
+                return maximize ? lr * value : - lr * value;
+            }
+        });
+    }
+
+}
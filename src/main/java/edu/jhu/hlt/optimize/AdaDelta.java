@@ -5,9 +5,14 @@ import org.apache.log4j.Logger;
 import edu.jhu.hlt.optimize.AdaGrad.AdaGradPrm;
 import edu.jhu.hlt.optimize.SGD.SGDPrm;
 import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
+import edu.jhu.hlt.optimize.state.LazyDecayState;
+import edu.jhu.hlt.optimize.state.StateArray;
+import edu.jhu.hlt.optimize.state.StateStorage;
+import edu.jhu.hlt.optimize.state.StripedLocks;
 import edu.jhu.hlt.util.Prm;
-import edu.jhu.prim.arrays.DoubleArrays;
-import edu.jhu.prim.vector.IntDoubleHashVector;
+import edu.jhu.prim.map.IntDoubleHashMap;
+import edu.jhu.prim.util.Lambda.FnIntDoubleToDouble;
+import edu.jhu.prim.util.Lambda.FnIntDoubleToVoid;
 import edu.jhu.prim.vector.IntDoubleVector;
 
 /**
@@ -21,7 +26,7 @@ import edu.jhu.prim.vector.IntDoubleVector;
  * 
  * @author mgormley
  */
-public class AdaDelta implements GainSchedule {
+public class AdaDelta extends AbstractGainSchedule {
 
     /** Options for this optimizer. */
     public static class AdaDeltaPrm extends Prm {
@@ -29,17 +34,49 @@ public class AdaDelta implements GainSchedule {
         public double decayRate = 0.95;
         /** The amount added (epsilon) to the sum of squares inside the square root. */
         public double constantAddend = Math.pow(Math.E, -6);
+        /**
+         * The backend for the per-parameter accumulators. COPY_ON_WRITE
+         * makes copies of this schedule cheap.
+         */
+        public StateStorage storage = StateStorage.DOUBLE;
+        /**
+         * Whether to cache the learning rate of every parameter. If false,
+         * only the rates of the parameters touched by the most recent gradient
+         * are kept and the others are recomputed from the accumulators, which
+         * saves about a third of the memory.
+         */
+        public boolean cacheLearningRates = true;
+        /**
+         * The number of locks striped over the parameters, which allows
+         * several threads to share this schedule. Each parameter's
+         * accumulators are then updated together under its lock. If zero,
+         * there is no locking. Concurrent updates are then relaxed
+         * Hogwild-style writes only with DOUBLE, FLOAT, OFF_HEAP or ATOMIC
+         * storage and cached learning rates: a parameter updated by two
+         * threads at once may lose one of the updates, or mix the
+         * accumulators of both. Otherwise the schedule must not be shared.
+         */
+        public int numLockStripes = 0;
     }
     
     private static final Logger log = Logger.getLogger(AdaDelta.class);
 
     private AdaDeltaPrm prm;
+    // The accumulators, the cached learning rates and the step on which each
+    // parameter was last updated.
+    private LazyDecayState state;
     // Accumulator for gradient.
-    private double[] gradAccum;
+    private StateArray gradAccum;
     // Accumulator for updates.
-    private double[] updAccum;
-    // Cache of the learning rate for each parameter.
-    private double[] lr;
+    private StateArray updAccum;
+    // Cache of the learning rate for each parameter, as of its last update.
+    // Null if the learning rates are not cached.
+    private StateArray lr;
+    // The learning rates of the parameters touched by the most recent
+    // gradient, used in place of the cache.
+    private IntDoubleHashMap stepLr;
+    // The locks guarding each parameter's state, or null for no locking.
+    private StripedLocks locks;
     
     /**
      * Constructs an SGD optimizer.
@@ -49,28 +86,87 @@ public class AdaDelta implements GainSchedule {
         if (prm.constantAddend <= 0) {
             throw new IllegalArgumentException("Constant added must be positive: " + prm.constantAddend);
         }
+        if (prm.numLockStripes > 0) {
+            if (!prm.cacheLearningRates) {
+                throw new IllegalArgumentException("Locking requires cached learning rates, since the uncached rates are per step.");
+            }
+            if (!prm.storage.hasIndependentEntries()) {
+                // Writes to these can restructure the state shared by other parameters.
+                throw new IllegalArgumentException("Locking requires storage whose entries are written independently (e.g. DOUBLE): " + prm.storage);
+            }
+        }
     }
     
     @Override
     public void init(DifferentiableBatchFunction function) {
-        gradAccum = new double[function.getNumDimensions()];
-        lr = new double[function.getNumDimensions()];
-        updAccum = new double[function.getNumDimensions()];
+        int numDims = function.getNumDimensions();
+        state = new LazyDecayState(prm.storage, numDims, prm.cacheLearningRates ? 3 : 2);
+        setArrays();
+        stepLr = prm.cacheLearningRates ? null : new IntDoubleHashMap();
+        locks = (prm.numLockStripes > 0) ? new StripedLocks(prm.numLockStripes) : null;
+        // Compare against the three double[]s and one int[] of the cached default.
+        log.info(StateStorage.getMemoryReport("AdaDelta", getStateBytes(), 28L * numDims));
+    }
+
+    /** Gets the number of bytes used by the per-parameter accumulators, learning rates and step counters. */
+    public long getStateBytes() {
+        return state.getNumBytes();
     }
 
+    private void setArrays() {
+        gradAccum = state.getArray(0);
+        updAccum = state.getArray(1);
+        lr = prm.cacheLearningRates ? state.getArray(2) : null;
+    }
+
+    /**
+     * Updates the accumulators of the parameters with nonzero gradient.
+     * 
+     * On a step where a parameter's gradient is zero, both its accumulators
+     * just decay by the decay rate. So the accumulators of the other
+     * parameters are decayed lazily, when their gradient is next nonzero,
+     * which gives the same values as updating every parameter on every step.
+     */
     @Override
-    public void takeNoteOfGradient(IntDoubleVector g) {
-        // TODO: This update is NOT sparse.
-        IntDoubleHashVector gradient = new IntDoubleHashVector(g);
-        for (int i=0; i<gradAccum.length; i++) {
-            gradAccum[i] = prm.decayRate * gradAccum[i] + (1.0 - prm.decayRate) * gradient.get(i) * gradient.get(i);
-            lr[i] = computeLearningRate(i);
-            double update = lr[i] * gradient.get(i);
-            updAccum[i] = prm.decayRate * updAccum[i] + (1.0 - prm.decayRate) * update * update;
-            
-            assert !Double.isNaN(gradAccum[i]);
-            assert !Double.isNaN(lr[i]);
-            assert !Double.isNaN(updAccum[i]);
+    public void takeNoteOfGradient(IntDoubleVector gradient) {
+        final int step = state.nextStep();
+        if (stepLr != null) {
+            stepLr.clear();
+        }
+        gradient.iterate(new FnIntDoubleToVoid() {
+            @Override
+            public void call(int i, double g) {
+                if (locks == null) {
+                    update(i, g, step);
+                } else {
+                    synchronized (locks.getLock(i)) {
+                        update(i, g, step);
+                    }
+                }
+            }
+        });
+    }
+
+    /** Updates the accumulators of a single parameter with its gradient on the given step. */
+    private void update(int i, double g, int step) {
+        int gap = state.getGap(i, step);
+        double ga = LazyDecayState.decay(gradAccum.get(i), prm.decayRate, gap);
+        double ua = LazyDecayState.decay(updAccum.get(i), prm.decayRate, gap);
+        ga = prm.decayRate * ga + (1.0 - prm.decayRate) * g * g;
+        double rate = computeLearningRate(ga, ua);
+        double update = rate * g;
+        ua = prm.decayRate * ua + (1.0 - prm.decayRate) * update * update;
+        state.setUpdated(i, step);
+        
+        assert !Double.isNaN(ga);
+        assert !Double.isNaN(rate);
+        assert !Double.isNaN(ua);
+        gradAccum.set(i, ga);
+        updAccum.set(i, ua);
+        if (lr != null) {
+            lr.set(i, rate);
+        } else {
+            stepLr.put(i, rate);
         }
     }
     
@@ -81,18 +177,19 @@ public class AdaDelta implements GainSchedule {
      * </p>
      * without running into boundary cases.
      *  
-     * @param i The index of the parameter for which to compute the learning rate.
+     * @param gradAccum The parameter's gradient accumulator.
+     * @param updAccum The parameter's update accumulator.
      * @return The learning rate for that parameter.
      */
-    private double computeLearningRate(int i) {
-        if (gradAccum[i] < 0) {
-            throw new RuntimeException("Gradient accumulator is < 0: " + gradAccum[i]);
+    private double computeLearningRate(double gradAccum, double updAccum) {
+        if (gradAccum < 0) {
+            throw new RuntimeException("Gradient accumulator is < 0: " + gradAccum);
         }
-        if (updAccum[i] < 0) {
-            throw new RuntimeException("Update accumulator is < 0: " + updAccum[i]);
+        if (updAccum < 0) {
+            throw new RuntimeException("Update accumulator is < 0: " + updAccum);
         }
 
-        double learningRate = Math.sqrt(updAccum[i] + prm.constantAddend) / Math.sqrt(gradAccum[i] + prm.constantAddend);        
+        double learningRate = Math.sqrt(updAccum + prm.constantAddend) / Math.sqrt(gradAccum + prm.constantAddend);        
         assert !Double.isNaN(learningRate);
         // We shouldn't ever worry about infinities because of the constantAdded being > 0.
         assert !Double.isInfinite(learningRate);
@@ -107,16 +204,65 @@ public class AdaDelta implements GainSchedule {
      */
     @Override
     public double getLearningRate(int iterCount, int i) {
-        return lr[i];
+        if (locks == null) {
+            return getLearningRate(i);
+        }
+        synchronized (locks.getLock(i)) {
+            return getLearningRate(i);
+        }
+    }
+
+    private double getLearningRate(int i) {
+        int gap = state.getStepsSinceUpdate(i);
+        if (gap <= 0) {
+            return getLastLearningRate(i);
+        }
+        // The learning rate after gap steps with zero gradient, which is
+        // computed after the gradient accumulator decays on the last step
+        // but before the update accumulator does.
+        return computeLearningRate(LazyDecayState.decay(gradAccum.get(i), prm.decayRate, gap), 
+                LazyDecayState.decay(updAccum.get(i), prm.decayRate, gap - 1));
+    }
+
+    /** Gets the learning rate of a parameter as of its last update. */
+    private double getLastLearningRate(int i) {
+        return (lr != null) ? lr.get(i) : stepLr.get(i);
+    }
+    
+    @Override
+    public void scaleGradient(int iterCount, IntDoubleVector gradient, boolean maximize) {
+        final double sign = maximize ? 1.0 : -1.0;
+        gradient.apply(new FnIntDoubleToDouble() {
+            @Override
+            public double call(int i, double value) {
+                return sign * getLastLearningRate(i) * value;
+            }
+        });
     }
     
+    /** Thread-safe only with lock stripes. */
+    @Override
+    public boolean isThreadSafe() {
+        return prm.numLockStripes > 0;
+    }
+
+    /** The uncached learning rates are kept in a hash map, which concurrent writes may corrupt. */
+    @Override
+    public boolean allowsRelaxedWrites() {
+        return isThreadSafe() || (prm.storage.hasIndependentEntries() && prm.cacheLearningRates);
+    }
+
+    /** Gets a copy of this schedule, which shares the unchanged state if the storage is copy-on-write. */
     @Override
     public GainSchedule copy() {
         AdaDeltaPrm otherPrm = Prm.clonePrm(this.prm);
         AdaDelta other = new AdaDelta(otherPrm);
-        other.gradAccum = DoubleArrays.copyOf(this.gradAccum);
-        other.lr = DoubleArrays.copyOf(this.lr);
-        other.updAccum = DoubleArrays.copyOf(this.updAccum);
+        if (this.state != null) {
+            other.state = this.state.copy();
+            other.setArrays();
+        }
+        other.stepLr = (this.stepLr == null) ? null : new IntDoubleHashMap(this.stepLr);
+        other.locks = (this.locks == null) ? null : new StripedLocks(this.locks.getNumStripes());
         return other;
     }
 
@@ -3,8 +3,10 @@ package edu.jhu.hlt.optimize;
 import org.apache.log4j.Logger;
 
 import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
+import edu.jhu.hlt.optimize.state.StateArray;
+import edu.jhu.hlt.optimize.state.StateStorage;
 import edu.jhu.hlt.util.Prm;
-import edu.jhu.prim.arrays.DoubleArrays;
+import edu.jhu.prim.util.Lambda.FnIntDoubleToDouble;
 import edu.jhu.prim.util.Lambda.FnIntDoubleToVoid;
 import edu.jhu.prim.vector.IntDoubleVector;
 
@@ -14,7 +16,7 @@ import edu.jhu.prim.vector.IntDoubleVector;
  * 
  * @author mgormley
  */
-public class AdaGrad implements GainSchedule {
+public class AdaGrad extends AbstractGainSchedule {
 
     /** Options for this optimizer. */
     public static class AdaGradPrm extends Prm {
@@ -26,12 +28,24 @@ public class AdaGrad implements GainSchedule {
          * optimization off early on.
          */
         public double constantAddend = 1e-9;
+        /**
+         * The backend for the sum of squares of each parameter's gradient.
+         * ATOMIC storage allows several threads to share this schedule. With
+         * DOUBLE, FLOAT or OFF_HEAP storage, concurrent updates are relaxed
+         * Hogwild-style writes, which may occasionally lose a squared
+         * gradient. SPARSE and COPY_ON_WRITE storage must not be shared by
+         * threads at all, since a write may restructure the state of other
+         * parameters. COPY_ON_WRITE makes copies of this schedule cheap.
+         * FLOAT storage loses the squared gradients which are small compared
+         * to a parameter's sum (see {@link edu.jhu.hlt.optimize.state.FloatStateArray}).
+         */
+        public StateStorage storage = StateStorage.DOUBLE;
     }
     
     private static final Logger log = Logger.getLogger(AdaGrad.class);
 
     private AdaGradPrm prm;
-    private double[] gradSumSquares;
+    private StateArray gradSumSquares;
     
     /**
      * Constructs an SGD optimizer.
@@ -45,7 +59,13 @@ public class AdaGrad implements GainSchedule {
      */
     @Override
     public void init(DifferentiableBatchFunction function) {
-        gradSumSquares = new double[function.getNumDimensions()];
+        gradSumSquares = prm.storage.newArray(function.getNumDimensions());
+        log.info(StateStorage.getMemoryReport("AdaGrad", getStateBytes(), 8L * gradSumSquares.size()));
+    }
+
+    /** Gets the number of bytes used by the per-parameter state. */
+    public long getStateBytes() {
+        return gradSumSquares.getNumBytes();
     }
 
     /** A tie-in for subclasses such as AdaGrad. */
@@ -53,8 +73,8 @@ public class AdaGrad implements GainSchedule {
         gradient.iterate(new FnIntDoubleToVoid() {            
             @Override
             public void call(int index, double value) {
-                gradSumSquares[index] += value * value;
-                assert !Double.isNaN(gradSumSquares[index]);
+                double sumSquares = gradSumSquares.add(index, value * value);
+                assert !Double.isNaN(sumSquares);
             }
         });
     }
@@ -65,14 +85,15 @@ public class AdaGrad implements GainSchedule {
      * @param i The index of the current model parameter. 
      */
     public double getLearningRate(int iterCount, int i) {
-        if (gradSumSquares[i] < 0) {
-            throw new RuntimeException("Gradient sum of squares entry is < 0: " + gradSumSquares[i]);
+        double sumSquares = gradSumSquares.get(i);
+        if (sumSquares < 0) {
+            throw new RuntimeException("Gradient sum of squares entry is < 0: " + sumSquares);
         }
-        double learningRate = prm.eta / Math.sqrt(prm.constantAddend + gradSumSquares[i]);
+        double learningRate = prm.eta / Math.sqrt(prm.constantAddend + sumSquares);
         assert !Double.isNaN(learningRate);
         if (learningRate == Double.POSITIVE_INFINITY) {
-            if (gradSumSquares[i] != 0.0) {
-                log.warn("Gradient was non-zero but learningRate hit positive infinity: " + gradSumSquares[i]);
+            if (sumSquares != 0.0) {
+                log.warn("Gradient was non-zero but learningRate hit positive infinity: " + sumSquares);
             }
             // Just return zero. The gradient is probably 0.0.
             return 0.0;
@@ -80,11 +101,38 @@ public class AdaGrad implements GainSchedule {
         return learningRate;
     }
 
+    @Override
+    public void scaleGradient(int iterCount, IntDoubleVector gradient, boolean maximize) {
+        final double eta = maximize ? prm.eta : -prm.eta;
+        gradient.apply(new FnIntDoubleToDouble() {
+            @Override
+            public double call(int i, double value) {
+                double lr = eta / Math.sqrt(prm.constantAddend + gradSumSquares.get(i));
+                if (Double.isInfinite(lr)) {
+                    // As in getLearningRate(), the gradient is probably 0.0.
+                    return 0.0;
+                }
+                return lr * value;
+            }
+        });
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return prm.storage.isThreadSafe();
+    }
+
+    @Override
+    public boolean allowsRelaxedWrites() {
+        return prm.storage.hasIndependentEntries();
+    }
+
+    /** Gets a copy of this schedule, which shares the unchanged state if the storage is copy-on-write. */
     @Override
     public GainSchedule copy() {
         AdaGradPrm otherPrm = Prm.clonePrm(this.prm);
         AdaGrad other = new AdaGrad(otherPrm);
-        other.gradSumSquares = DoubleArrays.copyOf(this.gradSumSquares);
+        other.gradSumSquares = this.gradSumSquares.copy();
         return other;
     }
 
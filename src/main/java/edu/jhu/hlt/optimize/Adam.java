@@ -0,0 +1,178 @@
+package edu.jhu.hlt.optimize;
+
+import org.apache.log4j.Logger;
+
+import edu.jhu.hlt.optimize.SGD.SGDPrm;
+import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
+import edu.jhu.hlt.optimize.state.LazyDecayState;
+import edu.jhu.hlt.optimize.state.StateArray;
+import edu.jhu.hlt.optimize.state.StateStorage;
+import edu.jhu.hlt.util.Prm;
+import edu.jhu.prim.util.Lambda.FnIntDoubleToDouble;
+import edu.jhu.prim.util.Lambda.FnIntDoubleToVoid;
+import edu.jhu.prim.vector.IntDoubleVector;
+
+/**
+ * Adam (Kingma and Ba, 2015) -- a first order stochastic gradient method which
+ * scales the bias-corrected first moment of the gradient by the square root of
+ * its bias-corrected second moment.
+ * 
+ * The moments are decayed lazily: each parameter records the step on which
+ * its moments were last updated, and the decay for the steps on which its
+ * gradient was zero is applied at once when its gradient is next nonzero. So
+ * the moments are exactly those of dense Adam, while each step costs time
+ * proportional to the number of nonzeros in the gradient. As in "lazy Adam",
+ * only the parameters with nonzero gradient are stepped; with dense gradients
+ * this is the same as Adam.
+ * 
+ * Because the step is not a multiple of the gradient, the learning rate
+ * reported for every parameter is the step size alpha. So an L2 regularizer
+ * applied through SGD (see {@link #getAdamWPrm(AdamPrm, double)}) decays the
+ * weights independently of the moments, as in AdamW (Loshchilov and Hutter,
+ * 2019).
+ */
+public class Adam extends AbstractGainSchedule {
+
+    /** Options for this optimizer. */
+    public static class AdamPrm extends Prm {
+        /** The step size (alpha). */
+        public double eta = 0.001;
+        /** The decay rate (beta_1) of the first moment. */
+        public double beta1 = 0.9;
+        /** The decay rate (beta_2) of the second moment. */
+        public double beta2 = 0.999;
+        /** The amount added (epsilon) to the square root of the second moment. */
+        public double constantAddend = 1e-8;
+        /**
+         * The backend for the per-parameter moments (see
+         * {@link LazyDecayState} for sharing them between threads).
+         */
+        public StateStorage storage = StateStorage.DOUBLE;
+    }
+
+    private static final Logger log = Logger.getLogger(Adam.class);
+
+    private AdamPrm prm;
+    // The moments and the step on which each parameter's moments were last updated.
+    private LazyDecayState state;
+    // The first moment of the gradient.
+    private StateArray m;
+    // The second moment of the gradient.
+    private StateArray v;
+
+    public Adam(AdamPrm prm) {
+        this.prm = prm;
+        if (prm.constantAddend <= 0) {
+            throw new IllegalArgumentException("Constant added must be positive: " + prm.constantAddend);
+        }
+    }
+
+    /**
+     * Gets options for AdamW: SGD with an Adam schedule and decoupled weight
+     * decay, applied lazily by the SGD L2 regularizer. Each step multiplies
+     * the weights by (1 - alpha * weightDecay).
+     */
+    public static SGDPrm getAdamWPrm(AdamPrm prm, double weightDecay) {
+        SGDPrm sgdPrm = new SGDPrm();
+        sgdPrm.sched = new Adam(prm);
+        sgdPrm.l2Lambda = weightDecay;
+        return sgdPrm;
+    }
+
+    @Override
+    public void init(DifferentiableBatchFunction function) {
+        int numDims = function.getNumDimensions();
+        state = new LazyDecayState(prm.storage, numDims, 2);
+        m = state.getArray(0);
+        v = state.getArray(1);
+        // Compare against two double[] and one int[].
+        log.info(StateStorage.getMemoryReport("Adam", getStateBytes(), 20L * numDims));
+    }
+
+    /** Gets the number of bytes used by the per-parameter moments and step counters. */
+    public long getStateBytes() {
+        return state.getNumBytes();
+    }
+
+    @Override
+    public void takeNoteOfGradient(IntDoubleVector gradient) {
+        final int step = state.nextStep();
+        gradient.iterate(new FnIntDoubleToVoid() {
+            @Override
+            public void call(int i, double g) {
+                // Decay for the steps on which the gradient was zero.
+                int gap = state.getGap(i, step);
+                double mi = LazyDecayState.decay(m.get(i), prm.beta1, gap);
+                double vi = LazyDecayState.decay(v.get(i), prm.beta2, gap);
+                mi = prm.beta1 * mi + (1.0 - prm.beta1) * g;
+                vi = prm.beta2 * vi + (1.0 - prm.beta2) * g * g;
+                assert !Double.isNaN(mi);
+                assert !Double.isNaN(vi);
+                m.set(i, mi);
+                v.set(i, vi);
+                state.setUpdated(i, step);
+            }
+        });
+    }
+
+    /**
+     * Gets the step size alpha, which is the same for every parameter.
+     * @param iterCount The current iteration.
+     * @param i The index of the current model parameter.
+     */
+    @Override
+    public double getLearningRate(int iterCount, int i) {
+        return prm.eta;
+    }
+
+    /**
+     * Replaces each entry of the gradient with the Adam step,
+     * \alpha \hat{m} / (\sqrt{\hat{v}} + \epsilon), which must follow a call to
+     * {@link #takeNoteOfGradient(IntDoubleVector)} with the same gradient.
+     */
+    @Override
+    public void scaleGradient(int iterCount, IntDoubleVector gradient, boolean maximize) {
+        final double eta = maximize ? prm.eta : -prm.eta;
+        int t = state.getNumSteps();
+        final double bias1 = 1.0 - Math.pow(prm.beta1, t);
+        final double bias2 = 1.0 - Math.pow(prm.beta2, t);
+        gradient.apply(new FnIntDoubleToDouble() {
+            @Override
+            public double call(int i, double value) {
+                double mHat = m.get(i) / bias1;
+                double vHat = v.get(i) / bias2;
+                return eta * mHat / (Math.sqrt(vHat) + prm.constantAddend);
+            }
+        });
+    }
+
+    /** Each update reads and then writes the state, so it is never thread-safe, even with ATOMIC storage. */
+    @Override
+    public boolean allowsRelaxedWrites() {
+        return prm.storage.hasIndependentEntries();
+    }
+
+    /** Gets a copy of this schedule, which shares the unchanged state if the storage is copy-on-write. */
+    @Override
+    public GainSchedule copy() {
+        AdamPrm otherPrm = Prm.clonePrm(this.prm);
+        Adam other = new Adam(otherPrm);
+        if (this.state != null) {
+            other.state = this.state.copy();
+            other.m = other.state.getArray(0);
+            other.v = other.state.getArray(1);
+        }
+        return other;
+    }
+
+    @Override
+    public double getEta0() {
+        return prm.eta;
+    }
+
+    @Override
+    public void setEta0(double eta0) {
+        prm.eta = eta0;
+    }
+
+}
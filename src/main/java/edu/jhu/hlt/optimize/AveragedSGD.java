@@ -0,0 +1,137 @@
+package edu.jhu.hlt.optimize;
+
+import java.io.File;
+import java.io.Serializable;
+
+import org.apache.log4j.Logger;
+
+import edu.jhu.hlt.optimize.BottouSchedule.BottouSchedulePrm;
+import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
+import edu.jhu.prim.util.Lambda.FnIntDoubleToVoid;
+import edu.jhu.prim.vector.IntDoubleVector;
+
+/**
+ * Averaged stochastic gradient descent (ASGD), as recommended in Leon Bottou's
+ * (2012) SGD Tricks paper. The returned point is the Polyak average of the
+ * points visited after the averaging begins.
+ * 
+ * The average is maintained lazily (see {@link LazyAverage}), so a sparse
+ * step costs time proportional to its number of nonzeros. With L2
+ * regularization, each coordinate's sum includes its shrinkage on the
+ * iterations between its steps, so the average is that of the fully
+ * regularized points. L1 regularization is not supported, since the average
+ * would not include it. The values reported during training, and those seen
+ * by any stopping criteria, are for the unaveraged point.
+ */
+public class AveragedSGD extends SGD {
+
+    /** Options for this optimizer. */
+    public static class AveragedSGDPrm extends SGDPrm {
+        /** The number of passes after which to begin averaging. */
+        public double averageStart = 1;
+        public AveragedSGDPrm() {
+            // The decay recommended for averaging by Bottou (2012).
+            BottouSchedulePrm schedPrm = new BottouSchedulePrm();
+            schedPrm.power = 0.75;
+            this.sched = new BottouSchedule(schedPrm);
+        }
+        public AveragedSGDPrm(double initialLr, int numPasses, int batchSize) {
+            this();
+            this.sched.setEta0(initialLr);
+            this.numPasses = numPasses;
+            this.batchSize = batchSize;
+        }
+    }
+
+    private static final Logger log = Logger.getLogger(AveragedSGD.class);
+
+    private AveragedSGDPrm prm;
+    private LazyAverage avg;
+
+    public AveragedSGD(AveragedSGDPrm prm) {
+        super(prm);
+        this.prm = prm;
+        if (prm.l1Lambda != 0.0) {
+            throw new IllegalArgumentException("Averaging does not support L1 regularization: " + prm.l1Lambda);
+        }
+    }
+
+    @Override
+    protected void init(DifferentiableBatchFunction function) {
+        super.init(function);
+        int start = (int) Math.ceil(prm.averageStart * function.getNumExamples() / prm.batchSize);
+        avg = new LazyAverage(start, function.getNumDimensions());
+    }
+
+    @Override
+    public boolean maximize(DifferentiableBatchFunction function, IntDoubleVector point) {
+        boolean converged = super.maximize(function, point);
+        setToAverage(function, point);
+        return converged;
+    }
+
+    @Override
+    public boolean minimize(DifferentiableBatchFunction function, IntDoubleVector point) {
+        boolean converged = super.minimize(function, point);
+        setToAverage(function, point);
+        return converged;
+    }
+
+    @Override
+    public boolean resume(DifferentiableBatchFunction function, IntDoubleVector point, File checkpointFile) {
+        boolean converged = super.resume(function, point, checkpointFile);
+        setToAverage(function, point);
+        return converged;
+    }
+
+    private void setToAverage(DifferentiableBatchFunction function, IntDoubleVector point) {
+        if (avg.setToAverage(point, getIterCount(), getRegularizer(), getSchedule())) {
+            log.info("Function value of averaged point on all examples = " + function.getValue(point));
+        } else {
+            log.warn("Training stopped before averaging began. Returning the unaveraged point.");
+        }
+    }
+
+    @Override
+    protected void beforeStep(final int iterCount, final IntDoubleVector point, IntDoubleVector gradient) {
+        if (!avg.hasBegun() && iterCount >= avg.getStart()) {
+            // Bring every coordinate up to date, so that each one's sum begins at its current value.
+            super.flushRegularizer(point, iterCount);
+            avg.begin(iterCount);
+        }
+        final LazyRegularizer reg = getRegularizer();
+        if (reg != null && reg.needsRebase()) {
+            // Bring every coordinate up to date, so that the sums of the decays can restart.
+            flushRegularizer(point, iterCount);
+            reg.rebase();
+        }
+        // The touched coordinates are about to be regularized and stepped.
+        gradient.iterate(new FnIntDoubleToVoid() {
+            @Override
+            public void call(int index, double value) {
+                avg.catchUp(point, index, iterCount, reg, getSchedule().getLearningRate(iterCount, index));
+            }
+        });
+        super.beforeStep(iterCount, point, gradient);
+    }
+
+    @Override
+    protected void flushRegularizer(IntDoubleVector point, int numIters) {
+        if (getRegularizer() != null) {
+            // Every coordinate is about to change.
+            avg.catchUpAll(point, numIters, getRegularizer(), getSchedule());
+        }
+        super.flushRegularizer(point, numIters);
+    }
+
+    @Override
+    protected Serializable getCheckpointState() {
+        return avg.copy();
+    }
+
+    @Override
+    protected void setCheckpointState(Serializable state) {
+        avg = (LazyAverage) state;
+    }
+
+}
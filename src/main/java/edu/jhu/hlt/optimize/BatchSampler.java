@@ -1,5 +1,9 @@
 package edu.jhu.hlt.optimize;
 
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Random;
+
 import edu.jhu.util.Prng;
 import edu.jhu.prim.arrays.IntArrays;
 import edu.jhu.prim.sort.IntSort;
@@ -7,21 +11,63 @@ import edu.jhu.prim.sort.IntSort;
 /**
  * Sampler of batches.
  * 
+ * By default examples are sampled uniformly, with or without replacement. In
+ * importance sampling mode, examples are instead drawn with replacement in
+ * proportion to per-example weights (e.g. estimates of their loss or gradient
+ * norm). Each draw then takes constant time from an alias table (Walker,
+ * 1977; Vose, 1991). Since examples are no longer equally likely, each
+ * example's contribution to a batch should be multiplied by
+ * {@link #getMultiplier(int)}, 1/(N p_i), so that the batch gradient remains
+ * an unbiased estimate of the average gradient.
+ * 
+ * Samples are drawn from the global {@link Prng} unless the sampler is given
+ * its own Random, as each of several concurrent samplers should be.
+ * 
  * @author mgormley
  */
-public class BatchSampler {
+public class BatchSampler implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     // Parameters.
     private boolean withReplacement;
     private int numExamples;
     private int batchSize;
+    // The source of randomness, or null to use the global Prng.
+    private Random random;
     
     // Cache of (shuffled) indices for sampling without replacement.
     private int[] indices;
     // Current index to sample from next.
     private int cur;
 
+    // Importance sampling: the weight of each example, or NaN if unknown.
+    // Null unless in importance sampling mode.
+    private double[] weights;
+    // The fraction of the probability spread uniformly over the examples.
+    private double uniformMix;
+    // The alias table: column k yields example k with probability prob[k],
+    // and example alias[k] otherwise.
+    private double[] prob;
+    private int[] alias;
+    // The multiplier 1/(N p_i) of each example under the current table.
+    private double[] multipliers;
+    // Scratch space for building the table.
+    private int[] work;
+    // The number of weight updates since the table was built.
+    private int numUpdates;
+
     public BatchSampler(boolean withReplacement, int numExamples, int batchSize) {
+        this(withReplacement, numExamples, batchSize, null);
+    }
+
+    /**
+     * Constructs a sampler which draws from its own source of randomness.
+     * 
+     * @param random The source of randomness, or null to use the global Prng.
+     */
+    public BatchSampler(boolean withReplacement, int numExamples, int batchSize, Random random) {
+        this.random = random;
         this.withReplacement = withReplacement;
         this.numExamples = numExamples;
         this.batchSize = batchSize;
@@ -32,37 +78,260 @@ public class BatchSampler {
         }
     }
     
+    /** Gets a deep copy of this sampler, e.g. as a snapshot for a checkpoint. */
+    public BatchSampler copy() {
+        BatchSampler other = new BatchSampler(withReplacement, numExamples, batchSize,
+                (random == null) ? null : SGDCheckpoint.copyOf(random));
+        other.indices = (indices == null) ? null : indices.clone();
+        other.cur = cur;
+        if (weights != null) {
+            other.weights = weights.clone();
+            other.uniformMix = uniformMix;
+            other.prob = prob.clone();
+            other.alias = alias.clone();
+            other.multipliers = multipliers.clone();
+            other.work = new int[numExamples];
+            other.numUpdates = numUpdates;
+        }
+        return other;
+    }
+
     public int[] sampleBatch() {
-        if (withReplacement) {
-            return sampleBatchWithReplacement();
+        return sampleBatch(new int[batchSize]);
+    }
+
+    /**
+     * Samples a batch into the given buffer, so that a caller which reuses the
+     * buffer allocates nothing per batch.
+     * 
+     * @param batch The output buffer, whose length must be the batch size.
+     * @return The buffer.
+     */
+    public int[] sampleBatch(int[] batch) {
+        if (weights != null) {
+            return sampleBatchByImportance(batch);
+        } else if (withReplacement) {
+            return sampleBatchWithReplacement(batch);
         } else {
-            return sampleBatchWithoutReplacement();
+            return sampleBatchWithoutReplacement(batch);
         }
     }
 
     /** Samples a batch of indices in the range [0, numExamples) with replacement. */
     public int[] sampleBatchWithReplacement() {
+        return sampleBatchWithReplacement(new int[batchSize]);
+    }
+
+    /** Samples a batch of indices in the range [0, numExamples) with replacement into the given buffer. */
+    public int[] sampleBatchWithReplacement(int[] batch) {
+        checkBuffer(batch);
         // Sample the indices with replacement.
-        int[] batch = new int[batchSize];
         for (int i=0; i<batch.length; i++) {
-            batch[i] = Prng.nextInt(numExamples);
+            batch[i] = nextInt(numExamples);
         }
         return batch;
     }
     
     /** Samples a batch of indices in the range [0, numExamples) without replacement. */
     public int[] sampleBatchWithoutReplacement() {
-        int[] batch = new int[batchSize];
+        return sampleBatchWithoutReplacement(new int[batchSize]);
+    }
+
+    /** Samples a batch of indices in the range [0, numExamples) without replacement into the given buffer. */
+    public int[] sampleBatchWithoutReplacement(int[] batch) {
+        checkBuffer(batch);
         for (int i=0; i<batch.length; i++) {
             if (cur == indices.length) {
                 cur = 0;
             }
             if (cur == 0) {
-                IntArrays.shuffle(indices);
+                shuffle(indices);
             }
             batch[i] = indices[cur++];
         }
         return batch;
     }
+
+    /**
+     * Samples a batch of indices in the range [0, numExamples) with
+     * replacement, in proportion to the importance weights, into the given
+     * buffer. If enough weights have been updated since the alias table was
+     * built, it is rebuilt first.
+     */
+    public int[] sampleBatchByImportance(int[] batch) {
+        checkBuffer(batch);
+        if (weights == null) {
+            throw new IllegalStateException("Importance sampling has not been enabled.");
+        }
+        // Rebuild only between batches, so the multipliers of a batch are those it was drawn with.
+        if (numUpdates >= numExamples) {
+            buildAliasTable();
+        }
+        for (int i=0; i<batch.length; i++) {
+            int k = nextInt(numExamples);
+            batch[i] = (nextDouble() < prob[k]) ? k : alias[k];
+        }
+        return batch;
+    }
+
+    /**
+     * Switches to importance sampling, in which examples are drawn with
+     * replacement in proportion to their weights.
+     * 
+     * @param initialWeights The initial non-negative weight of each example,
+     *            or null if none are known yet. Until an example's weight is
+     *            known, it is taken to be the mean of the known weights.
+     * @param uniformMix The fraction in [0, 1] of the probability to spread
+     *            uniformly over the examples, which bounds each multiplier by
+     *            1 / uniformMix.
+     */
+    public void setImportanceWeights(double[] initialWeights, double uniformMix) {
+        if (uniformMix < 0 || uniformMix > 1) {
+            throw new IllegalArgumentException("Uniform mix must be in [0, 1]: " + uniformMix);
+        }
+        this.uniformMix = uniformMix;
+        weights = new double[numExamples];
+        if (initialWeights == null) {
+            Arrays.fill(weights, Double.NaN);
+        } else {
+            if (initialWeights.length != numExamples) {
+                throw new IllegalArgumentException("Expected one weight per example: " + initialWeights.length);
+            }
+            for (int i=0; i<numExamples; i++) {
+                checkWeight(initialWeights[i]);
+            }
+            System.arraycopy(initialWeights, 0, weights, 0, numExamples);
+        }
+        prob = new double[numExamples];
+        alias = new int[numExamples];
+        multipliers = new double[numExamples];
+        work = new int[numExamples];
+        buildAliasTable();
+    }
+
+    /**
+     * Updates the weight of an example. The sampling distribution changes only
+     * once the number of updates since the alias table was built reaches the
+     * number of examples, so the linear time rebuild costs constant amortized
+     * time per update.
+     */
+    public void updateWeight(int i, double weight) {
+        checkWeight(weight);
+        weights[i] = weight;
+        numUpdates++;
+    }
+
+    /** Gets the probability with which each draw yields example i. */
+    public double getProbability(int i) {
+        return 1.0 / (numExamples * multipliers[i]);
+    }
+
+    /**
+     * Gets the multiplier 1/(N p_i) on the contribution of example i to a
+     * batch, for the batches sampled since the last rebuild of the alias
+     * table. With uniform sampling, this is 1.
+     */
+    public double getMultiplier(int i) {
+        return (weights == null) ? 1.0 : multipliers[i];
+    }
+
+    /** Whether examples are drawn in proportion to their weights. */
+    public boolean isImportanceSampling() {
+        return weights != null;
+    }
+
+    /** Builds the alias table for the current weights with Vose's method. */
+    private void buildAliasTable() {
+        numUpdates = 0;
+        int n = numExamples;
+        double knownSum = 0;
+        int numKnown = 0;
+        for (int i=0; i<n; i++) {
+            if (!Double.isNaN(weights[i])) {
+                knownSum += weights[i];
+                numKnown++;
+            }
+        }
+        double unknownWeight = (numKnown == 0) ? 1.0 : knownSum / numKnown;
+        double sum = knownSum + (n - numKnown) * unknownWeight;
+        // All the probability is uniform if there are no positive weights.
+        double mix = (sum > 0) ? uniformMix : 1.0;
+        // Scale the probabilities so that they average one; prob[i] = N p_i.
+        for (int i=0; i<n; i++) {
+            double w = Double.isNaN(weights[i]) ? unknownWeight : weights[i];
+            double scaled = (sum > 0) ? (1.0 - mix) * n * w / sum + mix : 1.0;
+            prob[i] = scaled;
+            multipliers[i] = 1.0 / scaled;
+        }
+        // Partition the columns into those with too little probability, kept
+        // at the front of the work array, and those with too much, kept at the
+        // back. Each small column is topped up from a large one.
+        int numSmall = 0;
+        int largeStart = n;
+        for (int i=0; i<n; i++) {
+            if (prob[i] < 1.0) {
+                work[numSmall++] = i;
+            } else {
+                work[--largeStart] = i;
+            }
+        }
+        while (numSmall > 0 && largeStart < n) {
+            int small = work[--numSmall];
+            int large = work[largeStart++];
+            alias[small] = large;
+            prob[large] = (prob[large] + prob[small]) - 1.0;
+            if (prob[large] < 1.0) {
+                work[numSmall++] = large;
+            } else {
+                work[--largeStart] = large;
+            }
+        }
+        // The remaining columns are full, up to rounding error.
+        while (largeStart < n) {
+            prob[work[largeStart++]] = 1.0;
+        }
+        while (numSmall > 0) {
+            prob[work[--numSmall]] = 1.0;
+        }
+    }
+
+    private int nextInt(int n) {
+        return (random == null) ? Prng.nextInt(n) : random.nextInt(n);
+    }
+
+    private double nextDouble() {
+        return (random == null) ? Prng.nextDouble() : random.nextDouble();
+    }
+
+    private void shuffle(int[] array) {
+        if (random == null) {
+            IntArrays.shuffle(array);
+            return;
+        }
+        // Fisher-Yates shuffle.
+        for (int i=array.length-1; i>0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = array[i];
+            array[i] = array[j];
+            array[j] = tmp;
+        }
+    }
+
+    private static void checkWeight(double weight) {
+        if (!(weight >= 0) || Double.isInfinite(weight)) {
+            throw new IllegalArgumentException("Weights must be non-negative and finite: " + weight);
+        }
+    }
+
+    private void checkBuffer(int[] batch) {
+        if (batch.length != batchSize) {
+            throw new IllegalArgumentException("Batch buffer length must equal the batch size: " + batch.length + " != " + batchSize);
+        }
+    }
+
+    /** Gets the number of indices in each batch. */
+    public int getBatchSize() {
+        return batchSize;
+    }
         
 }
@@ -18,9 +18,12 @@ import edu.jhu.util.Timer;
 /**
  * The gain schedule suggested in Leon Bottou's (2012) SGD Tricks paper.
  * 
+ * The learning rate depends only on the iteration, so the schedule has no
+ * state to update and may be shared by any number of threads.
+ * 
  * @author mgormley
  */
-public class BottouSchedule implements GainSchedule {
+public class BottouSchedule extends AbstractGainSchedule {
 
     /** Options for this class. */
     public static class BottouSchedulePrm extends Prm {
@@ -40,6 +43,13 @@ public class BottouSchedule implements GainSchedule {
          * Guassian) prior, then we should set \lambda = 1 / \sigma^2.
          */
         public double lambda = 1.0;
+        /**
+         * The exponent on the decay. (i.e. c in where \gamma_t =
+         * \frac{\gamma_0}{(1 + \gamma_0 \lambda t)^c})
+         * 
+         * Leon Bottou's (2012) SGD tricks paper recommends 0.75 for averaged SGD.
+         */
+        public double power = 1.0;
     }
     
     private BottouSchedulePrm prm;
@@ -57,9 +67,20 @@ public class BottouSchedule implements GainSchedule {
     public double getLearningRate(int iterCount, int i) {
         // We use the learning rate suggested in Leon Bottou's (2012) SGD Tricks paper.
         // 
-        // \gamma_t = \frac{\gamma_0}{1 + \gamma_0 \lambda t})
+        // \gamma_t = \frac{\gamma_0}{(1 + \gamma_0 \lambda t)^c})
         //
-        return prm.initialLr / (1 + prm.initialLr * prm.lambda * iterCount);
+        double denom = 1 + prm.initialLr * prm.lambda * iterCount;
+        if (prm.power != 1.0) {
+            denom = Math.pow(denom, prm.power);
+        }
+        return prm.initialLr / denom;
+    }
+    
+    /** The learning rate does not depend on the parameter, so this is a single scalar multiply. */
+    @Override
+    public void scaleGradient(int iterCount, IntDoubleVector gradient, boolean maximize) {
+        double lr = getLearningRate(iterCount, 0);
+        gradient.scale(maximize ? lr : -lr);
     }
     
     @Override
@@ -72,6 +93,18 @@ public class BottouSchedule implements GainSchedule {
         // Do nothing.
     }
 
+    /** The rate depends only on the iteration. */
+    @Override
+    public boolean hasUniformLearningRates() {
+        return true;
+    }
+
+    /** This schedule has no state, so it is thread-safe. */
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     public GainSchedule copy() {
         BottouSchedulePrm otherPrm = Prm.clonePrm(this.prm);
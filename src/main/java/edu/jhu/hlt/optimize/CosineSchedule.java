@@ -0,0 +1,80 @@
+package edu.jhu.hlt.optimize;
+
+import edu.jhu.hlt.util.Prm;
+
+/**
+ * Cosine annealing of the learning rates of another schedule, optionally with
+ * warm restarts (SGDR; Loshchilov &amp; Hutter, 2017). Over a period of T
+ * iterations the multiplier falls from 1 to minMultiplier along half a cosine:
+ * 
+ * m_t = minMultiplier + (1 - minMultiplier) (1 + cos(\pi t / T)) / 2
+ * 
+ * Without restarts the multiplier stays at minMultiplier after the first
+ * period. With restarts it jumps back to 1 at the end of each period, and each
+ * period is periodGrowth times as long as the last.
+ */
+public class CosineSchedule extends ScaledSchedule {
+
+    /** Options for this class. */
+    public static class CosineSchedulePrm extends Prm {
+        /** The number of iterations in the (first) period. */
+        public int period = 1000;
+        /** The multiplier at the end of each period. */
+        public double minMultiplier = 0.0;
+        /** Whether to restart at the end of each period. */
+        public boolean restarts = false;
+        /** The factor by which each period is longer than the previous one, when restarting. */
+        public double periodGrowth = 1.0;
+    }
+
+    private CosineSchedulePrm prm;
+
+    public CosineSchedule(GainSchedule sched, CosineSchedulePrm prm) {
+        super(sched);
+        if (prm.period < 1) {
+            throw new IllegalArgumentException("Period must be positive: " + prm.period);
+        }
+        if (prm.periodGrowth < 1.0) {
+            throw new IllegalArgumentException("Period growth must be at least 1: " + prm.periodGrowth);
+        }
+        this.prm = prm;
+    }
+
+    @Override
+    protected double getMultiplier(int iterCount) {
+        double t = iterCount;
+        double period = prm.period;
+        if (prm.restarts) {
+            if (prm.periodGrowth == 1.0) {
+                t = iterCount % prm.period;
+            } else {
+                // Period k starts at P (g^k - 1) / (g - 1), so the period
+                // containing this iteration follows from a logarithm.
+                double g = prm.periodGrowth;
+                int k = (int) Math.floor(Math.log1p(t * (g - 1.0) / period) / Math.log(g));
+                // Correct for rounding in the logarithm at the period boundaries.
+                if (t < getPeriodStart(k)) {
+                    k--;
+                } else if (t >= getPeriodStart(k + 1)) {
+                    k++;
+                }
+                t -= getPeriodStart(k);
+                period *= Math.pow(g, k);
+            }
+        } else {
+            t = Math.min(t, period);
+        }
+        return prm.minMultiplier + (1.0 - prm.minMultiplier) * 0.5 * (1.0 + Math.cos(Math.PI * t / period));
+    }
+
+    /** Gets the first iteration of the k'th period, when the periods grow. */
+    private double getPeriodStart(int k) {
+        return prm.period * (Math.pow(prm.periodGrowth, k) - 1.0) / (prm.periodGrowth - 1.0);
+    }
+
+    @Override
+    public GainSchedule copy() {
+        return new CosineSchedule(sched.copy(), Prm.clonePrm(prm));
+    }
+
+}
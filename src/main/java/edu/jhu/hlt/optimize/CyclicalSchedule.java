@@ -0,0 +1,44 @@
+package edu.jhu.hlt.optimize;
+
+import edu.jhu.hlt.util.Prm;
+
+/**
+ * Triangular cyclical learning rates (Smith, 2017) for another schedule. The
+ * multiplier starts at minMultiplier, rises linearly to 1 over halfCycle
+ * iterations, falls back to minMultiplier over the next halfCycle iterations,
+ * and repeats.
+ */
+public class CyclicalSchedule extends ScaledSchedule {
+
+    /** Options for this class. */
+    public static class CyclicalSchedulePrm extends Prm {
+        /** The number of iterations in half of a cycle. */
+        public int halfCycle = 1000;
+        /** The multiplier at the start and end of each cycle. */
+        public double minMultiplier = 0.1;
+    }
+
+    private CyclicalSchedulePrm prm;
+
+    public CyclicalSchedule(GainSchedule sched, CyclicalSchedulePrm prm) {
+        super(sched);
+        if (prm.halfCycle < 1) {
+            throw new IllegalArgumentException("Half cycle must be positive: " + prm.halfCycle);
+        }
+        this.prm = prm;
+    }
+
+    @Override
+    protected double getMultiplier(int iterCount) {
+        // The position in the cycle, in [0, 2).
+        double x = (double) (iterCount % (2 * prm.halfCycle)) / prm.halfCycle;
+        double height = 1.0 - Math.abs(x - 1.0);
+        return prm.minMultiplier + (1.0 - prm.minMultiplier) * height;
+    }
+
+    @Override
+    public GainSchedule copy() {
+        return new CyclicalSchedule(sched.copy(), Prm.clonePrm(prm));
+    }
+
+}
@@ -0,0 +1,188 @@
+package edu.jhu.hlt.optimize;
+
+import org.apache.log4j.Logger;
+
+import edu.jhu.hlt.optimize.function.BatchFunctionOpts;
+import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
+import edu.jhu.hlt.optimize.state.StateArray;
+import edu.jhu.hlt.optimize.state.StateStorage;
+import edu.jhu.hlt.util.Prm;
+import edu.jhu.prim.util.Lambda.FnIntDoubleToVoid;
+import edu.jhu.prim.vector.IntDoubleUnsortedVector;
+import edu.jhu.prim.vector.IntDoubleVector;
+
+/**
+ * Follow-the-regularized-leader proximal (FTRL-Proximal) (McMahan et al.,
+ * 2013) -- a per-coordinate online method for sparse models.
+ *
+ * Each coordinate keeps the sum z_i of its adjusted gradients and the sum n_i
+ * of its squared gradients. Its weight is the closed form minimizer of the
+ * linearized loss plus the L1 and L2 penalties and a proximal term:
+ *
+ * w_i = 0 if |z_i| \leq \lambda_1, and otherwise
+ * w_i = - \frac{z_i - sgn(z_i) \lambda_1}{(\beta + \sqrt{n_i}) / \alpha + \lambda_2}
+ *
+ * So coordinates whose accumulated gradient does not exceed the L1 penalty are
+ * exactly zero. A step costs time proportional to the number of nonzeros in
+ * the gradient: the weight of a coordinate changes only when its gradient is
+ * nonzero, so nothing needs to be caught up.
+ *
+ * The L1 and L2 penalties here replace those of the function (e.g. L1's
+ * subgradient), which should be unregularized.
+ */
+public class FTRLProximal implements Optimizer<DifferentiableBatchFunction> {
+
+    /** Options for this optimizer. */
+    public static class FTRLProximalPrm extends Prm {
+        /** The scaling parameter for the per-coordinate learning rates, \alpha. */
+        public double alpha = 0.1;
+        /** The smoothing parameter for the per-coordinate learning rates, \beta. */
+        public double beta = 1.0;
+        /** The multiplier on the L1 penalty, \lambda_1. */
+        public double l1Lambda = 0.0;
+        /** The multiplier on the L2 penalty, \lambda_2. */
+        public double l2Lambda = 0.0;
+        /** The number of passes over the dataset to perform. */
+        public double numPasses = 10;
+        /** The batch size to use at each step. */
+        public int batchSize = 1;
+        /** Whether batches should be sampled with replacement. */
+        public boolean withReplacement = false;
+        /** Whether to compute the function value after each pass, rather than only the last. */
+        public boolean computeValueOnNonFinalIter = true;
+        /** The backend for the per-coordinate sums. */
+        public StateStorage storage = StateStorage.DOUBLE;
+        public FTRLProximalPrm() { }
+        public FTRLProximalPrm(double alpha, double l1Lambda, double l2Lambda, int numPasses) {
+            this.alpha = alpha;
+            this.l1Lambda = l1Lambda;
+            this.l2Lambda = l2Lambda;
+            this.numPasses = numPasses;
+        }
+    }
+
+    private static final Logger log = Logger.getLogger(FTRLProximal.class);
+
+    private FTRLProximalPrm prm;
+    // The sum of the adjusted gradients of each coordinate.
+    private StateArray z;
+    // The sum of the squared gradients of each coordinate.
+    private StateArray n;
+
+    public FTRLProximal(FTRLProximalPrm prm) {
+        this.prm = prm;
+        if (prm.alpha <= 0 || prm.beta <= 0) {
+            throw new IllegalArgumentException("Alpha and beta must be positive: " + prm.alpha + " " + prm.beta);
+        }
+        if (prm.l1Lambda < 0 || prm.l2Lambda < 0) {
+            throw new IllegalArgumentException("Regularizer multipliers must be non-negative: " + prm.l1Lambda + " " + prm.l2Lambda);
+        }
+    }
+
+    /**
+     * Maximize the function starting at the given initial point.
+     */
+    @Override
+    public boolean maximize(DifferentiableBatchFunction function, IntDoubleVector point) {
+        return optimize(function, point, true);
+    }
+
+    /**
+     * Minimize the function starting at the given initial point.
+     */
+    @Override
+    public boolean minimize(DifferentiableBatchFunction function, IntDoubleVector point) {
+        return optimize(function, point, false);
+    }
+
+    private boolean optimize(DifferentiableBatchFunction function, final IntDoubleVector point, boolean maximize) {
+        int numExamples = function.getNumExamples();
+        int iterations = (int) Math.ceil(prm.numPasses * numExamples / prm.batchSize);
+        log.info("Setting number of batch gradient steps: " + iterations);
+        init(function, point);
+
+        BatchSampler batchSampler = new BatchSampler(prm.withReplacement, numExamples, prm.batchSize);
+        IntDoubleUnsortedVector gradBuffer = new IntDoubleUnsortedVector();
+        // The gradient of the function to be minimized.
+        final double sign = maximize ? -1.0 : 1.0;
+        int[] batch = new int[prm.batchSize];
+        int passCount = 0;
+        for (int iterCount = 0; iterCount < iterations; iterCount++) {
+            batchSampler.sampleBatch(batch);
+            gradBuffer.clear();
+            BatchFunctionOpts.accumulateValueGradient(function, point, batch, sign, gradBuffer);
+            gradBuffer.iterate(new FnIntDoubleToVoid() {
+                @Override
+                public void call(int i, double g) {
+                    update(point, i, g);
+                }
+            });
+
+            int nextIterCount = iterCount + 1;
+            double passCountFrac = (double) nextIterCount * prm.batchSize / numExamples;
+            if ((int) Math.floor(passCountFrac) > passCount || nextIterCount == iterations) {
+                passCount = (int) Math.floor(passCountFrac);
+                if (prm.computeValueOnNonFinalIter || nextIterCount == iterations) {
+                    double value = function.getValue(point);
+                    log.info(String.format("Function value on all examples = %g at iteration = %d on pass = %.2f",
+                            value, nextIterCount, passCountFrac));
+                }
+            }
+        }
+        log.info(String.format("Number of nonzero weights: %d of %d", countNonZeros(point, function.getNumDimensions()),
+                function.getNumDimensions()));
+        // We don't test for convergence.
+        return false;
+    }
+
+    /**
+     * Initializes the sums so that the weights are those of the initial point.
+     */
+    private void init(DifferentiableBatchFunction function, IntDoubleVector point) {
+        int numDims = function.getNumDimensions();
+        StateArray[] arrays = prm.storage.newArrays(numDims, 2);
+        z = arrays[0];
+        n = arrays[1];
+        for (int i=0; i<numDims; i++) {
+            double w = point.get(i);
+            if (w != 0.0) {
+                // Invert the closed form for the weight, with n_i = 0.
+                z.set(i, -w * (prm.beta / prm.alpha + prm.l2Lambda) - Math.signum(w) * prm.l1Lambda);
+            }
+        }
+        log.info(StateStorage.getMemoryReport("FTRLProximal", z.getNumBytes() + n.getNumBytes(), 16L * numDims));
+    }
+
+    /** Updates the sums of a coordinate with its gradient, and sets its new weight. */
+    private void update(IntDoubleVector point, int i, double g) {
+        double w = point.get(i);
+        double ni = n.get(i);
+        double newN = ni + g * g;
+        double sigma = (Math.sqrt(newN) - Math.sqrt(ni)) / prm.alpha;
+        double zi = z.get(i) + g - sigma * w;
+        z.set(i, zi);
+        n.set(i, newN);
+        point.set(i, getWeight(zi, newN));
+    }
+
+    /** Gets the weight which minimizes the linearized, regularized objective of a coordinate. */
+    private double getWeight(double zi, double ni) {
+        if (Math.abs(zi) <= prm.l1Lambda) {
+            return 0.0;
+        }
+        double w = -(zi - Math.signum(zi) * prm.l1Lambda) / ((prm.beta + Math.sqrt(ni)) / prm.alpha + prm.l2Lambda);
+        assert !Double.isNaN(w);
+        return w;
+    }
+
+    private static int countNonZeros(IntDoubleVector point, int numDims) {
+        int count = 0;
+        for (int i=0; i<numDims; i++) {
+            if (point.get(i) != 0.0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+}
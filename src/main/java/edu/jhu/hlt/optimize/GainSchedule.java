@@ -11,6 +11,11 @@ public interface GainSchedule extends Serializable {
     void takeNoteOfGradient(IntDoubleVector gradient);
     double getLearningRate(int iterCount, int i);
     
+    /**
+     * Gets a copy of this schedule and its state. Schedules with large state
+     * should make this cheap (e.g. with copy-on-write storage), since SGD
+     * copies the schedule for every candidate learning rate it evaluates.
+     */
     GainSchedule copy();
     double getEta0();
     void setEta0(double eta0);
@@ -0,0 +1,41 @@
+package edu.jhu.hlt.optimize;
+
+import org.apache.log4j.Logger;
+
+import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
+import edu.jhu.prim.vector.IntDoubleVector;
+
+/**
+ * Stops when the L2 norm of the gradient on all examples falls below a
+ * threshold. Each check costs one full gradient computation.
+ */
+public class GradientNormCriterion implements StoppingCriterion {
+
+    private static final Logger log = Logger.getLogger(GradientNormCriterion.class);
+
+    private double threshold;
+
+    /**
+     * @param threshold The gradient norm at or below which to stop.
+     */
+    public GradientNormCriterion(double threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Threshold must be non-negative: " + threshold);
+        }
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void reset() {
+        // No state.
+    }
+
+    @Override
+    public boolean isConverged(DifferentiableBatchFunction function, IntDoubleVector point, double value, boolean maximize) {
+        // getL2Norm() gives the sum of squares.
+        double norm = Math.sqrt(function.getGradient(point).getL2Norm());
+        log.debug("Gradient norm on all examples: " + norm);
+        return norm <= threshold;
+    }
+
+}
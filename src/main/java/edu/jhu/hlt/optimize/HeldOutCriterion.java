@@ -0,0 +1,72 @@
+package edu.jhu.hlt.optimize;
+
+import org.apache.log4j.Logger;
+
+import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
+import edu.jhu.prim.vector.IntDoubleVector;
+
+/**
+ * Early stopping on held-out data. Stops once the value of a held-out function
+ * has failed to improve on its best value for a given number of consecutive
+ * passes. The held-out function is optimized in the same direction as the
+ * training function.
+ * 
+ * The point with the best held-out value is kept, so that it can be restored
+ * after training.
+ */
+public class HeldOutCriterion implements StoppingCriterion {
+
+    private static final Logger log = Logger.getLogger(HeldOutCriterion.class);
+
+    private DifferentiableBatchFunction heldOut;
+    private int patience;
+    private double bestValue;
+    private IntDoubleVector bestPoint;
+    private int numPassesWithoutImprovement;
+
+    /**
+     * @param heldOut The held-out function.
+     * @param patience The number of consecutive passes without improvement
+     *            after which to stop.
+     */
+    public HeldOutCriterion(DifferentiableBatchFunction heldOut, int patience) {
+        if (patience < 1) {
+            throw new IllegalArgumentException("Patience must be positive: " + patience);
+        }
+        this.heldOut = heldOut;
+        this.patience = patience;
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        bestValue = Double.NaN;
+        bestPoint = null;
+        numPassesWithoutImprovement = 0;
+    }
+
+    @Override
+    public boolean isConverged(DifferentiableBatchFunction function, IntDoubleVector point, double value, boolean maximize) {
+        double heldOutValue = heldOut.getValue(point);
+        log.info("Held-out function value = " + heldOutValue);
+        if (bestPoint == null || (maximize ? heldOutValue > bestValue : heldOutValue < bestValue)) {
+            bestValue = heldOutValue;
+            bestPoint = point.copy();
+            numPassesWithoutImprovement = 0;
+        } else {
+            numPassesWithoutImprovement++;
+        }
+        return numPassesWithoutImprovement >= patience;
+    }
+
+    /** Gets the best held-out value seen, or NaN if none. */
+    public double getBestValue() {
+        return bestValue;
+    }
+
+    /** Gets a copy of the point with the best held-out value, or null if none. */
+    public IntDoubleVector getBestPoint() {
+        return bestPoint;
+    }
+
+}
@@ -0,0 +1,246 @@
+package edu.jhu.hlt.optimize;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import edu.jhu.hlt.optimize.BottouSchedule.BottouSchedulePrm;
+import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
+import edu.jhu.hlt.optimize.function.NonstationaryFunction;
+import edu.jhu.hlt.optimize.function.ValueGradient;
+import edu.jhu.hlt.util.Prm;
+import edu.jhu.hlt.util.Threads;
+import edu.jhu.prim.util.Lambda.FnIntDoubleToVoid;
+import edu.jhu.prim.vector.IntDoubleDenseVector;
+import edu.jhu.prim.vector.IntDoubleVector;
+import edu.jhu.util.Prng;
+import edu.jhu.util.Timer;
+
+/**
+ * Lock-free parallel stochastic gradient descent with minibatches, in the style
+ * of Hogwild! (Niu et al., 2011).
+ *
+ * Each worker thread samples its own batches and writes its updates directly
+ * into the shared parameter vector without any locking. When the gradients are
+ * sparse, workers rarely touch the same coordinates and the occasional lost
+ * update does little harm. Each worker samples from its own Random, seeded
+ * from the global {@link Prng} at startup, so the workers do not contend for
+ * a shared generator.
+ *
+ * The workers call {@link DifferentiableBatchFunction#getValueGradient}
+ * concurrently, so the function must be thread-safe: it must not write to
+ * shared state (e.g. a cached gradient buffer) without synchronization.
+ *
+ * The gain schedule is shared by all the workers, so by default it must be
+ * thread-safe (see {@link AbstractGainSchedule#isThreadSafe()}): e.g.
+ * BottouSchedule, AdaGrad with ATOMIC storage, or AdaDelta with lock stripes
+ * and DOUBLE storage. Setting {@link HogwildSGDPrm#relaxedScheduleWrites}
+ * also admits schedules whose state sees the same benign races as the
+ * parameters (e.g. AdaGrad or RMSProp with DOUBLE storage). Schedules whose
+ * writes may restructure their state (SPARSE or COPY_ON_WRITE storage) are
+ * always rejected.
+ *
+ * A {@link NonstationaryFunction} is told about each iteration under a lock,
+ * and only ever sees the iteration count increase: a worker which claimed an
+ * earlier iteration than the most recently reported one skips the call.
+ */
+public class HogwildSGD implements Optimizer<DifferentiableBatchFunction> {
+
+    /** Options for this optimizer. */
+    public static class HogwildSGDPrm extends Prm {
+        /** The gain schedule which defines the learning rate at each iteration. */
+        public GainSchedule sched = new BottouSchedule(new BottouSchedulePrm());
+        /** The number of passes over the dataset to perform. */
+        public double numPasses = 10;
+        /** The batch size to use at each step. */
+        public int batchSize = 15;
+        /** Whether batches should be sampled with replacement. */
+        public boolean withReplacement = false;
+        /** The number of worker threads. */
+        public int numThreads = Runtime.getRuntime().availableProcessors();
+        /** Whether to compute the function value before training begins. */
+        public boolean computeInitialValue = true;
+        /**
+         * Whether to allow a gain schedule which is not thread-safe, but whose
+         * concurrent updates are relaxed Hogwild-style writes (see
+         * {@link AbstractGainSchedule#allowsRelaxedWrites()}). Such updates
+         * may occasionally lose a gradient from the schedule's state.
+         */
+        public boolean relaxedScheduleWrites = false;
+        public HogwildSGDPrm() { }
+        public HogwildSGDPrm(double initialLr, int numPasses, int batchSize, int numThreads) {
+            this.sched.setEta0(initialLr);
+            this.numPasses = numPasses;
+            this.batchSize = batchSize;
+            this.numThreads = numThreads;
+        }
+    }
+
+    private static final Logger log = Logger.getLogger(HogwildSGD.class);
+
+    private HogwildSGDPrm prm;
+    /** Guards calls to {@link NonstationaryFunction#updatateIterAndMax(int, int)}. */
+    private final Object hookLock = new Object();
+    /** The latest iteration reported to a nonstationary function. */
+    private int lastNotified;
+    /** The throughput of the most recent run in examples per second. */
+    private double examplesPerSec = Double.NaN;
+
+    public HogwildSGD(HogwildSGDPrm prm) {
+        this.prm = prm;
+        if (prm.numThreads < 1) {
+            throw new IllegalArgumentException("Number of threads must be positive: " + prm.numThreads);
+        }
+    }
+
+    /**
+     * Maximize the function starting at the given initial point.
+     */
+    @Override
+    public boolean maximize(DifferentiableBatchFunction function, IntDoubleVector point) {
+        return optimize(function, point, true);
+    }
+
+    /**
+     * Minimize the function starting at the given initial point.
+     */
+    @Override
+    public boolean minimize(DifferentiableBatchFunction function, IntDoubleVector point) {
+        return optimize(function, point, false);
+    }
+
+    private boolean optimize(final DifferentiableBatchFunction function, final IntDoubleVector point, final boolean maximize) {
+        if (!(point instanceof IntDoubleDenseVector) || point.getNumImplicitEntries() < function.getNumDimensions()) {
+            // Writes to any other vector type (or a dense vector which must
+            // grow) can restructure the vector underneath the other workers.
+            throw new IllegalArgumentException("Hogwild updates require a dense point with an entry for every dimension.");
+        }
+        if (prm.numThreads > 1 && !AbstractGainSchedule.isThreadSafe(prm.sched)) {
+            if (!prm.relaxedScheduleWrites) {
+                throw new IllegalArgumentException("Gain schedule is not thread-safe; set relaxedScheduleWrites to allow relaxed writes: "
+                        + prm.sched.getClass().getSimpleName());
+            }
+            if (!AbstractGainSchedule.allowsRelaxedWrites(prm.sched)) {
+                throw new IllegalArgumentException("Gain schedule does not allow relaxed concurrent writes (e.g. due to SPARSE or COPY_ON_WRITE storage): "
+                        + prm.sched.getClass().getSimpleName());
+            }
+        }
+        final int numExamples = function.getNumExamples();
+        final int iterations = (int) Math.ceil(prm.numPasses * numExamples / prm.batchSize);
+        log.info("Setting number of batch gradient steps: " + iterations);
+        log.info("Number of worker threads: " + prm.numThreads);
+        prm.sched.init(function);
+
+        if (prm.computeInitialValue) {
+            double value = function.getValue(point);
+            log.info(String.format("Function value on all examples = %g at iteration = %d on pass = %.2f", value, 0, 0.0));
+        }
+
+        // Each worker claims the next iteration from this shared counter.
+        final AtomicInteger iterCount = new AtomicInteger(0);
+        synchronized (hookLock) {
+            lastNotified = -1;
+        }
+        ExecutorService pool = Threads.newDaemonThreadPool(prm.numThreads, "hogwild");
+        Timer timer = new Timer();
+        timer.start();
+        try {
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (int w = 0; w < prm.numThreads; w++) {
+                final Random random = new Random(Prng.nextLong());
+                futures.add(pool.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return runWorker(function, point, maximize, iterCount, iterations, random);
+                    }
+                }));
+            }
+            List<Integer> stepsPerWorker = Threads.getAll(futures);
+            log.debug("Steps taken by each worker: " + stepsPerWorker);
+        } finally {
+            pool.shutdownNow();
+        }
+        timer.stop();
+
+        // Report the throughput so that scaling with the number of threads can be compared across runs.
+        examplesPerSec = (double) iterations * prm.batchSize / timer.totSec();
+        log.info(String.format("Throughput with %d threads: %.3g examples/sec (%.3g examples/sec/thread)",
+                prm.numThreads, examplesPerSec, examplesPerSec / prm.numThreads));
+
+        double value = function.getValue(point);
+        log.info(String.format("Function value on all examples = %g at iteration = %d on pass = %.2f", value, iterations, prm.numPasses));
+        // We don't test for convergence.
+        return false;
+    }
+
+    /**
+     * Runs a single worker until the shared iteration count is exhausted.
+     *
+     * @return The number of steps taken by this worker.
+     */
+    private int runWorker(DifferentiableBatchFunction function, final IntDoubleVector point, boolean maximize,
+            AtomicInteger iterCount, int iterations, Random random) {
+        BatchSampler batchSampler = new BatchSampler(prm.withReplacement, function.getNumExamples(), prm.batchSize, random);
+        int[] batch = new int[prm.batchSize];
+        int numSteps = 0;
+        while (true) {
+            int iter = iterCount.getAndIncrement();
+            if (iter >= iterations) {
+                break;
+            }
+            batchSampler.sampleBatch(batch);
+            if (function instanceof NonstationaryFunction) {
+                notifyIter((NonstationaryFunction) function, iter, iterations);
+            }
+
+            // Get the current value and gradient of the function.
+            ValueGradient vg = function.getValueGradient(point, batch);
+            IntDoubleVector gradient = vg.getGradient();
+            prm.sched.takeNoteOfGradient(gradient);
+
+            // Scale the gradient by the parameter-specific learning rate.
+            AbstractGainSchedule.scaleGradient(prm.sched, iter, gradient, maximize);
+
+            // Take a step in the direction of the gradient, one coordinate at
+            // a time, without locking.
+            gradient.iterate(new FnIntDoubleToVoid() {
+                @Override
+                public void call(int index, double step) {
+                    assert !Double.isNaN(step);
+                    assert !Double.isInfinite(step);
+                    point.add(index, step);
+                }
+            });
+            numSteps++;
+        }
+        return numSteps;
+    }
+
+    /**
+     * Reports the iteration to a nonstationary function, serializing the calls
+     * from all the workers and never moving the iteration backwards.
+     */
+    private void notifyIter(NonstationaryFunction function, int iter, int iterations) {
+        synchronized (hookLock) {
+            if (iter > lastNotified) {
+                function.updatateIterAndMax(iter, iterations);
+                lastNotified = iter;
+            }
+        }
+    }
+
+    /**
+     * Gets the throughput, in examples per second, of the most recent call to
+     * {@link #maximize} or {@link #minimize}, or NaN if there has been none.
+     */
+    public double getExamplesPerSec() {
+        return examplesPerSec;
+    }
+
+}
@@ -0,0 +1,124 @@
+package edu.jhu.hlt.optimize;
+
+import java.io.Serializable;
+
+import edu.jhu.prim.vector.IntDoubleVector;
+
+/**
+ * The running Polyak average of the points visited by SGD, maintained lazily
+ * so that the cost of each step is proportional to the number of nonzeros in
+ * the gradient, not the number of parameters.
+ *
+ * Each coordinate records the sum of its values over the iterations averaged
+ * so far, and the iteration up to which that sum is complete. Between the
+ * steps which touch it, a coordinate only shrinks by the lazily applied L2
+ * penalty, if any, so its sum can be brought up to date at once just before
+ * it changes: its current value times the sum of the decays over the missed
+ * iterations (see {@link LazyRegularizer#getDecaySum}). Under an L1 penalty,
+ * a coordinate also moves towards zero between steps, which this does not
+ * account for.
+ */
+class LazyAverage implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of iterations after which averaging begins. */
+    private int start;
+    /** Whether averaging has begun. */
+    private boolean begun;
+    /** The sum of each coordinate's values over the iterations (start, numSummed[i]]. */
+    private double[] sums;
+    /** The iteration up to which each coordinate's sum is complete. */
+    private int[] numSummed;
+
+    public LazyAverage(int start, int numDimensions) {
+        this.start = start;
+        this.sums = new double[numDimensions];
+        this.numSummed = new int[numDimensions];
+    }
+
+    /** Gets a deep copy of this average, e.g. as a snapshot for a checkpoint. */
+    public LazyAverage copy() {
+        LazyAverage other = new LazyAverage(start, 0);
+        other.begun = begun;
+        other.sums = sums.clone();
+        other.numSummed = numSummed.clone();
+        return other;
+    }
+
+    /** Gets the number of iterations after which averaging is to begin. */
+    public int getStart() {
+        return start;
+    }
+
+    /** Whether averaging has begun. */
+    public boolean hasBegun() {
+        return begun;
+    }
+
+    /**
+     * Begins averaging after the given number of iterations, which must be
+     * at least the start. Every coordinate must be fully regularized through
+     * these iterations.
+     */
+    public void begin(int iterCount) {
+        if (iterCount < start) {
+            throw new IllegalStateException("Averaging cannot begin before iteration " + start + ": " + iterCount);
+        }
+        start = iterCount;
+        for (int i=0; i<numSummed.length; i++) {
+            numSummed[i] = iterCount;
+        }
+        begun = true;
+    }
+
+    /**
+     * Adds a coordinate's values after every iteration up to and including
+     * iterCount which has not yet been summed. This must be called before the
+     * coordinate is next regularized or stepped.
+     *
+     * @param point The current point.
+     * @param i The coordinate.
+     * @param iterCount The number of iterations through which to sum.
+     * @param reg The lazily applied regularizer, or null if there is none.
+     * @param lr The learning rate with which the regularizer will catch up
+     *            the coordinate.
+     */
+    public void catchUp(IntDoubleVector point, int i, int iterCount, LazyRegularizer reg, double lr) {
+        int gap = iterCount - numSummed[i];
+        if (!begun || gap <= 0) {
+            return;
+        }
+        double weight = (reg == null) ? gap : reg.getDecaySum(i, numSummed[i], iterCount, lr);
+        sums[i] += weight * point.get(i);
+        numSummed[i] = iterCount;
+    }
+
+    /** Brings the sum for every coordinate up to date. */
+    public void catchUpAll(IntDoubleVector point, int iterCount, LazyRegularizer reg, GainSchedule sched) {
+        for (int i=0; i<sums.length; i++) {
+            catchUp(point, i, iterCount, reg, sched.getLearningRate(iterCount, i));
+        }
+    }
+
+    /**
+     * Overwrites the point with the average of the points after each
+     * iteration in (start, iterCount]. The point must be the one after
+     * iteration iterCount.
+     *
+     * @return Whether the point was overwritten, which it is not if no
+     *         iterations have been averaged.
+     */
+    public boolean setToAverage(IntDoubleVector point, int iterCount, LazyRegularizer reg, GainSchedule sched) {
+        if (!begun || iterCount <= start) {
+            return false;
+        }
+        catchUpAll(point, iterCount, reg, sched);
+        double count = iterCount - start;
+        for (int i=0; i<sums.length; i++) {
+            point.set(i, sums[i] / count);
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,102 @@
+package edu.jhu.hlt.optimize;
+
+import java.io.Serializable;
+
+import edu.jhu.prim.vector.IntDoubleVector;
+
+/**
+ * A velocity for heavy-ball or Nesterov momentum, decayed lazily so that the
+ * cost of each step is proportional to the number of nonzeros in the step, not
+ * the number of parameters.
+ * 
+ * On an iteration with step s, heavy-ball momentum updates v \gets \mu v + s
+ * and x \gets x + v, while Nesterov momentum updates v \gets \mu v + s and
+ * x \gets x + \mu v + s. On the iterations where a coordinate's step is zero,
+ * its velocity only decays, so g such iterations can be applied at once:
+ * 
+ * x \gets x + c v \frac{1 - \mu^g}{1 - \mu}, v \gets \mu^g v
+ * 
+ * where c = \mu for heavy-ball and c = \mu^2 for Nesterov momentum. Each
+ * coordinate records the number of iterations applied to it, and is brought
+ * up to date when it is next stepped.
+ * 
+ * Between steps, the function sees each coordinate as of its last update.
+ * The gradient of a batch is therefore evaluated at stale coordinates, which
+ * are missing the velocity of the iterations since they were last stepped.
+ * The result equals dense momentum only when the gradient does not depend on
+ * those coordinates (e.g. a linear function). Otherwise the trajectory
+ * differs, as with delayed gradients. The point must be brought up to date
+ * with {@link #catchUpAll} before the full objective is computed or the point
+ * is returned.
+ */
+class LazyMomentum implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The momentum \mu. */
+    private double momentum;
+    /** Whether to use Nesterov (true) or heavy-ball (false) momentum. */
+    private boolean nesterov;
+    /** The velocity of each coordinate. */
+    private double[] velocity;
+    /** The number of iterations applied to each coordinate. */
+    private int[] numApplied;
+
+    public LazyMomentum(double momentum, boolean nesterov, int numDimensions) {
+        if (momentum < 0 || momentum >= 1) {
+            throw new IllegalArgumentException("Momentum must be in [0, 1): " + momentum);
+        }
+        this.momentum = momentum;
+        this.nesterov = nesterov;
+        this.velocity = new double[numDimensions];
+        this.numApplied = new int[numDimensions];
+    }
+
+    /** Gets a deep copy of this momentum, e.g. as a snapshot for a checkpoint. */
+    public LazyMomentum copy() {
+        LazyMomentum other = new LazyMomentum(momentum, nesterov, 0);
+        other.velocity = velocity.clone();
+        other.numApplied = numApplied.clone();
+        return other;
+    }
+
+    /**
+     * Applies the decaying velocity to a coordinate for every iteration before
+     * iterCount which it has not yet seen.
+     */
+    public void catchUp(IntDoubleVector point, int i, int iterCount) {
+        int gap = iterCount - numApplied[i];
+        if (gap <= 0) {
+            return;
+        }
+        numApplied[i] = iterCount;
+        double v = velocity[i];
+        if (v == 0.0) {
+            return;
+        }
+        double decay = Math.pow(momentum, gap);
+        double c = nesterov ? momentum * momentum : momentum;
+        point.add(i, c * v * (1 - decay) / (1 - momentum));
+        velocity[i] = v * decay;
+    }
+
+    /** Brings every coordinate of the point up to date. */
+    public void catchUpAll(IntDoubleVector point, int iterCount) {
+        for (int i=0; i<velocity.length; i++) {
+            catchUp(point, i, iterCount);
+        }
+    }
+
+    /**
+     * Applies iteration iterCount to a coordinate, with a (possibly zero)
+     * step, after bringing it up to date.
+     */
+    public void step(IntDoubleVector point, int i, int iterCount, double step) {
+        catchUp(point, i, iterCount);
+        double v = momentum * velocity[i] + step;
+        velocity[i] = v;
+        point.add(i, nesterov ? momentum * v + step : v);
+        numApplied[i] = iterCount + 1;
+    }
+
+}
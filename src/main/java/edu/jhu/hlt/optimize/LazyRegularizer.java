@@ -0,0 +1,335 @@
+package edu.jhu.hlt.optimize;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import edu.jhu.prim.vector.IntDoubleVector;
+
+/**
+ * L1 and L2 regularization applied lazily by SGD. The cost of each step is
+ * proportional to the number of nonzeros in the gradient, not the number of
+ * parameters.
+ *
+ * Each coordinate records the number of iterations for which its penalty has
+ * been applied. When a step touches a coordinate, the penalty for all the
+ * iterations it missed is applied at once, before the step is added: the L2
+ * penalty as a multiplicative decay and the L1 penalty by the cumulative
+ * penalty method of Tsuruoka et al. (2009). Each coordinate accumulates the
+ * total L1 penalty u_i it could have received and the total penalty q_i
+ * actually applied to it, and is shrunk towards zero by the difference,
+ * clipped at zero. A coordinate which the gradient keeps pushing back and
+ * forth across zero therefore still ends up at zero.
+ *
+ * If the schedule gives every parameter the same learning rate (see
+ * {@link AbstractGainSchedule#hasUniformLearningRates()}), the learning rate
+ * of every iteration is recorded globally, with {@link #advance}: the product
+ * of the L2 decays (a global scale factor, kept as a logarithm) and the sum of
+ * the L1 penalties. A coordinate's missed penalty is then the change in these
+ * since it was last regularized, which is exact for any such schedule,
+ * including warmup, cyclical or step multipliers.
+ *
+ * Otherwise, the missed iterations use the coordinate's current learning
+ * rate. This is exact for schedules where a coordinate's rate changes only
+ * when it is touched (e.g. AdaGrad), and a close approximation for slowly
+ * changing ones. It is poor for an iteration-dependent multiplier of such a
+ * schedule (e.g. a warmup or cyclical multiplier of AdaGrad): a coordinate
+ * untouched during warmup is penalized for all of it at the full rate.
+ *
+ * When both penalties are used, the missed L2 decay is applied before the
+ * missed L1 penalty rather than interleaved with it. Between touches, the
+ * function sees each coordinate as of its last update. The point must be
+ * brought up to date with {@link #flush} before the full objective is
+ * computed or the point is returned.
+ */
+class LazyRegularizer implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    /** The log of the shrinkage of the scale after which to rebase the sums of the decays. */
+    private static final double MIN_LOG_SHRINKAGE = Math.log(1e-3);
+
+    /** The multiplier on the L1 penalty, \lambda_1 ||w||_1. */
+    private double l1Lambda;
+    /** The multiplier on the L2 penalty, \frac{\lambda_2}{2} ||w||_2^2. */
+    private double l2Lambda;
+    /** Whether the learning rates are the same for every coordinate, and recorded globally. */
+    private boolean uniform;
+    /** The number of iterations for which each coordinate has been regularized. */
+    private int[] numApplied;
+    /** The total L1 penalty, u_i, which each coordinate could have received, or null if the rates are uniform. */
+    private double[] totalL1;
+    /** The total L1 penalty, q_i, actually applied to each coordinate (as a signed change). */
+    private double[] appliedL1;
+    /** For uniform rates, the total L1 penalty, u, which any coordinate could have received. */
+    private double cumulativeL1;
+    /** For uniform rates, the logarithm of the product of the L2 decays of every iteration. */
+    private double logScale;
+    /** For uniform rates, the value of logScale when each coordinate was last regularized. */
+    private double[] appliedLogScale;
+    /** For uniform rates, the value of logScale when the scale sum was last rebased. */
+    private double baseLogScale;
+    /**
+     * For uniform rates, the sum of e^{logScale - baseLogScale} over the
+     * iterations since the last rebase, including the one at it. Used to sum
+     * the decays of a coordinate over the iterations it missed.
+     */
+    private double scaleSum = 1.0;
+    /** For uniform rates, the value of scaleSum when each coordinate was last regularized. */
+    private double[] appliedScaleSum;
+
+    /**
+     * Constructs a regularizer which uses each coordinate's current learning
+     * rate for the iterations it missed.
+     */
+    public LazyRegularizer(double l1Lambda, double l2Lambda, int numDimensions) {
+        this(l1Lambda, l2Lambda, numDimensions, false);
+    }
+
+    /**
+     * Constructs a regularizer.
+     * 
+     * @param uniform Whether the schedule gives every coordinate the same
+     *            learning rate, in which case the rates must be recorded with
+     *            {@link #advance} on every iteration.
+     */
+    public LazyRegularizer(double l1Lambda, double l2Lambda, int numDimensions, boolean uniform) {
+        if (l1Lambda < 0 || l2Lambda < 0) {
+            throw new IllegalArgumentException("Regularizer multipliers must be non-negative: " + l1Lambda + " " + l2Lambda);
+        }
+        this.l1Lambda = l1Lambda;
+        this.l2Lambda = l2Lambda;
+        this.uniform = uniform;
+        this.numApplied = new int[numDimensions];
+        if (l1Lambda > 0) {
+            this.appliedL1 = new double[numDimensions];
+            if (!uniform) {
+                this.totalL1 = new double[numDimensions];
+            }
+        }
+        if (uniform && l2Lambda > 0) {
+            this.appliedLogScale = new double[numDimensions];
+            this.appliedScaleSum = new double[numDimensions];
+            Arrays.fill(appliedScaleSum, 1.0);
+        }
+    }
+
+    /** Gets a deep copy of this regularizer, e.g. as a snapshot for a checkpoint. */
+    public LazyRegularizer copy() {
+        LazyRegularizer other = new LazyRegularizer(l1Lambda, l2Lambda, 0, uniform);
+        other.numApplied = numApplied.clone();
+        other.totalL1 = (totalL1 == null) ? null : totalL1.clone();
+        other.appliedL1 = (appliedL1 == null) ? null : appliedL1.clone();
+        other.cumulativeL1 = cumulativeL1;
+        other.logScale = logScale;
+        other.appliedLogScale = (appliedLogScale == null) ? null : appliedLogScale.clone();
+        other.baseLogScale = baseLogScale;
+        other.scaleSum = scaleSum;
+        other.appliedScaleSum = (appliedScaleSum == null) ? null : appliedScaleSum.clone();
+        return other;
+    }
+
+    /**
+     * Records the penalty of an iteration for uniform learning rates. This
+     * must be called once on each iteration, after the coordinates touched
+     * by its step have been caught up to it, and before they are caught up
+     * past it. Otherwise, this does nothing.
+     * 
+     * @param iterCount The iteration.
+     * @param sched The gain schedule supplying the learning rate.
+     */
+    public void advance(int iterCount, GainSchedule sched) {
+        if (!uniform) {
+            return;
+        }
+        double lr = sched.getLearningRate(iterCount, 0);
+        cumulativeL1 += lr * l1Lambda;
+        if (l2Lambda > 0) {
+            // A decay of zero would lose the scale; one this small zeroes any coordinate.
+            double logDecay = Math.log(Math.max(Double.MIN_NORMAL, 1.0 - lr * l2Lambda));
+            logScale += logDecay;
+            scaleSum += Math.exp(logScale - baseLogScale);
+        }
+    }
+
+    /**
+     * Applies the penalty to a single coordinate for every iteration before
+     * iterCount which it has not yet seen.
+     *
+     * @param point The point to update.
+     * @param i The coordinate.
+     * @param iterCount The number of iterations for which the coordinate
+     *            should be regularized after this call. For uniform learning
+     *            rates, these must all have been recorded with
+     *            {@link #advance}.
+     * @param lr The learning rate for the coordinate, which is ignored for
+     *            uniform learning rates.
+     */
+    public void catchUp(IntDoubleVector point, int i, int iterCount, double lr) {
+        int gap = iterCount - numApplied[i];
+        if (gap <= 0) {
+            return;
+        }
+        numApplied[i] = iterCount;
+        double decay = 1.0;
+        if (l2Lambda > 0) {
+            if (uniform) {
+                decay = Math.exp(logScale - appliedLogScale[i]);
+                appliedLogScale[i] = logScale;
+                appliedScaleSum[i] = scaleSum;
+            } else {
+                decay = Math.pow(Math.max(0.0, 1.0 - lr * l2Lambda), gap);
+            }
+        }
+        double u = 0.0;
+        if (l1Lambda > 0) {
+            if (uniform) {
+                u = cumulativeL1;
+            } else {
+                totalL1[i] += gap * lr * l1Lambda;
+                u = totalL1[i];
+            }
+        }
+        double w = point.get(i);
+        if (w == 0.0) {
+            // Neither penalty can move a coordinate away from zero.
+            return;
+        }
+        w *= decay;
+        if (l1Lambda > 0) {
+            double z = w;
+            if (w > 0) {
+                w = Math.max(0.0, w - (u + appliedL1[i]));
+            } else if (w < 0) {
+                w = Math.min(0.0, w + (u - appliedL1[i]));
+            }
+            appliedL1[i] += w - z;
+        }
+        assert !Double.isNaN(w);
+        point.set(i, w);
+    }
+
+    /**
+     * Gets the sum, over the iterations k in (from, to], of the factor by
+     * which the L2 penalty shrinks a coordinate from its current value to its
+     * value after k iterations. The coordinate's current value times this sum
+     * is the sum of its values after each of those iterations, if it is not
+     * touched in the meantime. The L1 penalty is not included.
+     * 
+     * @param i The coordinate.
+     * @param from The first iteration is from + 1, where from must be at least
+     *            one less than the number of iterations for which the
+     *            coordinate has been regularized. For uniform learning rates,
+     *            it must also be at most that number.
+     * @param to The last iteration. For uniform learning rates, this must be
+     *            the number of iterations recorded with {@link #advance}.
+     * @param lr The learning rate for the coordinate, which is ignored for
+     *            uniform learning rates.
+     */
+    public double getDecaySum(int i, int from, int to, double lr) {
+        int a = numApplied[i];
+        assert a - 1 <= from && from <= to;
+        if (l2Lambda == 0.0) {
+            return to - from;
+        }
+        if (uniform) {
+            assert from <= a;
+            // The sum of the decays from a to each k in [a, to], less the
+            // term for k = a (which is one) if from = a.
+            double sum = (scaleSum - appliedScaleSum[i]) * Math.exp(baseLogScale - appliedLogScale[i]) + 1.0;
+            return sum - (from - a + 1);
+        }
+        double c = lr * l2Lambda;
+        if (c == 0.0) {
+            return to - from;
+        } else if (c >= 1.0) {
+            // Only the value after iteration a is nonzero.
+            return (from + 1 == a) ? 1.0 : 0.0;
+        }
+        // A geometric series in the decay 1 - c, starting from its (from + 1 - a)'th power.
+        double logDecay = Math.log1p(-c);
+        return Math.exp((from + 1 - a) * logDecay) * -Math.expm1((to - from) * logDecay) / c;
+    }
+
+    /**
+     * Whether the scale has shrunk enough since the last rebase that
+     * {@link #getDecaySum} is losing precision for uniform learning rates:
+     * its error grows with the shrinkage since the last rebase.
+     */
+    public boolean needsRebase() {
+        return uniform && l2Lambda > 0 && logScale - baseLogScale < MIN_LOG_SHRINKAGE;
+    }
+
+    /**
+     * Restarts the sums of the decays from the current iteration, which takes
+     * time proportional to the number of parameters. Every coordinate must
+     * first be brought up to date with {@link #flush}.
+     */
+    public void rebase() {
+        if (appliedLogScale == null) {
+            return;
+        }
+        baseLogScale = logScale;
+        scaleSum = 1.0;
+        Arrays.fill(appliedLogScale, logScale);
+        Arrays.fill(appliedScaleSum, 1.0);
+    }
+
+    /**
+     * Brings every coordinate of the point up to date.
+     *
+     * @param point The point to update.
+     * @param iterCount The number of iterations completed.
+     * @param sched The gain schedule supplying the learning rates.
+     */
+    public void flush(IntDoubleVector point, int iterCount, GainSchedule sched) {
+        for (int i=0; i<numApplied.length; i++) {
+            if (numApplied[i] < iterCount) {
+                catchUp(point, i, iterCount, sched.getLearningRate(iterCount, i));
+            }
+        }
+    }
+
+    /**
+     * Gets the penalty \lambda_1 ||w||_1 + \frac{\lambda_2}{2} ||w||_2^2.
+     */
+    public double getValue(IntDoubleVector point) {
+        double l1 = 0.0;
+        double l2 = 0.0;
+        for (int i=0; i<numApplied.length; i++) {
+            double w = point.get(i);
+            l1 += Math.abs(w);
+            l2 += w * w;
+        }
+        return l1Lambda * l1 + l2Lambda / 2.0 * l2;
+    }
+
+    /**
+     * Adds the gradient of the penalty to the gradient of the function, both
+     * on all examples. At a coordinate which is zero, the L1 penalty is not
+     * differentiable, and the subgradient of smallest magnitude is used: the
+     * function's gradient shrunk towards zero by \lambda_1.
+     * 
+     * @param point The point, which must be up to date.
+     * @param gradient The gradient of the function, to which the penalty's
+     *            gradient is added in place.
+     * @param maximize Whether the penalty is subtracted from a maximized
+     *            function (true) or added to a minimized one (false).
+     */
+    public void addGradient(IntDoubleVector point, IntDoubleVector gradient, boolean maximize) {
+        double sign = maximize ? -1.0 : 1.0;
+        for (int i=0; i<numApplied.length; i++) {
+            double w = point.get(i);
+            if (w != 0.0) {
+                gradient.add(i, sign * (l2Lambda * w + l1Lambda * Math.signum(w)));
+            } else if (l1Lambda > 0) {
+                double g = gradient.get(i);
+                gradient.set(i, Math.signum(g) * Math.max(0.0, Math.abs(g) - l1Lambda));
+            }
+        }
+    }
+
+    /** Whether any regularization is specified. */
+    public static boolean isActive(double l1Lambda, double l2Lambda) {
+        return l1Lambda != 0.0 || l2Lambda != 0.0;
+    }
+
+}
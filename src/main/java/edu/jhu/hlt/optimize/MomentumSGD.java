@@ -0,0 +1,79 @@
+package edu.jhu.hlt.optimize;
+
+import java.io.Serializable;
+
+import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
+import edu.jhu.prim.util.Lambda.FnIntDoubleToVoid;
+import edu.jhu.prim.vector.IntDoubleVector;
+
+/**
+ * Stochastic gradient descent with heavy-ball (Polyak, 1964) or Nesterov
+ * (Sutskever et al., 2013) momentum.
+ * 
+ * The velocity is decayed lazily (see {@link LazyMomentum}), so a sparse step
+ * costs time proportional to its number of nonzeros. As a consequence,
+ * gradients are evaluated at stale coordinates which do not yet include the
+ * velocity of the iterations since they were last stepped. For nonlinear
+ * functions this differs from dense momentum, though it reaches the same
+ * optimum.
+ */
+public class MomentumSGD extends SGD {
+
+    /** Options for this optimizer. */
+    public static class MomentumSGDPrm extends SGDPrm {
+        /** The momentum, i.e. the fraction of the velocity kept at each iteration. */
+        public double momentum = 0.9;
+        /** Whether to use Nesterov (true) or heavy-ball (false) momentum. */
+        public boolean nesterov = false;
+        public MomentumSGDPrm() { }
+        public MomentumSGDPrm(double initialLr, int numPasses, int batchSize) {
+            super(initialLr, numPasses, batchSize);
+        }
+    }
+
+    private MomentumSGDPrm prm;
+    private LazyMomentum velocity;
+
+    public MomentumSGD(MomentumSGDPrm prm) {
+        super(prm);
+        this.prm = prm;
+    }
+
+    @Override
+    protected void init(DifferentiableBatchFunction function) {
+        super.init(function);
+        velocity = new LazyMomentum(prm.momentum, prm.nesterov, function.getNumDimensions());
+    }
+
+    @Override
+    protected void takeStep(final int iterCount, final IntDoubleVector point, IntDoubleVector step) {
+        step.iterate(new FnIntDoubleToVoid() {
+            @Override
+            public void call(int index, double value) {
+                velocity.step(point, index, iterCount, value);
+            }
+        });
+    }
+
+    @Override
+    protected void flushRegularizer(IntDoubleVector point, int numIters) {
+        velocity.catchUpAll(point, numIters);
+        super.flushRegularizer(point, numIters);
+    }
+
+    @Override
+    protected SGD newOptimizer(SGDPrm prm) {
+        return new MomentumSGD((MomentumSGDPrm) prm);
+    }
+
+    @Override
+    protected Serializable getCheckpointState() {
+        return velocity.copy();
+    }
+
+    @Override
+    protected void setCheckpointState(Serializable state) {
+        velocity = (LazyMomentum) state;
+    }
+
+}
@@ -0,0 +1,160 @@
+package edu.jhu.hlt.optimize;
+
+import org.apache.log4j.Logger;
+
+import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
+import edu.jhu.hlt.optimize.state.LazyDecayState;
+import edu.jhu.hlt.optimize.state.StateArray;
+import edu.jhu.hlt.optimize.state.StateStorage;
+import edu.jhu.hlt.util.Prm;
+import edu.jhu.prim.util.Lambda.FnIntDoubleToDouble;
+import edu.jhu.prim.util.Lambda.FnIntDoubleToVoid;
+import edu.jhu.prim.vector.IntDoubleVector;
+
+/**
+ * RMSProp (Tieleman &amp; Hinton, 2012) -- parameter-specific learning rates
+ * which divide by a running average of the squared gradients:
+ * 
+ * v_t = \rho v_{t-1} + (1 - \rho) g_t^2 
+ * \gamma_t = \frac{\eta}{\sqrt{v_t + \epsilon}}
+ * 
+ * Unlike AdaGrad, old gradients are forgotten so the learning rates do not
+ * shrink forever. Unlike AdaDelta, there is only one accumulator per
+ * parameter.
+ */
+public class RMSProp extends AbstractGainSchedule {
+
+    /** Options for this optimizer. */
+    public static class RMSPropPrm extends Prm {
+        /** The scaling parameter for the learning rate. */
+        public double eta = 0.001;
+        /** The decay rate (rho) for exponential decay averaging. */
+        public double decayRate = 0.9;
+        /** The amount added (epsilon) to the average of the squares inside the square root. */
+        public double constantAddend = 1e-8;
+        /**
+         * The backend for the per-parameter accumulators (see
+         * {@link LazyDecayState} for sharing them between threads).
+         * COPY_ON_WRITE makes copies of this schedule cheap.
+         */
+        public StateStorage storage = StateStorage.DOUBLE;
+    }
+
+    private static final Logger log = Logger.getLogger(RMSProp.class);
+
+    private RMSPropPrm prm;
+    // The accumulators and the step on which each parameter was last updated.
+    private LazyDecayState state;
+    // Running average of the squared gradient, as of the parameter's last update.
+    private StateArray gradAccum;
+
+    public RMSProp(RMSPropPrm prm) {
+        if (prm.decayRate < 0 || prm.decayRate >= 1) {
+            throw new IllegalArgumentException("Decay rate must be in [0, 1): " + prm.decayRate);
+        }
+        if (prm.constantAddend <= 0) {
+            throw new IllegalArgumentException("Constant added must be positive: " + prm.constantAddend);
+        }
+        this.prm = prm;
+    }
+
+    @Override
+    public void init(DifferentiableBatchFunction function) {
+        int numDims = function.getNumDimensions();
+        state = new LazyDecayState(prm.storage, numDims, 1);
+        gradAccum = state.getArray(0);
+        // Compare against one double[] and one int[].
+        log.info(StateStorage.getMemoryReport("RMSProp", getStateBytes(), 12L * numDims));
+    }
+
+    /** Gets the number of bytes used by the per-parameter accumulators and step counters. */
+    public long getStateBytes() {
+        return state.getNumBytes();
+    }
+
+    /**
+     * Updates the accumulators of the parameters with nonzero gradient.
+     * 
+     * On a step where a parameter's gradient is zero, its accumulator just
+     * decays by the decay rate. So the accumulators of the other parameters
+     * are decayed lazily, when their gradient is next nonzero, which gives
+     * the same values as updating every parameter on every step.
+     */
+    @Override
+    public void takeNoteOfGradient(IntDoubleVector gradient) {
+        final int step = state.nextStep();
+        gradient.iterate(new FnIntDoubleToVoid() {
+            @Override
+            public void call(int i, double g) {
+                double ga = LazyDecayState.decay(gradAccum.get(i), prm.decayRate, state.getGap(i, step));
+                ga = prm.decayRate * ga + (1.0 - prm.decayRate) * g * g;
+                assert !Double.isNaN(ga);
+                gradAccum.set(i, ga);
+                state.setUpdated(i, step);
+            }
+        });
+    }
+
+    /**
+     * Gets the learning rate for the current iteration.
+     * @param iterCount The current iteration.
+     * @param i The index of the current model parameter. 
+     */
+    @Override
+    public double getLearningRate(int iterCount, int i) {
+        // The accumulator after the steps since the last update, on which the gradient was zero.
+        return computeLearningRate(LazyDecayState.decay(gradAccum.get(i), prm.decayRate, state.getStepsSinceUpdate(i)));
+    }
+
+    private double computeLearningRate(double gradAccum) {
+        if (gradAccum < 0) {
+            throw new RuntimeException("Gradient accumulator is < 0: " + gradAccum);
+        }
+        double learningRate = prm.eta / Math.sqrt(gradAccum + prm.constantAddend);
+        assert !Double.isNaN(learningRate);
+        // We shouldn't ever worry about infinities because of the constantAdded being > 0.
+        assert !Double.isInfinite(learningRate);
+        return learningRate;
+    }
+
+    /** The nonzero entries of the gradient were just updated, so their accumulators need no decay. */
+    @Override
+    public void scaleGradient(int iterCount, IntDoubleVector gradient, boolean maximize) {
+        final double sign = maximize ? 1.0 : -1.0;
+        gradient.apply(new FnIntDoubleToDouble() {
+            @Override
+            public double call(int i, double value) {
+                return sign * computeLearningRate(gradAccum.get(i)) * value;
+            }
+        });
+    }
+
+    /** Each update reads and then writes the state, so it is never thread-safe, even with ATOMIC storage. */
+    @Override
+    public boolean allowsRelaxedWrites() {
+        return prm.storage.hasIndependentEntries();
+    }
+
+    /** Gets a copy of this schedule, which shares the unchanged state if the storage is copy-on-write. */
+    @Override
+    public GainSchedule copy() {
+        RMSPropPrm otherPrm = Prm.clonePrm(this.prm);
+        RMSProp other = new RMSProp(otherPrm);
+        if (this.state != null) {
+            other.state = this.state.copy();
+            other.gradAccum = other.state.getArray(0);
+        }
+        return other;
+    }
+
+    @Override
+    public double getEta0() {
+        return prm.eta;
+    }
+
+    @Override
+    public void setEta0(double eta0) {
+        prm.eta = eta0;
+    }
+
+}
@@ -0,0 +1,53 @@
+package edu.jhu.hlt.optimize;
+
+import org.apache.log4j.Logger;
+
+import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
+import edu.jhu.prim.vector.IntDoubleVector;
+
+/**
+ * Stops when the objective improves by less than a given fraction of its
+ * previous value between consecutive passes. A pass which makes the objective
+ * worse also counts as converged. Values smaller than one in magnitude are
+ * treated as one, so that an objective approaching zero can still converge.
+ */
+public class RelativeImprovementCriterion implements StoppingCriterion {
+
+    private static final Logger log = Logger.getLogger(RelativeImprovementCriterion.class);
+
+    private double tolerance;
+    private double prevValue;
+
+    /**
+     * @param tolerance The minimum relative improvement per pass.
+     */
+    public RelativeImprovementCriterion(double tolerance) {
+        if (tolerance < 0) {
+            throw new IllegalArgumentException("Tolerance must be non-negative: " + tolerance);
+        }
+        this.tolerance = tolerance;
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        prevValue = Double.NaN;
+    }
+
+    @Override
+    public boolean isConverged(DifferentiableBatchFunction function, IntDoubleVector point, double value, boolean maximize) {
+        if (Double.isNaN(value)) {
+            value = function.getValue(point);
+        }
+        double prev = prevValue;
+        prevValue = value;
+        if (Double.isNaN(prev)) {
+            return false;
+        }
+        double improvement = maximize ? value - prev : prev - value;
+        double relImprovement = improvement / Math.max(Math.abs(prev), 1.0);
+        log.debug("Relative improvement in objective: " + relImprovement);
+        return relImprovement < tolerance;
+    }
+
+}
@@ -0,0 +1,184 @@
+package edu.jhu.hlt.optimize;
+
+import org.apache.log4j.Logger;
+
+import edu.jhu.hlt.optimize.function.LinearBatchFunction;
+import edu.jhu.hlt.util.Prm;
+import edu.jhu.prim.util.Lambda.FnIntDoubleToVoid;
+import edu.jhu.prim.vector.IntDoubleVector;
+
+/**
+ * SAGA (Defazio et al., 2014) for linear models, with one example per step.
+ * 
+ * SAGA remembers the last gradient computed for each example and corrects
+ * each step by the difference from the remembered one, plus the average of all
+ * the remembered gradients:
+ * 
+ * \nabla f_i(x) - g_i + \frac{1}{n} \sum_j g_j
+ * 
+ * This converges linearly with a constant learning rate on strongly convex
+ * functions. Because the gradient of a linear model's example is a scalar
+ * multiple of its features, each remembered gradient is stored as a single
+ * scalar.
+ * 
+ * The average term is nonzero on every coordinate, but it only changes on the
+ * coordinates of the current example. So it is applied lazily: each coordinate
+ * records the last iteration through which it has been updated, and is brought
+ * up to date just before an example which uses it. Each step costs time
+ * proportional to the number of nonzero features of its example.
+ * 
+ * An optional L2 regularizer, \frac{\lambda}{2} ||x||_2^2 on the average
+ * loss, has a gradient which depends only on the coordinate itself, so it is
+ * applied lazily in the same way: between the examples which use it, a
+ * coordinate follows x \leftarrow (1 - \eta\lambda) x - \eta \bar{g}, whose
+ * value after any number of iterations has a closed form.
+ */
+public class SAGA implements Optimizer<LinearBatchFunction> {
+
+    /** Options for this optimizer. */
+    public static class SAGAPrm extends Prm {
+        /** The constant learning rate. */
+        public double lr = 0.01;
+        /**
+         * The multiplier on an L2 regularizer of the average loss,
+         * \frac{\lambda}{2} ||x||_2^2. The learning rate times this must be
+         * less than one.
+         */
+        public double l2Lambda = 0.0;
+        /** The number of passes over the dataset to perform. */
+        public double numPasses = 10;
+        /** Whether examples should be sampled with replacement. */
+        public boolean withReplacement = true;
+        /** Whether to compute the function value on the non-final passes. */
+        public boolean computeValueOnNonFinalIter = true;
+        public SAGAPrm() { }
+        public SAGAPrm(double lr, int numPasses) {
+            this.lr = lr;
+            this.numPasses = numPasses;
+        }
+    }
+
+    private static final Logger log = Logger.getLogger(SAGA.class);
+
+    private SAGAPrm prm;
+    /** The derivative of the loss at each example's margin when last visited. */
+    private double[] derivs;
+    /** The average of the remembered gradients, \frac{1}{n} \sum_j g_j. */
+    private double[] avgGrad;
+    /** The iteration through which each coordinate has been updated. */
+    private int[] numApplied;
+    /** The signed learning rate. */
+    private double stepSize;
+    /** The factor by which the L2 regularizer shrinks each coordinate per iteration. */
+    private double decay;
+
+    public SAGA(SAGAPrm prm) {
+        this.prm = prm;
+    }
+
+    /**
+     * Maximize the function starting at the given initial point.
+     */
+    @Override
+    public boolean maximize(LinearBatchFunction function, IntDoubleVector point) {
+        return optimize(function, point, true);
+    }
+
+    /**
+     * Minimize the function starting at the given initial point.
+     */
+    @Override
+    public boolean minimize(LinearBatchFunction function, IntDoubleVector point) {
+        return optimize(function, point, false);
+    }
+
+    private boolean optimize(LinearBatchFunction function, final IntDoubleVector point, boolean maximize) {
+        if (prm.l2Lambda < 0 || prm.lr * prm.l2Lambda >= 1) {
+            throw new IllegalArgumentException("The L2 multiplier must be non-negative and less than the inverse learning rate: " + prm.l2Lambda);
+        }
+        final int numExamples = function.getNumExamples();
+        int iterations = (int) Math.ceil(prm.numPasses * numExamples);
+        log.info("Setting number of steps: " + iterations);
+        derivs = new double[numExamples];
+        avgGrad = new double[function.getNumDimensions()];
+        numApplied = new int[function.getNumDimensions()];
+        stepSize = maximize ? prm.lr : -prm.lr;
+        decay = 1.0 - prm.lr * prm.l2Lambda;
+        BatchSampler sampler = new BatchSampler(prm.withReplacement, numExamples, 1);
+        int[] batch = new int[1];
+
+        if (prm.computeValueOnNonFinalIter) {
+            log.info(String.format("Function value on all examples = %g at iteration = %d on pass = %.2f", function.getValue(point), 0, 0.0));
+        }
+        int passCount = 0;
+        for (int iter = 0; iter < iterations; iter++) {
+            final int i = sampler.sampleBatch(batch)[0];
+            final int curIter = iter;
+            IntDoubleVector features = function.getFeatures(i);
+
+            // Bring the example's coordinates up to date before computing its margin.
+            features.iterate(new FnIntDoubleToVoid() {
+                @Override
+                public void call(int index, double value) {
+                    catchUp(point, index, curIter);
+                }
+            });
+            double deriv = function.getLossDerivative(i, features.dot(point));
+            final double diff = deriv - derivs[i];
+            derivs[i] = deriv;
+
+            // Take this iteration's step on the example's coordinates, then
+            // update their average gradient.
+            features.iterate(new FnIntDoubleToVoid() {
+                @Override
+                public void call(int index, double value) {
+                    point.set(index, decay * point.get(index) + stepSize * (diff * value + avgGrad[index]));
+                    numApplied[index] = curIter + 1;
+                    avgGrad[index] += diff * value / numExamples;
+                }
+            });
+
+            int nextIter = iter + 1;
+            if ((int) Math.floor((double) nextIter / numExamples) > passCount || nextIter == iterations) {
+                passCount = nextIter / numExamples;
+                if (prm.computeValueOnNonFinalIter || nextIter == iterations) {
+                    catchUpAll(point, nextIter);
+                    double passFrac = (double) nextIter / numExamples;
+                    log.info(String.format("Function value on all examples = %g at iteration = %d on pass = %.2f", function.getValue(point), nextIter, passFrac));
+                }
+            }
+        }
+        catchUpAll(point, iterations);
+        // We don't test for convergence.
+        return false;
+    }
+
+    /**
+     * Applies the average gradient and the regularizer to a coordinate for
+     * every iteration before iterCount through which it has not yet been
+     * updated. The average is constant over those iterations, since it changes
+     * only when the coordinate is used.
+     */
+    private void catchUp(IntDoubleVector point, int index, int iterCount) {
+        int gap = iterCount - numApplied[index];
+        if (gap > 0) {
+            if (decay == 1.0) {
+                point.add(index, gap * stepSize * avgGrad[index]);
+            } else {
+                // After k iterations: r^k x + s \bar{g} (1 - r^k) / (1 - r).
+                double logDecay = Math.log1p(-prm.lr * prm.l2Lambda);
+                double decayed = Math.exp(gap * logDecay);
+                double sum = -Math.expm1(gap * logDecay) / (1.0 - decay);
+                point.set(index, decayed * point.get(index) + sum * stepSize * avgGrad[index]);
+            }
+            numApplied[index] = iterCount;
+        }
+    }
+
+    private void catchUpAll(IntDoubleVector point, int iterCount) {
+        for (int j=0; j<numApplied.length; j++) {
+            catchUp(point, j, iterCount);
+        }
+    }
+
+}
@@ -1,21 +1,37 @@
 package edu.jhu.hlt.optimize;
 
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.commons.lang3.mutable.MutableDouble;
 import org.apache.commons.lang3.mutable.MutableInt;
 import org.apache.log4j.Logger;
 
 import edu.jhu.hlt.optimize.BottouSchedule.BottouSchedulePrm;
+import edu.jhu.hlt.optimize.function.AbstractDifferentiableBatchFunction;
+import edu.jhu.hlt.optimize.function.AccumulatingBatchFunction;
+import edu.jhu.hlt.optimize.function.BatchFunctionOpts;
 import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
 import edu.jhu.hlt.optimize.function.NonstationaryFunction;
 import edu.jhu.hlt.optimize.function.SampleFunction;
 import edu.jhu.hlt.optimize.function.ValueGradient;
 import edu.jhu.hlt.util.OnOffLogger;
 import edu.jhu.hlt.util.Prm;
+import edu.jhu.hlt.util.Threads;
 import edu.jhu.prim.arrays.DoubleArrays;
 import edu.jhu.prim.util.Lambda.FnIntDoubleToDouble;
+import edu.jhu.prim.util.Lambda.FnIntDoubleToVoid;
+import edu.jhu.prim.vector.IntDoubleUnsortedVector;
 import edu.jhu.prim.vector.IntDoubleVector;
+import edu.jhu.util.Prng;
 import edu.jhu.util.Timer;
 
 /**
@@ -41,10 +57,74 @@ public class SGD implements Optimizer<DifferentiableBatchFunction> {
         public int batchSize = 15;
         /** Whether batches should be sampled with replacement. */
         public boolean withReplacement = false;
+        /**
+         * Whether to sample examples, with replacement, in proportion to
+         * estimates of their gradient norms rather than uniformly. An
+         * example's estimate is updated each time it is sampled, and its
+         * gradient is reweighted so that the batch gradient remains
+         * unbiased. This focuses the steps on the examples which are far from
+         * fit, at the cost of computing each example's gradient separately.
+         * Since draws are with replacement, this ignores withReplacement, and
+         * it pays off when the gradient norms are skewed.
+         * 
+         * The value and gradient on a batch must be the sum over its examples
+         * (as in AbstractSumBatchFunction), since the examples are evaluated
+         * one at a time and their reweighted values and gradients are added.
+         * For the same reason, a ParallelBatchFunction evaluates the examples
+         * of a batch serially.
+         */
+        public boolean importanceSampling = false;
+        /**
+         * The fraction of the importance sampling probability spread uniformly
+         * over the examples, which bounds the reweighting of any example by
+         * 1 / importanceUniformMix. Must be in (0, 1].
+         */
+        public double importanceUniformMix = 0.1;
         /** Date by which to stop. */
         public Date stopBy = null;
         /** Whether to compute the function value on the non-final iterations. */
         public boolean computeValueOnNonFinalIter = true;
+        /**
+         * The multiplier on an L1 regularizer, \lambda_1 ||w||_1, which is
+         * applied lazily: each step only regularizes the coordinates that
+         * its gradient touches.
+         */
+        public double l1Lambda = 0.0;
+        /**
+         * The multiplier on an L2 regularizer, \frac{\lambda_2}{2} ||w||_2^2,
+         * which is applied lazily: each step only regularizes the
+         * coordinates that its gradient touches.
+         */
+        public double l2Lambda = 0.0;
+        /**
+         * Whether to compute the function value on the non-final iterations in
+         * a background thread, on a snapshot of the point, while training
+         * continues. The function must be thread-safe.
+         */
+        public boolean asyncValue = false;
+        /**
+         * The number of threads with which to evaluate candidate learning
+         * rates during auto-selection. When greater than one, the doubling and
+         * halving candidates are all evaluated concurrently, each on its own
+         * copy of the point and gain schedule. The function must be
+         * thread-safe. A {@link NonstationaryFunction} is not told about the
+         * iterations of concurrent candidates, which would interleave; each
+         * candidate sees the function as of the start of auto-selection.
+         */
+        public int autoSelectThreads = 1;
+        /**
+         * The criteria checked at the end of each pass. Training stops once
+         * any of them is met. These are not copied with the options.
+         */
+        public transient List<StoppingCriterion> stoppingCriteria = new ArrayList<StoppingCriterion>();
+        /**
+         * The file to which checkpoints are written in the background, or null
+         * for no checkpoints. Training can be resumed from the file with
+         * {@link SGD#resume(DifferentiableBatchFunction, IntDoubleVector, File)}.
+         */
+        public File checkpointFile = null;
+        /** How many passes between checkpoints. */
+        public int checkpointFreq = 1;
         public SGDPrm() { } 
         public SGDPrm(double initialLr, int numPasses, int batchSize) {
             this.sched.setEta0(initialLr);
@@ -53,6 +133,21 @@ public class SGD implements Optimizer<DifferentiableBatchFunction> {
         }
     }
     
+    /** The value of the function on all examples, as computed during optimization. */
+    public static class PassValue {
+        /** The number of iterations completed. */
+        public final int iterCount;
+        /** The number of passes completed. */
+        public final double passCount;
+        /** The value of the function on all examples. */
+        public final double value;
+        public PassValue(int iterCount, double passCount, double value) {
+            this.iterCount = iterCount;
+            this.passCount = passCount;
+            this.value = value;
+        }
+    }
+    
     private static final OnOffLogger log = new OnOffLogger(Logger.getLogger(SGD.class));
 
     /** The number of gradient steps to run. */   
@@ -61,7 +156,36 @@ public class SGD implements Optimizer<DifferentiableBatchFunction> {
     private int iterCount;
     /** The sampler of the indices for each batch. */
     private BatchSampler batchSampler;
-   
+    /** The source of randomness for the batch sampler, or null to use the global Prng. */
+    private Random random;
+    /** The gradient vector reused on every iteration for an AccumulatingBatchFunction. */
+    private IntDoubleUnsortedVector gradBuffer;
+    /** The single example batch and its gradient, reused for importance sampling. */
+    private final int[] exampleBatch = new int[1];
+    private final IntDoubleUnsortedVector exampleGrad = new IntDoubleUnsortedVector();
+    /** The lazily applied regularizer, or null if there is none. */
+    private LazyRegularizer reg;
+    /**
+     * The gain schedule: the one in the options, or the one restored from a
+     * checkpoint, which is not installed in the caller's options.
+     */
+    private GainSchedule sched;
+    /** The values of the function on all examples, in the order they were computed. */
+    private final List<PassValue> passValues = Collections.synchronizedList(new ArrayList<PassValue>());
+    /** The executor for background function evaluations, or null if there is none. */
+    private ExecutorService evalPool;
+    /** The most recent background function evaluation. */
+    private Future<?> pendingValue;
+    /** The executor for background checkpoint writes, or null if there is none. */
+    private ExecutorService checkpointPool;
+    /** The most recent background checkpoint write. */
+    private Future<?> pendingCheckpoint;
+    /** Whether the next call to optimizeWithoutInit continues from a checkpoint. */
+    private boolean resuming;
+    /** Whether a stopping criterion was met during the last call to optimize. */
+    private boolean converged;
+    /** Whether to report each iteration to a {@link NonstationaryFunction}. */
+    private boolean updateNonstationary = true;
 
     private SGDPrm prm;
     
@@ -70,8 +194,38 @@ public class SGD implements Optimizer<DifferentiableBatchFunction> {
      */
     public SGD(SGDPrm prm) {
         this.prm = prm;
+        if (prm.importanceSampling && !(prm.importanceUniformMix > 0 && prm.importanceUniformMix <= 1)) {
+            // With no uniform mix, an example whose gradient was once zero
+            // is never sampled again, and the multipliers are unbounded.
+            throw new IllegalArgumentException("Importance uniform mix must be in (0, 1]: " + prm.importanceUniformMix);
+        }
     }
     
+    /**
+     * Adds the gradient of each example of an importance sampled batch, times
+     * its multiplier from the sampler, and updates the sampler's weight for
+     * the example to the norm of its gradient.
+     * 
+     * @return The value of the batch, with each example's value also
+     *         multiplied.
+     */
+    private double accumulateReweighted(DifferentiableBatchFunction function, IntDoubleVector point, int[] batch,
+            IntDoubleVector gradient) {
+        double value = 0.0;
+        for (int j=0; j<batch.length; j++) {
+            int i = batch[j];
+            exampleBatch[0] = i;
+            exampleGrad.clear();
+            double exampleValue = BatchFunctionOpts.accumulateValueGradient(function, point, exampleBatch, 1.0, exampleGrad);
+            double multiplier = batchSampler.getMultiplier(i);
+            batchSampler.updateWeight(i, exampleGrad.l2Norm());
+            exampleGrad.scale(multiplier);
+            gradient.add(exampleGrad);
+            value += multiplier * exampleValue;
+        }
+        return value;
+    }
+
     /**
      * Initializes all the parameters for optimization.
      */
@@ -80,13 +234,28 @@ public class SGD implements Optimizer<DifferentiableBatchFunction> {
 
         // Variables
         iterCount = 0;
-        batchSampler = new BatchSampler(prm.withReplacement, numExamples, prm.batchSize);
+        passValues.clear();
+        converged = false;
+        if (prm.stoppingCriteria != null) {
+            for (StoppingCriterion c : prm.stoppingCriteria) {
+                c.reset();
+            }
+        }
+        batchSampler = new BatchSampler(prm.withReplacement, numExamples, prm.batchSize, random);
+        if (prm.importanceSampling) {
+            batchSampler.setImportanceWeights(null, prm.importanceUniformMix);
+        }
+        gradBuffer = new IntDoubleUnsortedVector();
+        sched = prm.sched;
+        reg = LazyRegularizer.isActive(prm.l1Lambda, prm.l2Lambda) ? 
+                new LazyRegularizer(prm.l1Lambda, prm.l2Lambda, function.getNumDimensions(),
+                        AbstractGainSchedule.hasUniformLearningRates(sched)) : null;
                     
         // Constants
         iterations = (int) Math.ceil((double) prm.numPasses * numExamples / prm.batchSize);
         log.info("Setting number of batch gradient steps: " + iterations);
         
-        prm.sched.init(function);
+        sched.init(function);
     }
 
     /**
@@ -107,8 +276,37 @@ public class SGD implements Optimizer<DifferentiableBatchFunction> {
     private boolean optimize(DifferentiableBatchFunction function, final IntDoubleVector point, final boolean maximize) {
         init(function);
         optimizeWithoutInit(function, point, maximize);        
-        // We don't test for convergence.
-        return false;
+        return converged;
+    }
+
+    /**
+     * Resumes training from a checkpoint written by a previous run with the
+     * same options and function. Training continues exactly as the
+     * checkpointed run would have, provided the function is deterministic.
+     * The state of any stopping criteria is not checkpointed, and they start
+     * afresh. The restored schedule is used in place of the one in the
+     * options, which are left unchanged.
+     * 
+     * @param function The function being optimized.
+     * @param point The output point, which is overwritten with the
+     *            checkpointed point before training continues.
+     * @param checkpointFile The checkpoint file.
+     * @return Whether a stopping criterion was met.
+     */
+    public boolean resume(DifferentiableBatchFunction function, IntDoubleVector point, File checkpointFile) {
+        SGDCheckpoint ckpt = SGDCheckpoint.read(checkpointFile);
+        init(function);
+        iterCount = ckpt.iterCount;
+        batchSampler = ckpt.batchSampler;
+        reg = ckpt.reg;
+        sched = ckpt.sched;
+        Prng.setRandom(ckpt.random);
+        setCheckpointState(ckpt.extra);
+        ckpt.copyPointTo(point);
+        log.info("Resuming training from iteration " + iterCount);
+        resuming = true;
+        optimizeWithoutInit(function, point, ckpt.maximize);
+        return converged;
     }
 
     private double optimizeWithoutInit(DifferentiableBatchFunction function, final IntDoubleVector point, final boolean maximize) {
@@ -118,12 +316,18 @@ public class SGD implements Optimizer<DifferentiableBatchFunction> {
 
         int passCount = 0;
         double passCountFrac = 0;
-        if (function instanceof NonstationaryFunction) {
+        boolean resumed = resuming;
+        resuming = false;
+        if (resumed) {
+            passCountFrac = (double) iterCount * prm.batchSize / function.getNumExamples();
+            passCount = (int) Math.floor(passCountFrac);
+        }
+        if (updateNonstationary && function instanceof NonstationaryFunction) {
             ((NonstationaryFunction) function).updatateIterAndMax(iterCount, iterations);
         }
         
         Timer tuneTimer = new Timer();
-        if (prm.autoSelectLr) {
+        if (prm.autoSelectLr && !resumed) {
             tuneTimer.start();
             autoSelectLr(function, point, maximize);
             tuneTimer.stop();
@@ -132,45 +336,67 @@ public class SGD implements Optimizer<DifferentiableBatchFunction> {
         
         double value = Double.NaN;
         if (prm.computeValueOnNonFinalIter) {
-            value = function.getValue(point);
-            log.info(String.format("Function value on all examples = %g at iteration = %d on pass = %.2f", value, iterCount, passCountFrac));
+            value = getValue(function, point, maximize);
+            recordValue(value, iterCount, passCountFrac);
         }
         assert (function.getNumDimensions() >= point.getNumImplicitEntries());
 
+        if (prm.asyncValue && prm.computeValueOnNonFinalIter) {
+            // The threads are daemons, so the pool is never left running if training fails.
+            evalPool = Threads.newDaemonThreadPool(1, "sgd-value");
+        }
+        if (prm.checkpointFile != null) {
+            checkpointPool = Threads.newDaemonThreadPool(1, "sgd-checkpoint");
+        }
+
         Timer passTimer = new Timer();
         passTimer.start();
+        // Reuse the batch so that sampling allocates nothing per iteration.
+        int[] batch = new int[batchSampler.getBatchSize()];
         for (; iterCount < iterations; iterCount++) {
-            int[] batch = batchSampler.sampleBatch();
+            batchSampler.sampleBatch(batch);
             
-            if (function instanceof NonstationaryFunction) {
+            if (updateNonstationary && function instanceof NonstationaryFunction) {
                 ((NonstationaryFunction) function).updatateIterAndMax(iterCount, iterations);
             }
             
             // Get the current value and gradient of the function.
-            ValueGradient vg = function.getValueGradient(point, batch);
-            value = vg.getValue();
-            final IntDoubleVector gradient = vg.getGradient();
+            final IntDoubleVector gradient;
+            if (batchSampler.isImportanceSampling()) {
+                gradBuffer.clear();
+                value = accumulateReweighted(function, point, batch, gradBuffer);
+                gradient = gradBuffer;
+            } else if (function instanceof AccumulatingBatchFunction) {
+                // Avoid allocating a new gradient on every iteration.
+                gradBuffer.clear();
+                value = ((AccumulatingBatchFunction) function).accumulateValueGradient(point, batch, 1.0, gradBuffer);
+                gradient = gradBuffer;
+            } else {
+                ValueGradient vg = function.getValueGradient(point, batch);
+                value = vg.getValue();
+                gradient = vg.getGradient();
+            }
             log.trace(String.format("Function value on batch = %g at iteration = %d", value, iterCount));
-            prm.sched.takeNoteOfGradient(gradient);
+            // Before the schedule updates their learning rates.
+            beforeStep(iterCount, point, gradient);
+            sched.takeNoteOfGradient(gradient);
             
             // Scale the gradient by the parameter-specific learning rate.
-            gradient.apply(new FnIntDoubleToDouble() {
-                @Override
-                public double call(int index, double value) {
-                    double lr = prm.sched.getLearningRate(iterCount, index);
-                    if (maximize) {
-                        value = lr * value;
-                    } else {
-                        value = - lr * value;
-                    }
-                    assert !Double.isNaN(value);
-                    assert !Double.isInfinite(value);
-                    return value;
-                }
-            });
+            AbstractGainSchedule.scaleGradient(sched, iterCount, gradient, maximize);
+            assert isFinite(gradient) : "The step is NaN or infinite at iteration " + iterCount;
             
             // Take a step in the direction of the gradient.
-            point.add(gradient);
+            takeStep(iterCount, point, gradient);
+            if (reg != null) {
+                // Regularize only the coordinates which the step touched.
+                reg.advance(iterCount, sched);
+                gradient.iterate(new FnIntDoubleToVoid() {
+                    @Override
+                    public void call(int index, double value) {
+                        reg.catchUp(point, index, iterCount + 1, sched.getLearningRate(iterCount, index));
+                    }
+                });
+            }
 
 //            System.out.print(DoubleArrays.toString( gradient.toNativeArray(), "%.3g"));
 //            System.out.print("   ");
@@ -181,14 +407,40 @@ public class SGD implements Optimizer<DifferentiableBatchFunction> {
             int nextIterCount = iterCount + 1;
             passCountFrac = (double) nextIterCount * prm.batchSize / function.getNumExamples();
             boolean completedPass = (int) Math.floor(passCountFrac) > passCount;
+            // The value on all examples if it was computed synchronously on this iteration.
+            double passValue = Double.NaN;
             if ((completedPass && prm.computeValueOnNonFinalIter) || nextIterCount == iterations) {
                 // Another full pass through the data has been completed or we're on the last iteration.
                 logAvgLrAndStepSize(point, gradient);
+                flushRegularizer(point, nextIterCount);
                 // Report the value of the function on all the examples.
-                value = function.getValue(point);
-                log.info(String.format("Function value on all examples = %g at iteration = %d on pass = %.2f", value, nextIterCount, passCountFrac));                
+                if (evalPool != null && nextIterCount != iterations) {
+                    evaluateInBackground(function, point, maximize, nextIterCount, passCountFrac);
+                } else {
+                    waitForPendingValue();
+                    value = getValue(function, point, maximize);
+                    recordValue(value, nextIterCount, passCountFrac);
+                    passValue = value;
+                }
                 log.debug(String.format("Average time per pass (min): %.2g", passTimer.totSec() / 60.0 / passCountFrac));
             }
+            if ((completedPass || nextIterCount == iterations) && hasStoppingCriteria()) {
+                flushRegularizer(point, nextIterCount);
+                if (isConverged(function, point, passValue, maximize)) {
+                    converged = true;
+                    if (nextIterCount != iterations) {
+                        log.info("Stopping training early.");
+                        if (Double.isNaN(passValue)) {
+                            // Report the value at the point we return.
+                            waitForPendingValue();
+                            value = getValue(function, point, maximize);
+                            recordValue(value, nextIterCount, passCountFrac);
+                        }
+                        iterCount = nextIterCount;
+                        break;
+                    }
+                }
+            }
             if (completedPass) {
                 // Another full pass through the data has been completed.
                 passCount++;
@@ -202,6 +454,9 @@ public class SGD implements Optimizer<DifferentiableBatchFunction> {
                     log.info("Average time (min) per tuning pass: " + tuneTimer.avgSec() / 60.0);
                     passTimer.start();
                 }
+                if (checkpointPool != null && passCount % prm.checkpointFreq == 0 && nextIterCount != iterations) {
+                    checkpointInBackground(point, nextIterCount, maximize);
+                }
             }
             
             if (prm.stopBy != null) {
@@ -209,14 +464,289 @@ public class SGD implements Optimizer<DifferentiableBatchFunction> {
                 if (now.after(prm.stopBy)) {
                     log.info(String.format("Current time is after stop-by time. now=%s, stopBy=%s", now.toString(), prm.stopBy.toString()));
                     log.info("Stopping training early.");
+                    iterCount = nextIterCount;
+                    if (checkpointPool != null) {
+                        checkpointInBackground(point, iterCount, maximize);
+                    }
                     break;
                 }
             }
         }
+        if (evalPool != null) {
+            waitForPendingValue();
+            evalPool.shutdown();
+            evalPool = null;
+        }
+        if (checkpointPool != null) {
+            waitForPendingCheckpoint();
+            checkpointPool.shutdown();
+            checkpointPool = null;
+        }
+        flushRegularizer(point, iterCount);
         
         return value;
     }
 
+    /**
+     * Captures the full training state in memory and writes it to the
+     * checkpoint file in the background. The training thread only copies the
+     * state (e.g. the schedule with {@link GainSchedule#copy()}, which shares
+     * unchanged COPY_ON_WRITE chunks); the copy is serialized and written by
+     * the background thread. At most one write is outstanding: if the
+     * previous one has not finished, this waits for it.
+     */
+    private void checkpointInBackground(IntDoubleVector point, int numIters, boolean maximize) {
+        waitForPendingCheckpoint();
+        final SGDCheckpoint ckpt = new SGDCheckpoint();
+        ckpt.iterCount = numIters;
+        ckpt.maximize = maximize;
+        ckpt.point = point.toNativeArray();
+        ckpt.batchSampler = batchSampler.copy();
+        ckpt.sched = sched.copy();
+        ckpt.reg = (reg == null) ? null : reg.copy();
+        ckpt.random = SGDCheckpoint.copyOf(Prng.getRandom());
+        ckpt.extra = getCheckpointState();
+        final File file = prm.checkpointFile;
+        pendingCheckpoint = checkpointPool.submit(new Runnable() {
+            @Override
+            public void run() {
+                ckpt.write(file);
+                log.debug("Wrote checkpoint to " + file);
+            }
+        });
+    }
+
+    /**
+     * Gets a copy of any subclass state to include in a checkpoint, which is
+     * serialized in the background while training continues, so it must not
+     * share anything that later steps modify. A tie-in for subclasses.
+     */
+    protected Serializable getCheckpointState() {
+        return null;
+    }
+
+    /** Restores the subclass state from a checkpoint. A tie-in for subclasses. */
+    protected void setCheckpointState(Serializable state) {
+        // Do nothing.
+    }
+
+    /** Gets the gain schedule in use, which may have been restored from a checkpoint. */
+    protected GainSchedule getSchedule() {
+        return sched;
+    }
+
+    /** Gets the number of iterations performed thus far. */
+    protected int getIterCount() {
+        return iterCount;
+    }
+
+    private void waitForPendingCheckpoint() {
+        if (pendingCheckpoint != null) {
+            Threads.get(pendingCheckpoint);
+            pendingCheckpoint = null;
+        }
+    }
+
+    private boolean hasStoppingCriteria() {
+        return prm.stoppingCriteria != null && !prm.stoppingCriteria.isEmpty();
+    }
+
+    /**
+     * Whether any stopping criterion is met. Every criterion is checked, so
+     * that each can track its own state. The criteria see the objective
+     * including any lazily applied regularizer.
+     */
+    private boolean isConverged(DifferentiableBatchFunction function, IntDoubleVector point, double value, boolean maximize) {
+        if (reg != null) {
+            function = new RegularizedFunction(function, reg, maximize);
+        }
+        boolean converged = false;
+        for (StoppingCriterion c : prm.stoppingCriteria) {
+            if (c.isConverged(function, point, value, maximize)) {
+                log.info("Stopping criterion met: " + c.getClass().getSimpleName());
+                converged = true;
+            }
+        }
+        return converged;
+    }
+
+    /**
+     * Computes the function value in the background on a snapshot of the
+     * point. At most one evaluation is outstanding: if the previous one has
+     * not finished, this waits for it.
+     */
+    private void evaluateInBackground(final DifferentiableBatchFunction function, IntDoubleVector point, final boolean maximize,
+            final int nextIterCount, final double passCountFrac) {
+        waitForPendingValue();
+        final IntDoubleVector snapshot = point.copy();
+        pendingValue = evalPool.submit(new Runnable() {
+            @Override
+            public void run() {
+                recordValue(getValue(function, snapshot, maximize), nextIterCount, passCountFrac);
+            }
+        });
+    }
+
+    private void waitForPendingValue() {
+        if (pendingValue != null) {
+            Threads.get(pendingValue);
+            pendingValue = null;
+        }
+    }
+
+    private void recordValue(double value, int iterCount, double passCountFrac) {
+        log.info(String.format("Function value on all examples = %g at iteration = %d on pass = %.2f", value, iterCount, passCountFrac));
+        passValues.add(new PassValue(iterCount, passCountFrac, value));
+    }
+
+    /**
+     * Gets the values of the function on all examples which were computed
+     * during the last call to optimize, in the order they were computed.
+     */
+    public List<PassValue> getPassValues() {
+        synchronized (passValues) {
+            return new ArrayList<PassValue>(passValues);
+        }
+    }
+
+    /**
+     * Prepares the coordinates which the step will touch, before the schedule
+     * takes note of the gradient. By default, this applies the regularization
+     * for the iterations they missed since they were last touched, so that
+     * the step is added to their up to date values. A tie-in for subclasses
+     * which must see the coordinates before they change.
+     * 
+     * @param iterCount The current iteration.
+     * @param point The point to update.
+     * @param gradient The gradient, whose nonzeros are the coordinates the
+     *            step will touch.
+     */
+    protected void beforeStep(final int iterCount, final IntDoubleVector point, IntDoubleVector gradient) {
+        if (reg != null) {
+            gradient.iterate(new FnIntDoubleToVoid() {
+                @Override
+                public void call(int index, double value) {
+                    reg.catchUp(point, index, iterCount, sched.getLearningRate(iterCount, index));
+                }
+            });
+        }
+    }
+
+    /**
+     * Adds the step to the point. A tie-in for subclasses which track the
+     * coordinates each step touches.
+     * 
+     * @param iterCount The current iteration.
+     * @param point The point to update.
+     * @param step The scaled gradient.
+     */
+    protected void takeStep(int iterCount, IntDoubleVector point, IntDoubleVector step) {
+        point.add(step);
+    }
+
+    /** Whether every entry of the vector is finite. */
+    private static boolean isFinite(IntDoubleVector vec) {
+        final MutableInt numBad = new MutableInt(0);
+        vec.iterate(new FnIntDoubleToVoid() {
+            @Override
+            public void call(int index, double value) {
+                if (Double.isNaN(value) || Double.isInfinite(value)) {
+                    numBad.increment();
+                }
+            }
+        });
+        return numBad.intValue() == 0;
+    }
+
+    /** Gets the lazily applied regularizer, or null if there is none. */
+    LazyRegularizer getRegularizer() {
+        return reg;
+    }
+
+    /** Applies any outstanding lazy regularization to every coordinate of the point. */
+    protected void flushRegularizer(IntDoubleVector point, int numIters) {
+        if (reg != null) {
+            reg.flush(point, numIters, sched);
+        }
+    }
+
+    /** Gets the value of the function on all examples, including any lazily applied regularizer. */
+    private double getValue(DifferentiableBatchFunction function, IntDoubleVector point, boolean maximize) {
+        return getValue(function, point, maximize, reg);
+    }
+
+    private static double getValue(DifferentiableBatchFunction function, IntDoubleVector point, boolean maximize, LazyRegularizer reg) {
+        double value = function.getValue(point);
+        if (reg != null) {
+            // The regularizer always pulls towards zero.
+            value += maximize ? - reg.getValue(point) : reg.getValue(point);
+        }
+        return value;
+    }
+
+    /**
+     * A function plus the lazily applied regularizer, for the stopping
+     * criteria. A batch receives its share of the penalty in proportion to
+     * its size, so that the penalty is counted once on all examples.
+     */
+    private static class RegularizedFunction extends AbstractDifferentiableBatchFunction {
+
+        private DifferentiableBatchFunction function;
+        private LazyRegularizer reg;
+        private boolean maximize;
+
+        public RegularizedFunction(DifferentiableBatchFunction function, LazyRegularizer reg, boolean maximize) {
+            this.function = function;
+            this.reg = reg;
+            this.maximize = maximize;
+        }
+
+        @Override
+        public double getValue(IntDoubleVector point, int[] batch) {
+            return function.getValue(point, batch) + getPenalty(point, batch);
+        }
+
+        @Override
+        public IntDoubleVector getGradient(IntDoubleVector point, int[] batch) {
+            return getValueGradient(point, batch).getGradient();
+        }
+
+        @Override
+        public ValueGradient getValueGradient(IntDoubleVector point, int[] batch) {
+            ValueGradient vg = function.getValueGradient(point, batch);
+            double frac = (double) batch.length / function.getNumExamples();
+            IntDoubleVector gradient = vg.getGradient();
+            if (frac != 1.0) {
+                // Only the share of the penalty for this batch.
+                IntDoubleVector regGrad = new IntDoubleUnsortedVector();
+                reg.addGradient(point, regGrad, maximize);
+                regGrad.scale(frac);
+                gradient.add(regGrad);
+            } else {
+                reg.addGradient(point, gradient, maximize);
+            }
+            return new ValueGradient(vg.getValue() + getPenalty(point, batch), gradient);
+        }
+
+        private double getPenalty(IntDoubleVector point, int[] batch) {
+            double frac = (double) batch.length / function.getNumExamples();
+            double penalty = frac * reg.getValue(point);
+            // The regularizer always pulls towards zero.
+            return maximize ? - penalty : penalty;
+        }
+
+        @Override
+        public int getNumDimensions() {
+            return function.getNumDimensions();
+        }
+
+        @Override
+        public int getNumExamples() {
+            return function.getNumExamples();
+        }
+
+    }
+
     private void logAvgLrAndStepSize(final IntDoubleVector point, final IntDoubleVector gradient) {
         // Compute the average learning rate and the average step size.
         final MutableDouble avgLr = new MutableDouble(0.0);
@@ -225,7 +755,7 @@ public class SGD implements Optimizer<DifferentiableBatchFunction> {
         gradient.apply(new FnIntDoubleToDouble() {
             @Override
             public double call(int index, double value) {
-                double lr = prm.sched.getLearningRate(iterCount, index);
+                double lr = sched.getLearningRate(iterCount, index);
                 assert !Double.isNaN(point.get(index));
                 if (value != 0.0) {
                     avgLr.add(lr);
@@ -246,11 +776,11 @@ public class SGD implements Optimizer<DifferentiableBatchFunction> {
     }
 
     protected void autoSelectLr(DifferentiableBatchFunction function, final IntDoubleVector point, final boolean maximize) {
-        double eta0 = autoSelectLrStatic(function, point, maximize, prm, iterCount);
-        prm.sched.setEta0(eta0);
+        double eta0 = autoSelectLrStatic(this, function, point, maximize, prm, sched, iterCount);
+        sched.setEta0(eta0);
     }
     
-    private static double autoSelectLrStatic(DifferentiableBatchFunction function, final IntDoubleVector point, final boolean maximize, SGDPrm origPrm, int iterCount) {
+    private static double autoSelectLrStatic(SGD proto, DifferentiableBatchFunction function, final IntDoubleVector point, final boolean maximize, SGDPrm origPrm, GainSchedule origSched, int iterCount) {
         log.info("Auto-selecting the best learning rate constant");
         // Parameters for how we perform auto selection of the initial learning rate.
         // The max number of iterations.
@@ -262,34 +792,59 @@ public class SGD implements Optimizer<DifferentiableBatchFunction> {
         SampleFunction sampFunction = new SampleFunction(function, sampleSize); 
         //
         // Get the objective value with no training.
-        double startObj = sampFunction.getValue(point);
+        LazyRegularizer reg = LazyRegularizer.isActive(origPrm.l1Lambda, origPrm.l2Lambda) ? 
+                new LazyRegularizer(origPrm.l1Lambda, origPrm.l2Lambda, function.getNumDimensions()) : null;
+        double startObj = getValue(sampFunction, point, maximize, reg);
         log.info("Initial sample obj="+startObj);
         // Initialize the "best" values.
-        double origEta0 = origPrm.sched.getEta0();
+        double origEta0 = origSched.getEta0();
         double bestEta = origEta0;
         double bestObj = startObj;
+        // The trials' options, without the schedule. Cloning the options
+        // serializes their fields, so each trial gets its schedule from
+        // GainSchedule.copy() instead, which may be much cheaper (e.g. with
+        // COPY_ON_WRITE storage).
+        SGDPrm template = cloneWithoutSchedule(origPrm);
+        // Each trial samples from its own Random, seeded in order here, so
+        // that the trials are reproducible even when run concurrently, and
+        // the global Prng advances by the same amount however they are run.
+        Random seeder = new Random(Prng.nextLong());
         
-        boolean increasing = true;
-        double eta = origEta0;
-        for (int i=0; i<numEvals; i++) {
-            double obj = evaluateInitialLr(sampFunction, point, maximize, origPrm, eta, iterCount);
-            log.info(String.format("Evaluated initial learning rate: eta="+eta+" obj="+obj));
-            if (isBetter(obj, bestObj, maximize)) {
-                bestObj = obj;
-                bestEta = eta;
-            }
-            if (!isBetter(obj, startObj, maximize) && increasing) {
-                // If training caused the objective to worsen, then switch from
-                // increasing the learning rate to decreasing it.
-                increasing = false;
-                eta = origEta0;
+        if (origPrm.autoSelectThreads > 1) {
+            // Bracket the original learning rate from both sides at once.
+            double[] etas = getBracketLrs(origEta0, factor, numEvals);
+            double[] objs = evaluateInitialLrs(proto, sampFunction, point, maximize, template, origSched, etas, iterCount, seeder);
+            for (int i=0; i<etas.length; i++) {
+                log.info(String.format("Evaluated initial learning rate: eta="+etas[i]+" obj="+objs[i]));
+                if (isBetter(objs[i], bestObj, maximize)) {
+                    bestObj = objs[i];
+                    bestEta = etas[i];
+                }
             }
-            if (increasing) {
-                // Increase eta by a factor.
-                eta *= factor;
-            } else {
-                // Decrease eta by a factor.
-                eta /= factor;
+        } else {
+            boolean increasing = true;
+            double eta = origEta0;
+            for (int i=0; i<numEvals; i++) {
+                double obj = evaluateInitialLr(proto, sampFunction, point, maximize, template, origSched.copy(), eta, iterCount,
+                        new Random(seeder.nextLong()), false);
+                log.info(String.format("Evaluated initial learning rate: eta="+eta+" obj="+obj));
+                if (isBetter(obj, bestObj, maximize)) {
+                    bestObj = obj;
+                    bestEta = eta;
+                }
+                if (!isBetter(obj, startObj, maximize) && increasing) {
+                    // If training caused the objective to worsen, then switch from
+                    // increasing the learning rate to decreasing it.
+                    increasing = false;
+                    eta = origEta0;
+                }
+                if (increasing) {
+                    // Increase eta by a factor.
+                    eta *= factor;
+                } else {
+                    // Decrease eta by a factor.
+                    eta /= factor;
+                }
             }
         }
         // Conservatively return the value for eta smaller than the best one.
@@ -299,24 +854,127 @@ public class SGD implements Optimizer<DifferentiableBatchFunction> {
         return bestEta;
     }
 
-    private static double evaluateInitialLr(DifferentiableBatchFunction sampFunction, IntDoubleVector origPoint, boolean maximize, SGDPrm origPrm, double eta, int iterCount) {
-        SGDPrm prm = Prm.clonePrm(origPrm);
+    /**
+     * Gets the candidate learning rates for a parallel search: the original
+     * rate and its successive multiples by the factor, followed by its
+     * successive divisions by the factor.
+     */
+    private static double[] getBracketLrs(double eta0, double factor, int numEvals) {
+        int numUp = (numEvals + 1) / 2;
+        double[] etas = new double[numEvals];
+        double eta = eta0;
+        for (int i=0; i<numUp; i++) {
+            etas[i] = eta;
+            eta *= factor;
+        }
+        eta = eta0;
+        for (int i=numUp; i<numEvals; i++) {
+            eta /= factor;
+            etas[i] = eta;
+        }
+        return etas;
+    }
+
+    /**
+     * Evaluates each of the candidate learning rates concurrently.
+     * 
+     * @param template The options for each trial, without a schedule.
+     * @param sched The schedule to copy for each trial.
+     * @param seeder The source of the seed for each trial's Random.
+     */
+    private static double[] evaluateInitialLrs(final SGD proto, final DifferentiableBatchFunction sampFunction, final IntDoubleVector point,
+            final boolean maximize, final SGDPrm template, GainSchedule sched, double[] etas, final int iterCount, Random seeder) {
+        int numThreads = Math.min(template.autoSelectThreads, etas.length);
+        ExecutorService pool = Threads.newDaemonThreadPool(numThreads, "sgd-lr");
+        try {
+            List<Future<Double>> futures = new ArrayList<Future<Double>>(etas.length);
+            for (final double eta : etas) {
+                // Copy the schedule on this thread: a copy may write to the
+                // original (e.g. to share COPY_ON_WRITE chunks), so copies
+                // of it must not be made concurrently.
+                final GainSchedule trialSched = sched.copy();
+                final Random trialRandom = new Random(seeder.nextLong());
+                futures.add(pool.submit(new Callable<Double>() {
+                    @Override
+                    public Double call() {
+                        return evaluateInitialLr(proto, sampFunction, point, maximize, template, trialSched, eta, iterCount, trialRandom, true);
+                    }
+                }));
+            }
+            List<Double> objs = Threads.getAll(futures);
+            double[] arr = new double[objs.size()];
+            for (int i=0; i<arr.length; i++) {
+                arr[i] = objs.get(i);
+            }
+            return arr;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Trains a copy of the point for one pass over the sample with the given
+     * initial learning rate.
+     * 
+     * @param template The options for the trial, without a schedule.
+     * @param sched The trial's own copy of the schedule.
+     * @param random The trial's own source of randomness for sampling batches.
+     * @param concurrent Whether other candidates are being evaluated at the
+     *            same time, in which case the function is not told about the
+     *            iterations.
+     * @return The objective value on the sample after training.
+     */
+    private static double evaluateInitialLr(SGD proto, DifferentiableBatchFunction sampFunction, IntDoubleVector origPoint, boolean maximize, SGDPrm template, GainSchedule sched, double eta, int iterCount, Random random, boolean concurrent) {
+        SGDPrm prm = Prm.clonePrm(template);
         IntDoubleVector point = origPoint.copy();
-        prm.sched = prm.sched.copy();
+        prm.sched = sched;
         prm.sched.setEta0(eta);
         prm.numPasses = 1; // Only one epoch.
         prm.autoSelectLr = false; // Don't recurse.
         prm.computeValueOnNonFinalIter = false;
+        // Never overwrite the real run's checkpoint (or race on it with other trials).
+        prm.checkpointFile = null;
+        prm.checkpointFreq = 1;
         
-        SGD sgd = new SGD(prm);
+        SGD sgd = proto.newOptimizer(prm);
+        sgd.updateNonstationary = !concurrent;
+        sgd.random = random;
+        // Only silences this thread, so concurrent evaluations don't interfere.
         log.setEnabled(false);
-        sgd.init(sampFunction);
-        // Make sure we start off the learning rate schedule at the proper place.
-        sgd.iterCount += iterCount;
-        sgd.iterations += iterCount;
-        double obj = sgd.optimizeWithoutInit(sampFunction, point, maximize);
-        log.setEnabled(true);
-        return obj;
+        try {
+            sgd.init(sampFunction);
+            // Make sure we start off the learning rate schedule at the proper place.
+            sgd.iterCount += iterCount;
+            sgd.iterations += iterCount;
+            return sgd.optimizeWithoutInit(sampFunction, point, maximize);
+        } finally {
+            log.setEnabled(true);
+        }
+    }
+
+    /**
+     * Clones the options without serializing the schedule and its state,
+     * which is left null in the clone.
+     */
+    private static SGDPrm cloneWithoutSchedule(SGDPrm prm) {
+        GainSchedule sched = prm.sched;
+        prm.sched = null;
+        try {
+            return Prm.clonePrm(prm);
+        } finally {
+            prm.sched = sched;
+        }
+    }
+
+    /**
+     * Creates an optimizer of the same kind as this one, used to evaluate
+     * candidate learning rates. A tie-in for subclasses whose steps differ
+     * from plain SGD.
+     * 
+     * @param prm A copy of this optimizer's options.
+     */
+    protected SGD newOptimizer(SGDPrm prm) {
+        return new SGD(prm);
     }
 
     private static boolean isBetter(double obj, double bestObj, boolean maximize) {
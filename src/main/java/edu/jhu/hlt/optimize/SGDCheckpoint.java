@@ -0,0 +1,140 @@
+package edu.jhu.hlt.optimize;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import edu.jhu.prim.util.Lambda.FnIntDoubleToDouble;
+import edu.jhu.prim.vector.IntDoubleVector;
+
+/**
+ * The full state of an SGD run, from which training can be resumed exactly.
+ * 
+ * A checkpoint is captured in memory from copies of the training state, so that
+ * later training steps cannot change it, and then serialized and written to
+ * disk as a gzipped file.
+ * The file is written to a temporary file which is then renamed, so an
+ * interrupted write never replaces the previous checkpoint.
+ */
+class SGDCheckpoint implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of iterations completed. */
+    int iterCount;
+    /** Whether we are maximizing (true) or minimizing (false). */
+    boolean maximize;
+    /** The point, as a dense array. */
+    double[] point;
+    BatchSampler batchSampler;
+    GainSchedule sched;
+    /** The lazily applied regularizer, or null if there is none. */
+    LazyRegularizer reg;
+    /** The state of the shared pseudo random number generator. */
+    Random random;
+    /** The state of an SGD subclass, or null if there is none. */
+    Serializable extra;
+
+    /** Gets a copy of a Random which continues with the same sequence. */
+    static Random copyOf(Random random) {
+        try {
+            ByteArrayOutputStream strOut = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(strOut);
+            out.writeObject(random);
+            out.close();
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(strOut.toByteArray()));
+            Random copy = (Random) in.readObject();
+            in.close();
+            return copy;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Serializes this checkpoint to bytes. */
+    public byte[] toBytes() {
+        try {
+            ByteArrayOutputStream strOut = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(strOut);
+            out.writeObject(this);
+            out.close();
+            return strOut.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Writes this checkpoint to a file, replacing it atomically where the platform allows. */
+    public void write(File file) {
+        write(toBytes(), file);
+    }
+
+    /** Writes serialized checkpoint bytes to a file, replacing it atomically where the platform allows. */
+    public static void write(byte[] bytes, File file) {
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            OutputStream out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.write(bytes);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                // Some platforms will not rename onto an existing file.
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("Unable to rename " + tmp + " to " + file);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Reads a checkpoint from a file. */
+    public static SGDCheckpoint read(File file) {
+        try {
+            InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                return (SGDCheckpoint) new ObjectInputStream(in).readObject();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Overwrites the given point with the checkpointed one. */
+    public void copyPointTo(IntDoubleVector out) {
+        out.apply(new FnIntDoubleToDouble() {
+            @Override
+            public double call(int index, double value) {
+                return 0.0;
+            }
+        });
+        for (int i=0; i<point.length; i++) {
+            if (point[i] != 0.0) {
+                out.set(i, point[i]);
+            }
+        }
+    }
+
+}
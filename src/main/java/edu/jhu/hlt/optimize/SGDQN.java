@@ -0,0 +1,219 @@
+package edu.jhu.hlt.optimize;
+
+import org.apache.log4j.Logger;
+
+import edu.jhu.hlt.optimize.function.BatchFunctionOpts;
+import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
+import edu.jhu.hlt.optimize.function.NonstationaryFunction;
+import edu.jhu.hlt.optimize.state.StateArray;
+import edu.jhu.hlt.optimize.state.StateStorage;
+import edu.jhu.hlt.util.Prm;
+import edu.jhu.prim.util.Lambda.FnIntDoubleToDouble;
+import edu.jhu.prim.util.Lambda.FnIntDoubleToVoid;
+import edu.jhu.prim.vector.IntDoubleUnsortedVector;
+import edu.jhu.prim.vector.IntDoubleVector;
+
+/**
+ * SGD-QN (Bordes, Bottou &amp; Gallinari, 2009) -- stochastic gradient descent
+ * with a diagonal rescaling which approximates the inverse Hessian.
+ * 
+ * Each step is w_{t+1} = w_t - \frac{1}{t + t_0} B g_t, where B is diagonal.
+ * Every few iterations, the gradient of the same batch is also computed at the
+ * new point, which gives a secant pair: the change in the weights and the
+ * change in the gradient. Each coordinate's scale B_ii is then moved toward
+ * the ratio of the two, i.e. its inverse curvature along the step. So the
+ * extra gradient is amortized over skip iterations.
+ * 
+ * The scales start at, and are bounded above by, 1/\lambda, where \lambda is a
+ * lower bound on the curvature (e.g. the multiplier on an L2 regularizer).
+ * With the scales fixed at 1/\lambda, the steps are those of SGD with a
+ * {@link BottouSchedule} with initial learning rate 1/(\lambda t_0) and the
+ * same \lambda. The scales are bounded below by 0.01/\lambda, as in the paper.
+ * 
+ * Unlike the paper, the regularizer is part of the function rather than
+ * applied separately every skip iterations.
+ */
+public class SGDQN implements Optimizer<DifferentiableBatchFunction> {
+
+    /** Options for this optimizer. */
+    public static class SGDQNPrm extends Prm {
+        /** A lower bound on the curvature, \lambda, which bounds the scales. */
+        public double lambda = 1.0;
+        /** The offset on the iteration in the learning rate, t_0. */
+        public double t0 = 10;
+        /** The number of iterations between updates of the scales. */
+        public int skip = 16;
+        /** The number of passes over the dataset to perform. */
+        public double numPasses = 10;
+        /** The batch size to use at each step. */
+        public int batchSize = 1;
+        /** Whether batches should be sampled with replacement. */
+        public boolean withReplacement = false;
+        /** Whether to compute the function value after each pass, rather than only the last. */
+        public boolean computeValueOnNonFinalIter = true;
+        /** The backend for the per-coordinate scales. */
+        public StateStorage storage = StateStorage.DOUBLE;
+    }
+
+    private static final Logger log = Logger.getLogger(SGDQN.class);
+
+    private SGDQNPrm prm;
+    // The scale of each coordinate, B_ii, which is only valid if it has been updated.
+    private StateArray scales;
+    // The number of times each coordinate's scale has been updated.
+    private StateArray numUpdates;
+
+    public SGDQN(SGDQNPrm prm) {
+        this.prm = prm;
+        if (prm.lambda <= 0 || prm.t0 <= 0) {
+            throw new IllegalArgumentException("Lambda and t0 must be positive: " + prm.lambda + " " + prm.t0);
+        }
+        if (prm.skip < 1) {
+            throw new IllegalArgumentException("Skip must be positive: " + prm.skip);
+        }
+    }
+
+    /**
+     * Maximize the function starting at the given initial point.
+     */
+    @Override
+    public boolean maximize(DifferentiableBatchFunction function, IntDoubleVector point) {
+        return optimize(function, point, true);
+    }
+
+    /**
+     * Minimize the function starting at the given initial point.
+     */
+    @Override
+    public boolean minimize(DifferentiableBatchFunction function, IntDoubleVector point) {
+        return optimize(function, point, false);
+    }
+
+    private boolean optimize(DifferentiableBatchFunction function, IntDoubleVector point, boolean maximize) {
+        int numExamples = function.getNumExamples();
+        int iterations = (int) Math.ceil(prm.numPasses * numExamples / prm.batchSize);
+        log.info("Setting number of batch gradient steps: " + iterations);
+        init(function);
+
+        BatchSampler batchSampler = new BatchSampler(prm.withReplacement, numExamples, prm.batchSize);
+        IntDoubleUnsortedVector step = new IntDoubleUnsortedVector();
+        // The gradient of the function to be minimized.
+        double sign = maximize ? -1.0 : 1.0;
+        int passCount = 0;
+        int numSecants = 0;
+        int untilSecant = prm.skip;
+        int[] batch = new int[prm.batchSize];
+        for (int iterCount = 0; iterCount < iterations; iterCount++) {
+            batchSampler.sampleBatch(batch);
+            if (function instanceof NonstationaryFunction) {
+                ((NonstationaryFunction) function).updatateIterAndMax(iterCount, iterations);
+            }
+
+            step.clear();
+            BatchFunctionOpts.accumulateValueGradient(function, point, batch, sign, step);
+            boolean takeSecant = (--untilSecant == 0);
+            IntDoubleVector gradient = takeSecant ? step.copy() : null;
+            // Convert the gradient into the step in place.
+            final double lr = 1.0 / (iterCount + prm.t0);
+            step.apply(new FnIntDoubleToDouble() {
+                @Override
+                public double call(int i, double g) {
+                    return -lr * getScale(i) * g;
+                }
+            });
+            point.add(step);
+
+            if (takeSecant) {
+                untilSecant = prm.skip;
+                updateScales(function, point, batch, sign, gradient, lr);
+                numSecants++;
+            }
+
+            int nextIterCount = iterCount + 1;
+            double passCountFrac = (double) nextIterCount * prm.batchSize / numExamples;
+            if ((int) Math.floor(passCountFrac) > passCount || nextIterCount == iterations) {
+                passCount = (int) Math.floor(passCountFrac);
+                if (prm.computeValueOnNonFinalIter || nextIterCount == iterations) {
+                    double value = function.getValue(point);
+                    log.info(String.format("Function value on all examples = %g at iteration = %d on pass = %.2f",
+                            value, nextIterCount, passCountFrac));
+                }
+            }
+        }
+        log.info(String.format("Number of scale updates: %d (%.1f%% extra gradient computations)", numSecants,
+                100.0 * numSecants / iterations));
+        // We don't test for convergence.
+        return false;
+    }
+
+    private void init(DifferentiableBatchFunction function) {
+        int numDims = function.getNumDimensions();
+        StateArray[] arrays = prm.storage.newArrays(numDims, 2);
+        scales = arrays[0];
+        numUpdates = arrays[1];
+        log.info(StateStorage.getMemoryReport("SGDQN", scales.getNumBytes() + numUpdates.getNumBytes(), 16L * numDims));
+    }
+
+    /**
+     * Updates the scales from the secant pair of the step just taken.
+     * 
+     * @param point The new point.
+     * @param gradient The gradient of the batch at the old point.
+     * @param lr The learning rate of the step.
+     */
+    private void updateScales(DifferentiableBatchFunction function, IntDoubleVector point, int[] batch, double sign,
+            final IntDoubleVector gradient, final double lr) {
+        // The change in the gradient of the same batch.
+        final IntDoubleUnsortedVector diff = new IntDoubleUnsortedVector();
+        BatchFunctionOpts.accumulateValueGradient(function, point, batch, sign, diff);
+        gradient.iterate(new FnIntDoubleToVoid() {
+            @Override
+            public void call(int i, double g) {
+                diff.add(i, -g);
+            }
+        });
+        // Sum the entries for each coordinate.
+        diff.compact();
+        final double maxScale = 1.0 / prm.lambda;
+        final double minScale = 0.01 / prm.lambda;
+        diff.iterate(new FnIntDoubleToVoid() {
+            @Override
+            public void call(int i, double p) {
+                double scale = getScale(i);
+                double w = -lr * scale * gradient.get(i);
+                if (p == 0.0 || w == 0.0) {
+                    // The pair says nothing about this coordinate.
+                    return;
+                }
+                double ratio = w / p;
+                if (ratio <= 0.0) {
+                    // The curvature along the step is negative.
+                    return;
+                }
+                ratio = Math.min(maxScale, Math.max(minScale, ratio));
+                // Average the ratios, where the first replaces the initial scale.
+                double r = numUpdates.add(i, 1.0) + 1.0;
+                scale += 2.0 / r * (ratio - scale);
+                assert !Double.isNaN(scale);
+                scales.set(i, scale);
+            }
+        });
+    }
+
+    /** Gets the scale of a coordinate, which is 1/\lambda until it is first updated. */
+    private double getScale(int i) {
+        return (numUpdates.get(i) == 0.0) ? 1.0 / prm.lambda : scales.get(i);
+    }
+
+    /**
+     * Gets the scale of each coordinate after the last optimization.
+     */
+    public double[] getScales() {
+        double[] s = new double[scales.size()];
+        for (int i=0; i<s.length; i++) {
+            s[i] = getScale(i);
+        }
+        return s;
+    }
+
+}
@@ -0,0 +1,170 @@
+package edu.jhu.hlt.optimize;
+
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+
+import edu.jhu.hlt.optimize.function.BatchFunctionOpts;
+import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
+import edu.jhu.hlt.optimize.function.LinearBatchFunction;
+import edu.jhu.hlt.optimize.function.ValueGradient;
+import edu.jhu.hlt.util.Prm;
+import edu.jhu.prim.util.Lambda.FnIntDoubleToVoid;
+import edu.jhu.prim.vector.IntDoubleUnsortedVector;
+import edu.jhu.prim.vector.IntDoubleVector;
+
+/**
+ * Stochastic variance reduced gradient (SVRG) (Johnson and Zhang, 2013).
+ * 
+ * Each epoch takes a snapshot of the point and computes the full gradient
+ * \mu there. Each step then follows the batch gradient corrected by the
+ * batch's gradient at the snapshot:
+ * 
+ * \nabla f_B(x) - \nabla f_B(\tilde{x}) + \frac{|B|}{n} \mu
+ * 
+ * The correction shrinks as the point converges, so a constant learning rate
+ * converges linearly on strongly convex functions. Only the snapshot and its
+ * full gradient are stored, not any per-example gradients.
+ * 
+ * For a {@link LinearBatchFunction}, \mu is applied lazily as in SAGA: it is
+ * constant within an epoch, so each coordinate records the number of steps
+ * for which it has been added, and is brought up to date just before a batch
+ * which uses it. Each step then costs time proportional to the number of
+ * nonzero features in its batch. For any other function, the coordinates a
+ * batch reads are unknown, and adding \mu costs time proportional to the
+ * number of parameters on every step.
+ * 
+ * The value and gradient on a batch must be the sum over its examples (as in
+ * AbstractSumBatchFunction).
+ */
+public class SVRG implements Optimizer<DifferentiableBatchFunction> {
+
+    /** Options for this optimizer. */
+    public static class SVRGPrm extends Prm {
+        /** The constant learning rate. */
+        public double lr = 0.01;
+        /** The number of epochs, each of which begins with a full gradient. */
+        public int numEpochs = 10;
+        /** The number of passes over the dataset of stochastic steps in each epoch. */
+        public double innerPasses = 2;
+        /** The batch size to use at each step. */
+        public int batchSize = 1;
+        /** Whether batches should be sampled with replacement. */
+        public boolean withReplacement = true;
+        public SVRGPrm() { }
+        public SVRGPrm(double lr, int numEpochs, int batchSize) {
+            this.lr = lr;
+            this.numEpochs = numEpochs;
+            this.batchSize = batchSize;
+        }
+    }
+
+    private static final Logger log = Logger.getLogger(SVRG.class);
+
+    private SVRGPrm prm;
+    /** The full gradient at the snapshot, scaled to the size of a batch and by the learning rate. */
+    private double[] muStep;
+    /** The number of steps of the current epoch for which each coordinate has had \mu added. */
+    private int[] numApplied;
+
+    public SVRG(SVRGPrm prm) {
+        this.prm = prm;
+    }
+
+    /**
+     * Maximize the function starting at the given initial point.
+     */
+    @Override
+    public boolean maximize(DifferentiableBatchFunction function, IntDoubleVector point) {
+        return optimize(function, point, true);
+    }
+
+    /**
+     * Minimize the function starting at the given initial point.
+     */
+    @Override
+    public boolean minimize(DifferentiableBatchFunction function, IntDoubleVector point) {
+        return optimize(function, point, false);
+    }
+
+    private boolean optimize(final DifferentiableBatchFunction function, final IntDoubleVector point, boolean maximize) {
+        int numExamples = function.getNumExamples();
+        int innerIters = (int) Math.ceil(prm.innerPasses * numExamples / prm.batchSize);
+        log.info("Number of steps per epoch: " + innerIters);
+        BatchSampler batchSampler = new BatchSampler(prm.withReplacement, numExamples, prm.batchSize);
+        IntDoubleUnsortedVector gradBuffer = new IntDoubleUnsortedVector();
+        int[] batch = new int[prm.batchSize];
+        double stepSize = maximize ? prm.lr : -prm.lr;
+        boolean lazy = function instanceof LinearBatchFunction;
+        muStep = new double[function.getNumDimensions()];
+        numApplied = new int[function.getNumDimensions()];
+
+        for (int epoch = 0; epoch < prm.numEpochs; epoch++) {
+            // Take a snapshot and compute the full gradient there.
+            IntDoubleVector snapshot = point.copy();
+            ValueGradient vg = function.getValueGradient(snapshot);
+            log.info(String.format("Function value on all examples = %g at epoch = %d", vg.getValue(), epoch));
+            final double scale = stepSize * prm.batchSize / numExamples;
+            Arrays.fill(muStep, 0.0);
+            vg.getGradient().iterate(new FnIntDoubleToVoid() {
+                @Override
+                public void call(int index, double value) {
+                    muStep[index] += scale * value;
+                }
+            });
+            Arrays.fill(numApplied, 0);
+
+            for (int k = 0; k < innerIters; k++) {
+                batchSampler.sampleBatch(batch);
+                if (lazy) {
+                    // Bring the batch's coordinates up to date before computing its gradient.
+                    final int curIter = k;
+                    for (int i : batch) {
+                        ((LinearBatchFunction) function).getFeatures(i).iterate(new FnIntDoubleToVoid() {
+                            @Override
+                            public void call(int index, double value) {
+                                catchUp(point, index, curIter);
+                            }
+                        });
+                    }
+                }
+                // The batch gradient minus the batch gradient at the snapshot.
+                gradBuffer.clear();
+                BatchFunctionOpts.accumulateValueGradient(function, point, batch, 1.0, gradBuffer);
+                BatchFunctionOpts.accumulateValueGradient(function, snapshot, batch, -1.0, gradBuffer);
+                gradBuffer.scale(stepSize);
+                point.add(gradBuffer);
+                if (!lazy) {
+                    // Plus the full gradient, scaled to the size of the batch.
+                    catchUpAll(point, k + 1);
+                }
+            }
+            catchUpAll(point, innerIters);
+        }
+        double value = function.getValue(point);
+        log.info(String.format("Function value on all examples = %g at epoch = %d", value, prm.numEpochs));
+        // We don't test for convergence.
+        return false;
+    }
+
+    /**
+     * Adds \mu to a coordinate for every step of the epoch before iterCount
+     * through which it has not yet been added.
+     */
+    private void catchUp(IntDoubleVector point, int index, int iterCount) {
+        int gap = iterCount - numApplied[index];
+        if (gap > 0) {
+            if (muStep[index] != 0.0) {
+                point.add(index, gap * muStep[index]);
+            }
+            numApplied[index] = iterCount;
+        }
+    }
+
+    private void catchUpAll(IntDoubleVector point, int iterCount) {
+        for (int j=0; j<numApplied.length; j++) {
+            catchUp(point, j, iterCount);
+        }
+    }
+
+}
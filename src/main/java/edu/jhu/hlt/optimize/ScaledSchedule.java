@@ -0,0 +1,112 @@
+package edu.jhu.hlt.optimize;
+
+import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
+import edu.jhu.prim.vector.IntDoubleVector;
+
+/**
+ * A gain schedule which multiplies the learning rates of another schedule by
+ * a scalar that depends only on the iteration (e.g. a warmup or a decay).
+ * Wrappers compose, so that a warmup can be followed by a cosine decay of
+ * AdaGrad's rates, for example.
+ *
+ * The multiplier is computed once per iteration, not once per parameter: it
+ * is cached for the current iteration, and scaling a gradient multiplies the
+ * wrapped schedule's step by it in one pass.
+ */
+public abstract class ScaledSchedule extends AbstractGainSchedule {
+
+    /** The multiplier for a single iteration. */
+    private static class Multiplier {
+        final int iterCount;
+        final double value;
+        Multiplier(int iterCount, double value) {
+            this.iterCount = iterCount;
+            this.value = value;
+        }
+    }
+
+    /** The wrapped schedule. */
+    protected GainSchedule sched;
+    /** The most recently computed multiplier, which is replaced as a whole so that concurrent readers see a consistent pair. */
+    private transient volatile Multiplier cached;
+
+    public ScaledSchedule(GainSchedule sched) {
+        this.sched = sched;
+    }
+
+    /**
+     * Gets the multiplier on the wrapped schedule's learning rates at the
+     * given iteration.
+     */
+    protected abstract double getMultiplier(int iterCount);
+
+    /** Gets the multiplier, computing it only once per iteration. */
+    private double getCachedMultiplier(int iterCount) {
+        Multiplier m = cached;
+        if (m == null || m.iterCount != iterCount) {
+            m = new Multiplier(iterCount, getMultiplier(iterCount));
+            cached = m;
+        }
+        return m.value;
+    }
+
+    @Override
+    public void init(DifferentiableBatchFunction function) {
+        sched.init(function);
+        cached = null;
+    }
+
+    @Override
+    public void takeNoteOfGradient(IntDoubleVector gradient) {
+        sched.takeNoteOfGradient(gradient);
+    }
+
+    @Override
+    public double getLearningRate(int iterCount, int i) {
+        return getCachedMultiplier(iterCount) * sched.getLearningRate(iterCount, i);
+    }
+
+    @Override
+    public void scaleGradient(int iterCount, IntDoubleVector gradient, boolean maximize) {
+        AbstractGainSchedule.scaleGradient(sched, iterCount, gradient, maximize);
+        double multiplier = getCachedMultiplier(iterCount);
+        if (multiplier != 1.0) {
+            gradient.scale(multiplier);
+        }
+    }
+
+    /** The cached multiplier is replaced as a whole, so this is as safe as the wrapped schedule. */
+    @Override
+    public boolean isThreadSafe() {
+        return AbstractGainSchedule.isThreadSafe(sched);
+    }
+
+    @Override
+    public boolean allowsRelaxedWrites() {
+        return AbstractGainSchedule.allowsRelaxedWrites(sched);
+    }
+
+    /** The multiplier depends only on the iteration, so this is uniform if the wrapped schedule is. */
+    @Override
+    public boolean hasUniformLearningRates() {
+        return AbstractGainSchedule.hasUniformLearningRates(sched);
+    }
+
+    /** Gets the initial learning rate of the wrapped schedule. */
+    @Override
+    public double getEta0() {
+        return sched.getEta0();
+    }
+
+    /** Sets the initial learning rate of the wrapped schedule. */
+    @Override
+    public void setEta0(double eta0) {
+        sched.setEta0(eta0);
+    }
+
+    /** Gets the wrapped schedule. */
+    public GainSchedule getSchedule() {
+        return sched;
+    }
+
+}
@@ -0,0 +1,203 @@
+package edu.jhu.hlt.optimize;
+
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+
+import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
+import edu.jhu.hlt.optimize.state.StateArray;
+import edu.jhu.hlt.optimize.state.StateStorage;
+import edu.jhu.hlt.util.Prm;
+import edu.jhu.prim.util.Lambda.FnIntDoubleToVoid;
+import edu.jhu.prim.vector.IntDoubleVector;
+
+/**
+ * AdaGrad (Duchi et al., 2010) with the sums of squared gradients kept in a
+ * count-min sketch (Cormode and Muthukrishnan, 2005) of fixed size, rather
+ * than one entry per parameter. The memory used is independent of the number
+ * of parameters.
+ *
+ * Each parameter is hashed to one bucket in each row of the sketch, and its
+ * sum of squares is estimated by the smallest of those buckets. Since the sums
+ * are non-negative, the estimate is never less than the true sum. So the
+ * learning rates are never more than those of exact AdaGrad: parameters which
+ * collide with frequent ones learn more slowly.
+ */
+public class SketchedAdaGrad extends AbstractGainSchedule {
+
+    /** Options for this optimizer. */
+    public static class SketchedAdaGradPrm extends Prm {
+        /** The scaling parameter for the learning rate. */
+        public double eta = 0.1;
+        /** The amount added (epsilon) to the sum of squares inside the square root. */
+        public double constantAddend = 1e-9;
+        /** The number of buckets in each row of the sketch. */
+        public int width = 1 << 20;
+        /** The number of rows (i.e. hash functions) in the sketch. */
+        public int depth = 4;
+        /**
+         * Whether to use conservative updates, which raise each of a
+         * parameter's buckets only as far as its new estimate. This reduces
+         * the overestimates due to collisions.
+         */
+        public boolean conservativeUpdate = true;
+        /** The seed for the hash functions. */
+        public long seed = 0;
+        /**
+         * The backend for the sketch. With ATOMIC storage and without
+         * conservative updates, several threads may share this schedule.
+         */
+        public StateStorage storage = StateStorage.DOUBLE;
+    }
+
+    private static final Logger log = Logger.getLogger(SketchedAdaGrad.class);
+
+    /** A Mersenne prime for the universal hash functions. */
+    private static final long PRIME = (1L << 31) - 1;
+
+    private SketchedAdaGradPrm prm;
+    /** The sketch, stored row by row. */
+    private StateArray table;
+    /** The multipliers and offsets of the hash function for each row. */
+    private long[] hashA;
+    private long[] hashB;
+
+    public SketchedAdaGrad(SketchedAdaGradPrm prm) {
+        this.prm = prm;
+        if (prm.width < 1 || prm.depth < 1) {
+            throw new IllegalArgumentException("Sketch width and depth must be positive: " + prm.width + " " + prm.depth);
+        }
+        if ((long) prm.width * prm.depth > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Sketch is too large: " + prm.width + " x " + prm.depth);
+        }
+    }
+
+    /**
+     * Initializes the sketch. Its size does not depend on the function.
+     */
+    @Override
+    public void init(DifferentiableBatchFunction function) {
+        table = prm.storage.newArray(prm.width * prm.depth);
+        Random random = new Random(prm.seed);
+        hashA = new long[prm.depth];
+        hashB = new long[prm.depth];
+        for (int r=0; r<prm.depth; r++) {
+            hashA[r] = 1 + (long) (random.nextDouble() * (PRIME - 1));
+            hashB[r] = (long) (random.nextDouble() * PRIME);
+        }
+        log.info(StateStorage.getMemoryReport("SketchedAdaGrad", getStateBytes(), 8L * function.getNumDimensions()));
+    }
+
+    /** Gets the number of bytes used by the sketch. */
+    public long getStateBytes() {
+        return table.getNumBytes();
+    }
+
+    /** Gets the position in the table of parameter i's bucket in row r. */
+    private int getBucket(int r, int i) {
+        long h = (hashA[r] * i + hashB[r]) % PRIME;
+        return r * prm.width + (int) (h % prm.width);
+    }
+
+    /**
+     * Adds the squared gradients to the sketch. Each parameter is hashed once,
+     * and its buckets are used both to estimate its sum and to update it.
+     */
+    @Override
+    public void takeNoteOfGradient(IntDoubleVector gradient) {
+        // Local to this call, since several threads may share the schedule.
+        final int[] buckets = new int[prm.depth];
+        gradient.iterate(new FnIntDoubleToVoid() {
+            @Override
+            public void call(int i, double value) {
+                double sq = value * value;
+                if (sq == 0.0) {
+                    return;
+                }
+                for (int r=0; r<prm.depth; r++) {
+                    buckets[r] = getBucket(r, i);
+                }
+                if (prm.conservativeUpdate) {
+                    double target = getMin(buckets) + sq;
+                    for (int b : buckets) {
+                        if (table.get(b) < target) {
+                            table.set(b, target);
+                        }
+                    }
+                } else {
+                    for (int b : buckets) {
+                        table.add(b, sq);
+                    }
+                }
+                assert !Double.isNaN(getMin(buckets));
+            }
+        });
+    }
+
+    /** Gets the smallest of the given buckets. */
+    private double getMin(int[] buckets) {
+        double min = Double.POSITIVE_INFINITY;
+        for (int b : buckets) {
+            min = Math.min(min, table.get(b));
+        }
+        return min;
+    }
+
+    /** Gets the estimate of parameter i's sum of squared gradients, which is never an underestimate. */
+    public double getSumSquares(int i) {
+        double min = Double.POSITIVE_INFINITY;
+        for (int r=0; r<prm.depth; r++) {
+            min = Math.min(min, table.get(getBucket(r, i)));
+        }
+        return min;
+    }
+
+    /**
+     * Gets the learning rate for the current iteration.
+     * @param iterCount The current iteration.
+     * @param i The index of the current model parameter.
+     */
+    @Override
+    public double getLearningRate(int iterCount, int i) {
+        double learningRate = prm.eta / Math.sqrt(prm.constantAddend + getSumSquares(i));
+        assert !Double.isNaN(learningRate);
+        if (learningRate == Double.POSITIVE_INFINITY) {
+            // As in AdaGrad, the gradient is probably 0.0.
+            return 0.0;
+        }
+        return learningRate;
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return prm.storage.isThreadSafe() && !prm.conservativeUpdate;
+    }
+
+    @Override
+    public boolean allowsRelaxedWrites() {
+        return prm.storage.hasIndependentEntries();
+    }
+
+    @Override
+    public GainSchedule copy() {
+        SketchedAdaGradPrm otherPrm = Prm.clonePrm(this.prm);
+        SketchedAdaGrad other = new SketchedAdaGrad(otherPrm);
+        if (table != null) {
+            other.table = this.table.copy();
+            other.hashA = this.hashA.clone();
+            other.hashB = this.hashB.clone();
+        }
+        return other;
+    }
+
+    @Override
+    public double getEta0() {
+        return prm.eta;
+    }
+
+    @Override
+    public void setEta0(double eta0) {
+        prm.eta = eta0;
+    }
+
+}
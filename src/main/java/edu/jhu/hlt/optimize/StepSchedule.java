@@ -0,0 +1,40 @@
+package edu.jhu.hlt.optimize;
+
+import edu.jhu.hlt.util.Prm;
+
+/**
+ * Step decay of the learning rates of another schedule: they are multiplied by
+ * decay every stepSize iterations, so that at iteration t the multiplier is
+ * decay^floor(t / stepSize).
+ */
+public class StepSchedule extends ScaledSchedule {
+
+    /** Options for this class. */
+    public static class StepSchedulePrm extends Prm {
+        /** The number of iterations between decays. */
+        public int stepSize = 1000;
+        /** The factor applied at each decay. */
+        public double decay = 0.1;
+    }
+
+    private StepSchedulePrm prm;
+
+    public StepSchedule(GainSchedule sched, StepSchedulePrm prm) {
+        super(sched);
+        if (prm.stepSize < 1) {
+            throw new IllegalArgumentException("Step size must be positive: " + prm.stepSize);
+        }
+        this.prm = prm;
+    }
+
+    @Override
+    protected double getMultiplier(int iterCount) {
+        return Math.pow(prm.decay, iterCount / prm.stepSize);
+    }
+
+    @Override
+    public GainSchedule copy() {
+        return new StepSchedule(sched.copy(), Prm.clonePrm(prm));
+    }
+
+}
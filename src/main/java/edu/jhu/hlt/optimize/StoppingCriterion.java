@@ -0,0 +1,27 @@
+package edu.jhu.hlt.optimize;
+
+import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
+import edu.jhu.prim.vector.IntDoubleVector;
+
+/**
+ * A test for whether a stochastic optimizer should stop, checked at the end of
+ * each pass through the data.
+ */
+public interface StoppingCriterion {
+
+    /** Clears any state from a previous run of the optimizer. */
+    void reset();
+
+    /**
+     * Whether the optimizer has converged and should stop.
+     * 
+     * @param function The function being optimized.
+     * @param point The current point.
+     * @param value The value of the function on all examples at the current
+     *            point, or NaN if it was not computed on this pass.
+     * @param maximize Whether we are maximizing (true) or minimizing (false).
+     * @return True iff the optimizer should stop.
+     */
+    boolean isConverged(DifferentiableBatchFunction function, IntDoubleVector point, double value, boolean maximize);
+
+}
@@ -0,0 +1,40 @@
+package edu.jhu.hlt.optimize;
+
+import edu.jhu.hlt.util.Prm;
+
+/**
+ * Linearly warms up the learning rates of another schedule: at iteration t
+ * they are multiplied by min(1, (t+1) / numWarmupIters).
+ */
+public class WarmupSchedule extends ScaledSchedule {
+
+    /** Options for this class. */
+    public static class WarmupSchedulePrm extends Prm {
+        /** The number of iterations over which the multiplier grows to 1. */
+        public int numWarmupIters = 100;
+    }
+
+    private WarmupSchedulePrm prm;
+
+    public WarmupSchedule(GainSchedule sched, WarmupSchedulePrm prm) {
+        super(sched);
+        if (prm.numWarmupIters < 1) {
+            throw new IllegalArgumentException("Number of warmup iterations must be positive: " + prm.numWarmupIters);
+        }
+        this.prm = prm;
+    }
+
+    @Override
+    protected double getMultiplier(int iterCount) {
+        if (iterCount >= prm.numWarmupIters) {
+            return 1.0;
+        }
+        return (iterCount + 1.0) / prm.numWarmupIters;
+    }
+
+    @Override
+    public GainSchedule copy() {
+        return new WarmupSchedule(sched.copy(), Prm.clonePrm(prm));
+    }
+
+}
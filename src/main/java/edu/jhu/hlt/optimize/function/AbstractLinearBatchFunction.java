@@ -0,0 +1,57 @@
+package edu.jhu.hlt.optimize.function;
+
+import edu.jhu.prim.util.Lambda.FnIntDoubleToVoid;
+import edu.jhu.prim.vector.IntDoubleUnsortedVector;
+import edu.jhu.prim.vector.IntDoubleVector;
+
+/**
+ * A linear batch function whose value and gradient on a batch are the sums
+ * over its examples.
+ */
+public abstract class AbstractLinearBatchFunction extends AbstractDifferentiableBatchFunction implements
+        LinearBatchFunction, AccumulatingBatchFunction {
+
+    @Override
+    public double getValue(IntDoubleVector point, int[] batch) {
+        double value = 0.0;
+        for (int i : batch) {
+            value += getLoss(i, getFeatures(i).dot(point));
+        }
+        return value;
+    }
+
+    @Override
+    public IntDoubleVector getGradient(IntDoubleVector point, int[] batch) {
+        return getValueGradient(point, batch).getGradient();
+    }
+
+    @Override
+    public ValueGradient getValueGradient(IntDoubleVector point, int[] batch) {
+        IntDoubleUnsortedVector gradient = new IntDoubleUnsortedVector();
+        double value = accumulateValueGradient(point, batch, 1.0, gradient);
+        return new ValueGradient(value, gradient);
+    }
+
+    @Override
+    public double accumulateValueGradient(IntDoubleVector point, int[] batch, double multiplier, IntDoubleVector gradient) {
+        double value = 0.0;
+        for (int i : batch) {
+            IntDoubleVector features = getFeatures(i);
+            double margin = features.dot(point);
+            value += getLoss(i, margin);
+            addScaled(gradient, features, multiplier * getLossDerivative(i, margin));
+        }
+        return value;
+    }
+
+    /** Adds the features scaled by a multiplier to the gradient, without modifying the features. */
+    private static void addScaled(final IntDoubleVector gradient, IntDoubleVector features, final double multiplier) {
+        features.iterate(new FnIntDoubleToVoid() {
+            @Override
+            public void call(int index, double value) {
+                gradient.add(index, multiplier * value);
+            }
+        });
+    }
+
+}
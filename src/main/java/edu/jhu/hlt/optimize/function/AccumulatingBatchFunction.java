@@ -0,0 +1,29 @@
+package edu.jhu.hlt.optimize.function;
+
+import edu.jhu.prim.vector.IntDoubleVector;
+
+/**
+ * A differentiable batch function which can add its gradient into a
+ * caller-owned vector, rather than allocating a new gradient on every call.
+ *
+ * @see BatchFunctionOpts#accumulateValueGradient(DifferentiableBatchFunction,
+ *      IntDoubleVector, int[], double, IntDoubleVector)
+ */
+public interface AccumulatingBatchFunction extends DifferentiableBatchFunction {
+
+    /**
+     * Adds the gradient at the specified point, computed on the given batch of
+     * examples and scaled by a multiplier, to the given vector.
+     *
+     * @param point The point at which the function is evaluated.
+     * @param batch A set of indices indicating the examples over which the
+     *            gradient should be computed.
+     * @param multiplier The multiplier on the gradient before it is added.
+     * @param gradient The input/output vector to which the scaled gradient is
+     *            added.
+     * @return The value of the function on the batch (not scaled by the
+     *         multiplier).
+     */
+    double accumulateValueGradient(IntDoubleVector point, int[] batch, double multiplier, IntDoubleVector gradient);
+
+}
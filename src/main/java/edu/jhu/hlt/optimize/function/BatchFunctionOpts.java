@@ -10,6 +10,26 @@ import edu.jhu.prim.vector.IntDoubleVector;
  */
 public class BatchFunctionOpts {
 
+    /**
+     * Adds the gradient of the function, scaled by a multiplier, to the given
+     * vector and returns the value of the function on the batch. If the
+     * function is an {@link AccumulatingBatchFunction} no intermediate
+     * gradient is allocated.
+     */
+    public static double accumulateValueGradient(DifferentiableBatchFunction function, IntDoubleVector point,
+            int[] batch, double multiplier, IntDoubleVector gradient) {
+        if (function instanceof AccumulatingBatchFunction) {
+            return ((AccumulatingBatchFunction) function).accumulateValueGradient(point, batch, multiplier, gradient);
+        }
+        ValueGradient vg = function.getValueGradient(point, batch);
+        IntDoubleVector g = vg.getGradient();
+        if (multiplier != 1.0) {
+            g.scale(multiplier);
+        }
+        gradient.add(g);
+        return vg.getValue();
+    }
+
     /** Wrapper which negates the input function. */
     public static class NegateFunction extends ScaleFunction implements DifferentiableBatchFunction {
         
@@ -21,7 +41,7 @@ public class BatchFunctionOpts {
 
     /** Wrapper which scales the input function. */
     public static class ScaleFunction extends AbstractDifferentiableBatchFunction implements
-            DifferentiableBatchFunction, NonstationaryFunction {
+            DifferentiableBatchFunction, AccumulatingBatchFunction, NonstationaryFunction {
     
         private DifferentiableBatchFunction function;
         private double multiplier;
@@ -60,6 +80,11 @@ public class BatchFunctionOpts {
             return new ValueGradient(vg.getValue() * multiplier, vg.getGradient());
         }
 
+        @Override
+        public double accumulateValueGradient(IntDoubleVector point, int[] batch, double multiplier, IntDoubleVector gradient) {
+            return this.multiplier * BatchFunctionOpts.accumulateValueGradient(function, point, batch, this.multiplier * multiplier, gradient);
+        }
+
         @Override
         public void updatateIterAndMax(int curIter, int maxIter) {
             if (function instanceof NonstationaryFunction) {
@@ -71,7 +96,7 @@ public class BatchFunctionOpts {
     
     /** Wrapper which adds the input functions. */
     public static class AddFunctions extends AbstractDifferentiableBatchFunction implements
-            DifferentiableBatchFunction, NonstationaryFunction {
+            DifferentiableBatchFunction, AccumulatingBatchFunction, NonstationaryFunction {
     
         private DifferentiableBatchFunction[] functions;
         
@@ -133,6 +158,15 @@ public class BatchFunctionOpts {
             return new ValueGradient(sum, ret);
         }
 
+        @Override
+        public double accumulateValueGradient(IntDoubleVector point, int[] batch, double multiplier, IntDoubleVector gradient) {
+            double sum = 0.0;
+            for (DifferentiableBatchFunction f : functions) {
+                sum += BatchFunctionOpts.accumulateValueGradient(f, point, batch, multiplier, gradient);
+            }
+            return sum;
+        }
+
         @Override
         public void updatateIterAndMax(int curIter, int maxIter) {
             for (DifferentiableBatchFunction f : functions) {
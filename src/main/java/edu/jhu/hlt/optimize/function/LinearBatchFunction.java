@@ -0,0 +1,23 @@
+package edu.jhu.hlt.optimize.function;
+
+import edu.jhu.prim.vector.IntDoubleVector;
+
+/**
+ * A batch function whose value on each example depends on the point only
+ * through a linear margin, f_i(x) = \ell_i(x \cdot a_i), as in logistic
+ * regression or least squares. The gradient on an example is then a scalar
+ * multiple of its features, \ell_i'(x \cdot a_i) a_i, so an optimizer can
+ * remember an example's gradient with a single scalar.
+ */
+public interface LinearBatchFunction extends DifferentiableBatchFunction {
+
+    /** Gets the feature vector a_i of the example. */
+    IntDoubleVector getFeatures(int i);
+
+    /** Gets the loss \ell_i(m) of the example at the given margin. */
+    double getLoss(int i, double margin);
+
+    /** Gets the derivative \ell_i'(m) of the example's loss at the given margin. */
+    double getLossDerivative(int i, double margin);
+
+}
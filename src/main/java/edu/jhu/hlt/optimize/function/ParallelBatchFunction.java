@@ -0,0 +1,177 @@
+package edu.jhu.hlt.optimize.function;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import edu.jhu.hlt.util.Threads;
+import edu.jhu.prim.vector.IntDoubleVector;
+
+/**
+ * Wrapper which evaluates each batch in parallel. The batch is split into
+ * shards, each shard is evaluated on its own thread, and the shard results are
+ * merged with a pairwise tree reduction.
+ *
+ * The wrapped function must be thread-safe and its value and gradient on a
+ * batch must be the sum over the examples in that batch (as in
+ * AbstractSumBatchFunction). Under those conditions the results are the same
+ * as those of the wrapped function, up to the order of floating point
+ * additions.
+ *
+ * The threads are daemons, but {@link #shutdown()} should be called once the
+ * function is no longer needed.
+ */
+public class ParallelBatchFunction extends AbstractDifferentiableBatchFunction implements
+        DifferentiableBatchFunction, NonstationaryFunction {
+
+    private DifferentiableBatchFunction function;
+    private int numThreads;
+    private int minShardSize;
+    private ExecutorService pool;
+
+    /**
+     * Constructs a parallel wrapper.
+     *
+     * @param function The function to wrap.
+     * @param numThreads The number of threads (i.e. the max number of shards per batch).
+     * @param minShardSize The minimum number of examples in a shard. Smaller
+     *            batches are split into fewer shards, or evaluated serially.
+     */
+    public ParallelBatchFunction(DifferentiableBatchFunction function, int numThreads, int minShardSize) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("Number of threads must be positive: " + numThreads);
+        }
+        if (minShardSize < 1) {
+            throw new IllegalArgumentException("Minimum shard size must be positive: " + minShardSize);
+        }
+        this.function = function;
+        this.numThreads = numThreads;
+        this.minShardSize = minShardSize;
+        this.pool = Threads.newDaemonThreadPool(numThreads, "batch-shard");
+    }
+
+    @Override
+    public double getValue(final IntDoubleVector point, int[] batch) {
+        int[][] shards = getShards(batch);
+        if (shards.length == 1) {
+            return function.getValue(point, batch);
+        }
+        List<Future<Double>> futures = new ArrayList<Future<Double>>(shards.length);
+        for (final int[] shard : shards) {
+            futures.add(pool.submit(new Callable<Double>() {
+                @Override
+                public Double call() {
+                    return function.getValue(point, shard);
+                }
+            }));
+        }
+        double sum = 0.0;
+        for (Double v : Threads.getAll(futures)) {
+            sum += v;
+        }
+        return sum;
+    }
+
+    @Override
+    public IntDoubleVector getGradient(IntDoubleVector point, int[] batch) {
+        int[][] shards = getShards(batch);
+        if (shards.length == 1) {
+            return function.getGradient(point, batch);
+        }
+        return getValueGradient(point, shards).getGradient();
+    }
+
+    @Override
+    public ValueGradient getValueGradient(IntDoubleVector point, int[] batch) {
+        int[][] shards = getShards(batch);
+        if (shards.length == 1) {
+            return function.getValueGradient(point, batch);
+        }
+        return getValueGradient(point, shards);
+    }
+
+    private ValueGradient getValueGradient(final IntDoubleVector point, int[][] shards) {
+        List<Future<ValueGradient>> futures = new ArrayList<Future<ValueGradient>>(shards.length);
+        for (final int[] shard : shards) {
+            futures.add(pool.submit(new Callable<ValueGradient>() {
+                @Override
+                public ValueGradient call() {
+                    return function.getValueGradient(point, shard);
+                }
+            }));
+        }
+        List<ValueGradient> vgs = Threads.getAll(futures);
+        return reduce(vgs);
+    }
+
+    /**
+     * Merges the shard results with a pairwise tree reduction. The merges on
+     * each level of the tree are independent and run in parallel.
+     */
+    private ValueGradient reduce(List<ValueGradient> vgs) {
+        final double[] values = new double[vgs.size()];
+        final IntDoubleVector[] grads = new IntDoubleVector[vgs.size()];
+        for (int i=0; i<vgs.size(); i++) {
+            values[i] = vgs.get(i).getValue();
+            grads[i] = vgs.get(i).getGradient();
+        }
+        for (int stride=1; stride < grads.length; stride *= 2) {
+            List<Future<Object>> merges = new ArrayList<Future<Object>>();
+            for (int i=0; i + stride < grads.length; i += 2*stride) {
+                final int left = i;
+                final int right = i + stride;
+                values[left] += values[right];
+                merges.add(pool.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        grads[left].add(grads[right]);
+                        return null;
+                    }
+                }));
+            }
+            Threads.getAll(merges);
+        }
+        return new ValueGradient(values[0], grads[0]);
+    }
+
+    /** Splits the batch into contiguous shards. */
+    private int[][] getShards(int[] batch) {
+        int numShards = Math.max(1, Math.min(numThreads, batch.length / minShardSize));
+        if (numShards == 1) {
+            return new int[][]{ batch };
+        }
+        int[][] shards = new int[numShards][];
+        for (int s=0; s<numShards; s++) {
+            int start = (int) ((long) batch.length * s / numShards);
+            int end = (int) ((long) batch.length * (s+1) / numShards);
+            shards[s] = Arrays.copyOfRange(batch, start, end);
+        }
+        return shards;
+    }
+
+    @Override
+    public int getNumDimensions() {
+        return function.getNumDimensions();
+    }
+
+    @Override
+    public int getNumExamples() {
+        return function.getNumExamples();
+    }
+
+    @Override
+    public void updatateIterAndMax(int curIter, int maxIter) {
+        if (function instanceof NonstationaryFunction) {
+            ((NonstationaryFunction) function).updatateIterAndMax(curIter, maxIter);
+        }
+    }
+
+    /** Stops the worker threads. */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+}
@@ -9,10 +9,15 @@ import edu.jhu.prim.vector.IntDoubleVector;
  * 
  * @author mgormley
  */
-public class SampleFunction extends AbstractDifferentiableBatchFunction implements DifferentiableBatchFunction, NonstationaryFunction {
+public class SampleFunction extends AbstractDifferentiableBatchFunction implements DifferentiableBatchFunction, AccumulatingBatchFunction, NonstationaryFunction {
 
     private DifferentiableBatchFunction function;
     private int[] sample;
+    /**
+     * The converted batch, reused by each thread. An optimizer's thread and a
+     * background evaluation of the function may convert batches at once.
+     */
+    private final ThreadLocal<int[]> convBuffer = new ThreadLocal<int[]>();
 
     public SampleFunction(DifferentiableBatchFunction function, int sampleSize) {
         if (sampleSize > function.getNumExamples()) {
@@ -31,17 +36,34 @@ public class SampleFunction extends AbstractDifferentiableBatchFunction implemen
      * original function.
      * 
      * @param batch The batch indexing into the sample.
-     * @return A new batch indexing into the original function, containing only
-     *         the indices from the sample.
+     * @param conv The output buffer, whose length must equal that of the batch.
+     * @return The buffer, now indexing into the original function and
+     *         containing only the indices from the sample.
      */
-    private int[] convertBatch(int[] batch) {
-        int[] conv = new int[batch.length];
+    public int[] convertBatch(int[] batch, int[] conv) {
+        if (conv.length != batch.length) {
+            throw new IllegalArgumentException("Buffer length must equal the batch length: " + conv.length + " != " + batch.length);
+        }
         for (int i=0; i<batch.length; i++) {
             conv[i] = sample[batch[i]];
         }
         return conv;
     }
 
+    /**
+     * Converts a batch into this thread's buffer, which is only reallocated
+     * when the batch size changes. The result is only valid until the next
+     * conversion on this thread.
+     */
+    private int[] convertBatch(int[] batch) {
+        int[] conv = convBuffer.get();
+        if (conv == null || conv.length != batch.length) {
+            conv = new int[batch.length];
+            convBuffer.set(conv);
+        }
+        return convertBatch(batch, conv);
+    }
+
     @Override
     public double getValue(IntDoubleVector point, int[] batch) {
         return function.getValue(point, convertBatch(batch));
@@ -67,6 +89,11 @@ public class SampleFunction extends AbstractDifferentiableBatchFunction implemen
         return function.getValueGradient(point, convertBatch(batch));
     }
 
+    @Override
+    public double accumulateValueGradient(IntDoubleVector point, int[] batch, double multiplier, IntDoubleVector gradient) {
+        return BatchFunctionOpts.accumulateValueGradient(function, point, convertBatch(batch), multiplier, gradient);
+    }
+
     @Override
     public void updatateIterAndMax(int curIter, int maxIter) {
         if (function instanceof NonstationaryFunction) {
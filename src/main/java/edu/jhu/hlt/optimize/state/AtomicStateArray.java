@@ -0,0 +1,62 @@
+package edu.jhu.hlt.optimize.state;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Optimizer state stored as the bits of doubles in an AtomicLongArray. This
+ * array is thread-safe: each entry is read and written atomically, and
+ * {@link #add(int, double)} is a lock-free compare-and-set loop, so concurrent
+ * additions are never lost.
+ */
+public class AtomicStateArray implements StateArray {
+
+    private static final long serialVersionUID = 1L;
+
+    private AtomicLongArray values;
+
+    public AtomicStateArray(int size) {
+        // The bits of 0.0 are all zero.
+        this.values = new AtomicLongArray(size);
+    }
+
+    @Override
+    public double get(int i) {
+        return Double.longBitsToDouble(values.get(i));
+    }
+
+    @Override
+    public void set(int i, double value) {
+        values.set(i, Double.doubleToRawLongBits(value));
+    }
+
+    @Override
+    public double add(int i, double delta) {
+        while (true) {
+            long bits = values.get(i);
+            double value = Double.longBitsToDouble(bits) + delta;
+            if (values.compareAndSet(i, bits, Double.doubleToRawLongBits(value))) {
+                return value;
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return values.length();
+    }
+
+    @Override
+    public long getNumBytes() {
+        return 8L * values.length();
+    }
+
+    @Override
+    public StateArray copy() {
+        AtomicStateArray other = new AtomicStateArray(values.length());
+        for (int i=0; i<values.length(); i++) {
+            other.values.set(i, values.get(i));
+        }
+        return other;
+    }
+
+}
@@ -0,0 +1,110 @@
+package edu.jhu.hlt.optimize.state;
+
+import java.util.Arrays;
+
+/**
+ * Optimizer state stored as doubles in fixed size chunks which are shared
+ * between copies until they are written. A copy costs time proportional to the
+ * number of chunks rather than the number of entries, and a chunk is
+ * duplicated only when the original or the copy first writes to it. So
+ * snapshots of the state (e.g. for each candidate learning rate tried by
+ * SGD's auto-selection) use memory only for the chunks they change.
+ *
+ * Until a chunk is first written it is shared with every other unwritten
+ * chunk, so the memory for untouched regions of the state is never allocated.
+ *
+ * This array is not thread-safe: copying it marks its own chunks as shared,
+ * so it must not be written while it is being copied.
+ */
+public class CopyOnWriteStateArray implements StateArray {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int CHUNK_SHIFT = 12;
+    /** The number of entries in each chunk. */
+    public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private int size;
+    private double[][] chunks;
+    /** Whether each chunk is owned by this array alone, and so can be written in place. */
+    private boolean[] owned;
+    /** The number of owned chunks. */
+    private int numOwned;
+
+    public CopyOnWriteStateArray(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Size must be non-negative: " + size);
+        }
+        this.size = size;
+        int numChunks = (size + CHUNK_SIZE - 1) >>> CHUNK_SHIFT;
+        this.chunks = new double[numChunks][];
+        // Every chunk starts out as the same chunk of zeros.
+        Arrays.fill(chunks, new double[CHUNK_SIZE]);
+        this.owned = new boolean[numChunks];
+        this.numOwned = 0;
+    }
+
+    private CopyOnWriteStateArray() { }
+
+    @Override
+    public double get(int i) {
+        checkIndex(i);
+        return chunks[i >>> CHUNK_SHIFT][i & CHUNK_MASK];
+    }
+
+    @Override
+    public void set(int i, double value) {
+        checkIndex(i);
+        getChunkForWrite(i >>> CHUNK_SHIFT)[i & CHUNK_MASK] = value;
+    }
+
+    @Override
+    public double add(int i, double delta) {
+        checkIndex(i);
+        return getChunkForWrite(i >>> CHUNK_SHIFT)[i & CHUNK_MASK] += delta;
+    }
+
+    /** Gets a chunk which can be written in place, first duplicating it if it is shared. */
+    private double[] getChunkForWrite(int c) {
+        if (!owned[c]) {
+            chunks[c] = Arrays.copyOf(chunks[c], CHUNK_SIZE);
+            owned[c] = true;
+            numOwned++;
+        }
+        return chunks[c];
+    }
+
+    private void checkIndex(int i) {
+        // The last chunk may extend past the end of the array.
+        if (i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + " is out of range [0, " + size + ")");
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /** Gets the number of bytes in the chunks owned by this array, which excludes those it shares. */
+    @Override
+    public long getNumBytes() {
+        return 8L * CHUNK_SIZE * numOwned + 8L * chunks.length;
+    }
+
+    /** Gets a copy which shares all of the chunks of this array. */
+    @Override
+    public StateArray copy() {
+        CopyOnWriteStateArray other = new CopyOnWriteStateArray();
+        other.size = size;
+        other.chunks = Arrays.copyOf(chunks, chunks.length);
+        other.owned = new boolean[chunks.length];
+        other.numOwned = 0;
+        // Both arrays now share every chunk.
+        Arrays.fill(owned, false);
+        numOwned = 0;
+        return other;
+    }
+
+}
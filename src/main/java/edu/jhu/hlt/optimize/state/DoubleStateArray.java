@@ -0,0 +1,50 @@
+package edu.jhu.hlt.optimize.state;
+
+import edu.jhu.prim.arrays.DoubleArrays;
+
+/**
+ * Optimizer state stored in a double[] on the heap.
+ */
+public class DoubleStateArray implements StateArray {
+
+    private static final long serialVersionUID = 1L;
+
+    private double[] values;
+
+    public DoubleStateArray(int size) {
+        this.values = new double[size];
+    }
+
+    @Override
+    public double get(int i) {
+        return values[i];
+    }
+
+    @Override
+    public void set(int i, double value) {
+        values[i] = value;
+    }
+
+    @Override
+    public double add(int i, double delta) {
+        return values[i] += delta;
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public long getNumBytes() {
+        return 8L * values.length;
+    }
+
+    @Override
+    public StateArray copy() {
+        DoubleStateArray other = new DoubleStateArray(0);
+        other.values = DoubleArrays.copyOf(values);
+        return other;
+    }
+
+}
@@ -0,0 +1,60 @@
+package edu.jhu.hlt.optimize.state;
+
+import java.util.Arrays;
+
+/**
+ * Optimizer state stored in a float[] on the heap. This halves the memory of a
+ * double[] at the cost of rounding each entry to single precision, with 24
+ * bits of mantissa, when it is set.
+ * 
+ * The rounding is harmless for state which decays, such as the running
+ * averages of RMSProp, Adam and AdaDelta, since each entry stays comparable to
+ * the values recently added to it. It is not harmless for a sum which only
+ * grows, such as AdaGrad's sum of squares: once the sum exceeds about 2^24
+ * times a new squared gradient, adding that gradient leaves the sum unchanged,
+ * so the learning rate of a frequently updated parameter stops decreasing.
+ * Keep such sums in DOUBLE (or another double precision) storage.
+ */
+public class FloatStateArray implements StateArray {
+
+    private static final long serialVersionUID = 1L;
+
+    private float[] values;
+
+    public FloatStateArray(int size) {
+        this.values = new float[size];
+    }
+
+    @Override
+    public double get(int i) {
+        return values[i];
+    }
+
+    @Override
+    public void set(int i, double value) {
+        values[i] = (float) value;
+    }
+
+    @Override
+    public double add(int i, double delta) {
+        return values[i] += delta;
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public long getNumBytes() {
+        return 4L * values.length;
+    }
+
+    @Override
+    public StateArray copy() {
+        FloatStateArray other = new FloatStateArray(0);
+        other.values = Arrays.copyOf(values, values.length);
+        return other;
+    }
+
+}
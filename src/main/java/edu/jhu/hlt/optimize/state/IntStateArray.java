@@ -0,0 +1,53 @@
+package edu.jhu.hlt.optimize.state;
+
+import edu.jhu.prim.arrays.IntArrays;
+
+/**
+ * Optimizer state with integer values (e.g. the step on which each parameter
+ * was last updated) stored in an int[] on the heap.
+ */
+public class IntStateArray implements StateArray {
+
+    private static final long serialVersionUID = 1L;
+
+    private int[] values;
+
+    public IntStateArray(int size) {
+        this.values = new int[size];
+    }
+
+    @Override
+    public double get(int i) {
+        return values[i];
+    }
+
+    @Override
+    public void set(int i, double value) {
+        assert value == (int) value : "Value is not an int: " + value;
+        values[i] = (int) value;
+    }
+
+    @Override
+    public double add(int i, double delta) {
+        set(i, values[i] + delta);
+        return values[i];
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public long getNumBytes() {
+        return 4L * values.length;
+    }
+
+    @Override
+    public StateArray copy() {
+        IntStateArray other = new IntStateArray(0);
+        other.values = IntArrays.copyOf(values);
+        return other;
+    }
+
+}
@@ -0,0 +1,120 @@
+package edu.jhu.hlt.optimize.state;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-parameter state which decays geometrically on every step (e.g. the
+ * running averages of RMSProp, Adam and AdaDelta), along with the step on which
+ * each parameter was last updated and the number of steps taken.
+ *
+ * On a step where a parameter's gradient is zero, its state just decays. So
+ * the decay is applied lazily, all at once, when the parameter is next
+ * updated (see {@link #decay(double, double, int)}), which gives the same
+ * values as updating every parameter on every step, at a cost proportional to
+ * the number of nonzeros in the gradient.
+ *
+ * The step counters are kept with the other state when the backend
+ * {@link StateStorage#storesStepCounters() stores step counters} (e.g. packed
+ * into the same SPARSE table, so that they are sparse or cheap to copy), and in
+ * an int[] otherwise. With DOUBLE, FLOAT, OFF_HEAP or ATOMIC storage,
+ * concurrent updates are relaxed Hogwild-style writes: a parameter updated by
+ * two threads at once may lose one of the updates. SPARSE and COPY_ON_WRITE
+ * storage must not be shared by threads.
+ */
+public class LazyDecayState implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // The state arrays, which may be views of a single packed table.
+    private StateArray[] arrays;
+    // The step on which each parameter was last updated.
+    private StateArray lastStep;
+    // The number of steps taken.
+    private AtomicInteger numSteps;
+
+    /**
+     * Constructs the state, all zeros.
+     *
+     * @param storage The backend for the arrays.
+     * @param numDims The number of parameters.
+     * @param numArrays The number of state arrays.
+     */
+    public LazyDecayState(StateStorage storage, int numDims, int numArrays) {
+        if (storage.storesStepCounters()) {
+            StateArray[] all = storage.newArrays(numDims, numArrays + 1);
+            arrays = Arrays.copyOf(all, numArrays);
+            lastStep = all[numArrays];
+        } else {
+            arrays = storage.newArrays(numDims, numArrays);
+            lastStep = new IntStateArray(numDims);
+        }
+        numSteps = new AtomicInteger(0);
+    }
+
+    private LazyDecayState() { }
+
+    /** Gets the k'th state array. */
+    public StateArray getArray(int k) {
+        return arrays[k];
+    }
+
+    /** Begins a new step. The steps are numbered from one. */
+    public int nextStep() {
+        return numSteps.incrementAndGet();
+    }
+
+    /** Gets the number of steps taken. */
+    public int getNumSteps() {
+        return numSteps.get();
+    }
+
+    /**
+     * Gets the number of steps which parameter i missed before the given
+     * step, on which it is being updated. The gap is negative if another
+     * thread has already applied a later step.
+     */
+    public int getGap(int i, int step) {
+        return step - 1 - (int) lastStep.get(i);
+    }
+
+    /** Gets the number of steps taken since parameter i was last updated. */
+    public int getStepsSinceUpdate(int i) {
+        return numSteps.get() - (int) lastStep.get(i);
+    }
+
+    /** Records that parameter i was updated on the given step, unless it was already updated on a later one. */
+    public void setUpdated(int i, int step) {
+        if (step > (int) lastStep.get(i)) {
+            lastStep.set(i, step);
+        }
+    }
+
+    /** Gets the number of bytes used by the state arrays and step counters. */
+    public long getNumBytes() {
+        long numBytes = lastStep.getNumBytes();
+        for (StateArray array : arrays) {
+            numBytes += array.getNumBytes();
+        }
+        return numBytes;
+    }
+
+    /** Gets a copy of the state, which shares the unchanged state if the storage is copy-on-write. */
+    public LazyDecayState copy() {
+        StateArray[] all = Arrays.copyOf(arrays, arrays.length + 1);
+        all[arrays.length] = lastStep;
+        all = SparseStateStore.copyAll(all);
+        LazyDecayState other = new LazyDecayState();
+        other.arrays = Arrays.copyOf(all, arrays.length);
+        other.lastStep = all[arrays.length];
+        other.numSteps = new AtomicInteger(numSteps.get());
+        return other;
+    }
+
+    /** Gets a value after decaying by the rate for each of gap steps, if the gap is positive. */
+    public static double decay(double value, double rate, int gap) {
+        return (gap > 0) ? value * Math.pow(rate, gap) : value;
+    }
+
+}
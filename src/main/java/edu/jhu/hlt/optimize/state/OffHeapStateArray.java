@@ -0,0 +1,91 @@
+package edu.jhu.hlt.optimize.state;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+/**
+ * Optimizer state stored as doubles in a direct buffer outside of the Java
+ * heap. This keeps large optimizer state out of the heap (and away from the
+ * garbage collector) without any loss of precision. The memory is released
+ * when the array is garbage collected.
+ */
+public class OffHeapStateArray implements StateArray {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The maximum number of entries which fit in a single direct buffer. */
+    public static final int MAX_SIZE = Integer.MAX_VALUE / 8;
+
+    private int size;
+    private transient DoubleBuffer values;
+
+    public OffHeapStateArray(int size) {
+        if (size < 0 || size > MAX_SIZE) {
+            throw new IllegalArgumentException("Size must be between 0 and " + MAX_SIZE + ": " + size);
+        }
+        this.size = size;
+        this.values = allocate(size);
+    }
+
+    private static DoubleBuffer allocate(int size) {
+        // Direct buffers are zero filled on allocation.
+        return ByteBuffer.allocateDirect(8 * size).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+    }
+
+    @Override
+    public double get(int i) {
+        return values.get(i);
+    }
+
+    @Override
+    public void set(int i, double value) {
+        values.put(i, value);
+    }
+
+    @Override
+    public double add(int i, double delta) {
+        double value = values.get(i) + delta;
+        values.put(i, value);
+        return value;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long getNumBytes() {
+        return 8L * size;
+    }
+
+    @Override
+    public StateArray copy() {
+        OffHeapStateArray other = new OffHeapStateArray(size);
+        DoubleBuffer src = values.duplicate();
+        src.clear();
+        other.values.put(src);
+        other.values.clear();
+        return other;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        for (int i=0; i<size; i++) {
+            out.writeDouble(values.get(i));
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        values = allocate(size);
+        for (int i=0; i<size; i++) {
+            values.put(i, in.readDouble());
+        }
+    }
+
+}
@@ -0,0 +1,292 @@
+package edu.jhu.hlt.optimize.state;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Per-parameter optimizer state with several fields (e.g. AdaDelta's two
+ * accumulators) for each parameter, stored only for the parameters which have
+ * been set. The fields of a parameter are packed together in an open
+ * addressing hash table keyed by the parameter index, which grows as
+ * parameters are first touched. Untouched parameters read as zero.
+ *
+ * Once the hash table would use more memory than storing every parameter,
+ * the store compacts itself into a dense layout indexed directly by the
+ * parameter.
+ */
+public class SparseStateStore implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The marker for an empty slot. */
+    private static final int EMPTY = -1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int numDims;
+    private int numFields;
+    /** The parameter index in each slot, or null once dense. */
+    private int[] keys;
+    /** The fields of the parameter in each slot (or of each parameter once dense). */
+    private double[] values;
+    /** The number of occupied slots. */
+    private int size;
+
+    private SparseStateStore() { }
+
+    /**
+     * Constructs an empty store.
+     *
+     * @param numDims The number of parameters.
+     * @param numFields The number of fields for each parameter.
+     */
+    public SparseStateStore(int numDims, int numFields) {
+        if (numDims < 0 || numFields < 1) {
+            throw new IllegalArgumentException("Invalid dimensions: " + numDims + " " + numFields);
+        }
+        this.numDims = numDims;
+        this.numFields = numFields;
+        this.size = 0;
+        allocate(Math.min(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(1, numDims)) * 2));
+        if (getTableBytes(keys.length) >= getDenseBytes()) {
+            makeDense();
+        }
+    }
+
+    /** Gets field f of parameter i, which is zero if the parameter has never been set. */
+    public double get(int i, int f) {
+        int slot = findSlot(i);
+        return (slot == EMPTY) ? 0.0 : values[slot * numFields + f];
+    }
+
+    /** Sets field f of parameter i, adding the parameter to the store if needed. */
+    public void set(int i, int f, double value) {
+        int slot = findSlot(i);
+        if (slot == EMPTY) {
+            if (value == 0.0) {
+                // Untouched parameters already read as zero.
+                return;
+            }
+            slot = insert(i);
+        }
+        values[slot * numFields + f] = value;
+    }
+
+    /** Gets the number of parameters which have been set. */
+    public int getNumTouched() {
+        return isDense() ? numDims : size;
+    }
+
+    /** Whether the store has been compacted into a dense layout. */
+    public boolean isDense() {
+        return keys == null;
+    }
+
+    /** Gets the number of parameters. */
+    public int getNumDims() {
+        return numDims;
+    }
+
+    /** Gets the number of bytes used to store the entries. */
+    public long getNumBytes() {
+        return isDense() ? getDenseBytes() : getTableBytes(keys.length);
+    }
+
+    /**
+     * Gets a view of a single field of every parameter. The views of a store
+     * share its memory, and each reports an equal share of its size.
+     */
+    public StateArray getField(int f) {
+        if (f < 0 || f >= numFields) {
+            throw new IllegalArgumentException("Invalid field: " + f);
+        }
+        return new Field(this, f);
+    }
+
+    /** Gets views of all the fields. */
+    public StateArray[] getFields() {
+        StateArray[] fields = new StateArray[numFields];
+        for (int f=0; f<numFields; f++) {
+            fields[f] = getField(f);
+        }
+        return fields;
+    }
+
+    /** Gets a deep copy of this store. */
+    public SparseStateStore copy() {
+        SparseStateStore other = new SparseStateStore();
+        other.numDims = numDims;
+        other.numFields = numFields;
+        other.keys = (keys == null) ? null : Arrays.copyOf(keys, keys.length);
+        other.values = Arrays.copyOf(values, values.length);
+        other.size = size;
+        return other;
+    }
+
+    /**
+     * Copies each of the arrays. Views of the same store are copied as views
+     * of a single copy of that store.
+     */
+    public static StateArray[] copyAll(StateArray... arrays) {
+        Map<SparseStateStore, SparseStateStore> copies = new IdentityHashMap<SparseStateStore, SparseStateStore>();
+        StateArray[] others = new StateArray[arrays.length];
+        for (int a=0; a<arrays.length; a++) {
+            if (arrays[a] instanceof Field) {
+                Field view = (Field) arrays[a];
+                SparseStateStore copy = copies.get(view.store);
+                if (copy == null) {
+                    copy = view.store.copy();
+                    copies.put(view.store, copy);
+                }
+                others[a] = copy.getField(view.field);
+            } else if (arrays[a] != null) {
+                others[a] = arrays[a].copy();
+            }
+        }
+        return others;
+    }
+
+    private int findSlot(int i) {
+        if (i < 0 || i >= numDims) {
+            throw new IndexOutOfBoundsException("Index " + i + " is out of range [0, " + numDims + ")");
+        }
+        if (isDense()) {
+            return i;
+        }
+        int mask = keys.length - 1;
+        for (int slot = hash(i) & mask; ; slot = (slot + 1) & mask) {
+            if (keys[slot] == i) {
+                return slot;
+            } else if (keys[slot] == EMPTY) {
+                return EMPTY;
+            }
+        }
+    }
+
+    private int insert(int i) {
+        // Keep the table at most half full.
+        if (2 * (size + 1) > keys.length) {
+            int newCapacity = 2 * keys.length;
+            if (getTableBytes(newCapacity) >= getDenseBytes()) {
+                makeDense();
+                return i;
+            }
+            rehash(newCapacity);
+        }
+        int mask = keys.length - 1;
+        int slot = hash(i) & mask;
+        while (keys[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = i;
+        size++;
+        return slot;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new double[capacity * numFields];
+    }
+
+    private void rehash(int newCapacity) {
+        int[] oldKeys = keys;
+        double[] oldValues = values;
+        allocate(newCapacity);
+        int mask = keys.length - 1;
+        for (int s=0; s<oldKeys.length; s++) {
+            if (oldKeys[s] != EMPTY) {
+                int slot = hash(oldKeys[s]) & mask;
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[s];
+                System.arraycopy(oldValues, s * numFields, values, slot * numFields, numFields);
+            }
+        }
+    }
+
+    /** Switches to a dense layout where the slot of each parameter is its index. */
+    private void makeDense() {
+        double[] dense = new double[numDims * numFields];
+        if (keys != null) {
+            for (int s=0; s<keys.length; s++) {
+                if (keys[s] != EMPTY) {
+                    System.arraycopy(values, s * numFields, dense, keys[s] * numFields, numFields);
+                }
+            }
+        }
+        keys = null;
+        values = dense;
+        size = numDims;
+    }
+
+    private long getTableBytes(int capacity) {
+        return (4L + 8L * numFields) * capacity;
+    }
+
+    private long getDenseBytes() {
+        return 8L * numFields * numDims;
+    }
+
+    /** Scrambles the bits of the index so that runs of indices spread out (MurmurHash3's finalizer). */
+    private static int hash(int i) {
+        int h = i;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /** A view of one field of every parameter. */
+    private static class Field implements StateArray {
+
+        private static final long serialVersionUID = 1L;
+
+        private SparseStateStore store;
+        private int field;
+
+        public Field(SparseStateStore store, int field) {
+            this.store = store;
+            this.field = field;
+        }
+
+        @Override
+        public double get(int i) {
+            return store.get(i, field);
+        }
+
+        @Override
+        public void set(int i, double value) {
+            store.set(i, field, value);
+        }
+
+        @Override
+        public double add(int i, double delta) {
+            double value = store.get(i, field) + delta;
+            store.set(i, field, value);
+            return value;
+        }
+
+        @Override
+        public int size() {
+            return store.getNumDims();
+        }
+
+        @Override
+        public long getNumBytes() {
+            return store.getNumBytes() / store.numFields;
+        }
+
+        /** Copies the entire store, of which this is a view. */
+        @Override
+        public StateArray copy() {
+            return store.copy().getField(field);
+        }
+
+    }
+
+}
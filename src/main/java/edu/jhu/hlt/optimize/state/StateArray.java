@@ -0,0 +1,36 @@
+package edu.jhu.hlt.optimize.state;
+
+import java.io.Serializable;
+
+/**
+ * A fixed length array of per-parameter optimizer state (e.g. the AdaGrad sum
+ * of squares). Implementations trade precision or heap usage for memory.
+ *
+ * @see StateStorage
+ */
+public interface StateArray extends Serializable {
+
+    /** Gets the i'th entry. */
+    double get(int i);
+
+    /** Sets the i'th entry. */
+    void set(int i, double value);
+
+    /**
+     * Adds to the i'th entry. This is atomic only for arrays which are
+     * documented as thread-safe.
+     *
+     * @return The new value of the entry.
+     */
+    double add(int i, double delta);
+
+    /** Gets the number of entries. */
+    int size();
+
+    /** Gets the approximate number of bytes used to store the entries. */
+    long getNumBytes();
+
+    /** Gets a deep copy of this array. */
+    StateArray copy();
+
+}
@@ -0,0 +1,131 @@
+package edu.jhu.hlt.optimize.state;
+
+/**
+ * The backends for storing per-parameter optimizer state.
+ */
+public enum StateStorage {
+
+    /** A double[] on the heap. */
+    DOUBLE {
+        @Override
+        public StateArray newArray(int size) {
+            return new DoubleStateArray(size);
+        }
+    },
+    /**
+     * Doubles in chunks on the heap which are shared copy-on-write, so that
+     * copies are cheap and untouched chunks are never allocated.
+     */
+    COPY_ON_WRITE {
+        @Override
+        public StateArray newArray(int size) {
+            return new CopyOnWriteStateArray(size);
+        }
+    },
+    /**
+     * A float[] on the heap, at half the memory of DOUBLE. Suitable for state
+     * which decays, but not for sums which only grow (see
+     * {@link FloatStateArray}).
+     */
+    FLOAT {
+        @Override
+        public StateArray newArray(int size) {
+            return new FloatStateArray(size);
+        }
+    },
+    /** Doubles in a direct buffer outside of the Java heap. */
+    OFF_HEAP {
+        @Override
+        public StateArray newArray(int size) {
+            return new OffHeapStateArray(size);
+        }
+    },
+    /**
+     * Doubles in an AtomicLongArray on the heap, whose additions are lock-free
+     * and thread-safe. For state shared by several threads.
+     */
+    ATOMIC {
+        @Override
+        public StateArray newArray(int size) {
+            return new AtomicStateArray(size);
+        }
+    },
+    /**
+     * Doubles in a hash table holding only the parameters which have been
+     * touched, which switches to a dense layout once it fills up. The arrays
+     * from {@link #newArrays(int, int)} are packed into a single table.
+     */
+    SPARSE {
+        @Override
+        public StateArray newArray(int size) {
+            return new SparseStateStore(size, 1).getField(0);
+        }
+        @Override
+        public StateArray[] newArrays(int size, int numArrays) {
+            return new SparseStateStore(size, numArrays).getFields();
+        }
+    };
+
+    /** Creates a new array of zeros with this backend. */
+    public abstract StateArray newArray(int size);
+
+    /**
+     * Creates several new arrays of zeros with this backend, for state with
+     * more than one entry per parameter. Copy them with
+     * {@link SparseStateStore#copyAll(StateArray...)}, since they may share
+     * storage.
+     */
+    public StateArray[] newArrays(int size, int numArrays) {
+        StateArray[] arrays = new StateArray[numArrays];
+        for (int a=0; a<numArrays; a++) {
+            arrays[a] = newArray(size);
+        }
+        return arrays;
+    }
+
+    /**
+     * Whether concurrent additions to an array with this backend are
+     * thread-safe. Only ATOMIC arrays are.
+     */
+    public boolean isThreadSafe() {
+        return this == ATOMIC;
+    }
+
+    /**
+     * Whether each entry of an array with this backend is written
+     * independently of the others. Concurrent writes to such an array are
+     * relaxed Hogwild-style writes, which may lose an update to an entry but
+     * never corrupt another. SPARSE arrays may rehash and COPY_ON_WRITE arrays
+     * may copy a chunk on a write, either of which can lose the writes of
+     * other threads or throw.
+     */
+    public boolean hasIndependentEntries() {
+        return this != SPARSE && this != COPY_ON_WRITE;
+    }
+
+    /**
+     * Whether an optimizer should keep its per-parameter step counters in
+     * this backend, alongside the rest of its state, rather than in an int[].
+     * True for SPARSE, so that nothing is allocated for the parameters which
+     * are never touched, and for COPY_ON_WRITE, so that copies stay cheap. A
+     * double holds any step count exactly.
+     */
+    public boolean storesStepCounters() {
+        return this == SPARSE || this == COPY_ON_WRITE;
+    }
+
+    /**
+     * Gets a one line summary of the memory used by an optimizer's state, and
+     * the savings compared to storing it in dense arrays on the heap.
+     *
+     * @param name The name of the optimizer.
+     * @param numBytes The number of bytes used by the state.
+     * @param denseBytes The number of bytes the state would use in dense arrays.
+     */
+    public static String getMemoryReport(String name, long numBytes, long denseBytes) {
+        double saved = (denseBytes == 0) ? 0.0 : 100.0 * (denseBytes - numBytes) / denseBytes;
+        return String.format("%s state: %.2f MB (%.2f MB in dense arrays, %.1f%% saved)",
+                name, numBytes / 1e6, denseBytes / 1e6, saved);
+    }
+
+}
@@ -0,0 +1,41 @@
+package edu.jhu.hlt.optimize.state;
+
+import java.io.Serializable;
+
+/**
+ * A fixed number of locks shared among the parameters, so that threads
+ * updating different parameters rarely contend. Parameter i is guarded by lock
+ * i mod the number of stripes.
+ */
+public class StripedLocks implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** A serializable monitor. */
+    private static class Lock implements Serializable {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private Lock[] locks;
+
+    public StripedLocks(int numStripes) {
+        if (numStripes < 1) {
+            throw new IllegalArgumentException("Number of stripes must be positive: " + numStripes);
+        }
+        locks = new Lock[numStripes];
+        for (int s=0; s<numStripes; s++) {
+            locks[s] = new Lock();
+        }
+    }
+
+    /** Gets the lock which guards parameter i. */
+    public Object getLock(int i) {
+        return locks[i % locks.length];
+    }
+
+    /** Gets the number of stripes. */
+    public int getNumStripes() {
+        return locks.length;
+    }
+
+}
@@ -2,46 +2,56 @@ package edu.jhu.hlt.util;
 
 import org.apache.log4j.Logger;
 
-
+/**
+ * A logger which can be switched off. The on/off state is kept per thread, so
+ * one thread can silence the logger without affecting any other thread.
+ */
 public class OnOffLogger {
 
     private Logger log;
-    private boolean enabled = true;
+    private final ThreadLocal<Boolean> enabled = new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+            return Boolean.TRUE;
+        }
+    };
 
     public OnOffLogger(Logger log) {
         this.log = log;
     }
 
+    /** Whether the logger is enabled for the current thread. */
     public boolean isEnabled() {
-        return enabled;
+        return enabled.get();
     }
 
+    /** Enables or disables the logger for the current thread only. */
     public void setEnabled(boolean enabled) {
-        this.enabled = enabled;
+        this.enabled.set(enabled);
     }
 
     public void fatal(Object message) {
-        if (enabled) { log.fatal(message); }
+        if (isEnabled()) { log.fatal(message); }
     }    
     
     public void error(Object message) {
-        if (enabled) { log.error(message); }
+        if (isEnabled()) { log.error(message); }
     }
     
     public void warn(Object message) {
-        if (enabled) { log.warn(message); }
+        if (isEnabled()) { log.warn(message); }
     }
     
     public void info(Object message) {
-        if (enabled) { log.info(message); }
+        if (isEnabled()) { log.info(message); }
     }
     
     public void debug(Object message) {
-        if (enabled) { log.debug(message); }
+        if (isEnabled()) { log.debug(message); }
     }
 
     public void trace(Object message) {
-        if (enabled) { log.trace(message); }
+        if (isEnabled()) { log.trace(message); }
     }
     
     public boolean isTraceEnabled() {
@@ -0,0 +1,72 @@
+package edu.jhu.hlt.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Utilities for working with threads and executors.
+ */
+public class Threads {
+
+    private Threads() {
+        // private constructor
+    }
+
+    /**
+     * Creates a fixed size thread pool of daemon threads. Because the threads
+     * are daemons, an idle pool will never keep the JVM from exiting.
+     *
+     * @param numThreads The number of threads.
+     * @param name The prefix for the name of each thread.
+     */
+    public static ExecutorService newDaemonThreadPool(int numThreads, final String name) {
+        return Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(0);
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Waits for each of the futures to complete and returns their results in
+     * order. Any exception thrown by a task is rethrown as a RuntimeException.
+     */
+    public static <T> List<T> getAll(List<Future<T>> futures) {
+        List<T> results = new ArrayList<T>(futures.size());
+        for (Future<T> f : futures) {
+            results.add(get(f));
+        }
+        return results;
+    }
+
+    /**
+     * Waits for the future to complete and returns its result. Any exception
+     * thrown by the task is rethrown as a RuntimeException.
+     */
+    public static <T> T get(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+}
@@ -1,9 +1,24 @@
 package edu.jhu.hlt.optimize;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
 import edu.jhu.hlt.optimize.AdaDelta.AdaDeltaPrm;
 import edu.jhu.hlt.optimize.AdaGrad.AdaGradPrm;
 import edu.jhu.hlt.optimize.SGD.SGDPrm;
+import edu.jhu.hlt.optimize.function.AbstractDifferentiableBatchFunction;
 import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
+import edu.jhu.hlt.optimize.function.SparseSumSquaresBatchFunction;
+import edu.jhu.hlt.optimize.function.ValueGradient;
+import edu.jhu.hlt.optimize.state.StateStorage;
+import edu.jhu.hlt.util.JUnitUtils;
+import edu.jhu.hlt.util.Prm;
+import edu.jhu.prim.vector.IntDoubleDenseVector;
+import edu.jhu.prim.vector.IntDoubleUnsortedVector;
+import edu.jhu.prim.vector.IntDoubleVector;
+import edu.jhu.util.Prng;
 
 public class AdaDeltaTest  extends AbstractBatchOptimizerTest {
 
@@ -20,5 +35,173 @@ public class AdaDeltaTest  extends AbstractBatchOptimizerTest {
         prm.autoSelectLr = false;
         return new SGD(prm);
     }
+
+    /** Wrapper which returns every gradient as a dense vector, so every parameter is updated on every step. */
+    private static class DenseGradientFunction extends AbstractDifferentiableBatchFunction {
+
+        private DifferentiableBatchFunction function;
+
+        public DenseGradientFunction(DifferentiableBatchFunction function) {
+            this.function = function;
+        }
+
+        @Override
+        public double getValue(IntDoubleVector point, int[] batch) {
+            return function.getValue(point, batch);
+        }
+
+        @Override
+        public IntDoubleVector getGradient(IntDoubleVector point, int[] batch) {
+            return getValueGradient(point, batch).getGradient();
+        }
+
+        @Override
+        public ValueGradient getValueGradient(IntDoubleVector point, int[] batch) {
+            ValueGradient vg = function.getValueGradient(point, batch);
+            IntDoubleVector dense = new IntDoubleDenseVector(new double[getNumDimensions()]);
+            dense.add(vg.getGradient());
+            return new ValueGradient(vg.getValue(), dense);
+        }
+
+        @Override
+        public int getNumDimensions() {
+            return function.getNumDimensions();
+        }
+
+        @Override
+        public int getNumExamples() {
+            return function.getNumExamples();
+        }
+
+    }
+
+    @Test
+    public void testSparseEqualsDense() {
+        double[] centers = new double[40];
+        for (int i=0; i<centers.length; i++) {
+            centers[i] = i % 7 - 3;
+        }
+        SparseSumSquaresBatchFunction f = new SparseSumSquaresBatchFunction(centers, 8);
+
+        Prng.seed(42);
+        double[] actual = new double[8];
+        new SGD(getPrm()).minimize(f, new IntDoubleDenseVector(actual));
+
+        Prng.seed(42);
+        double[] expected = new double[8];
+        new SGD(getPrm()).minimize(new DenseGradientFunction(f), new IntDoubleDenseVector(expected));
+        JUnitUtils.assertArrayEquals(expected, actual, 1e-12);
+    }
+
+    private static SGDPrm getPrm() {
+        SGDPrm prm = new SGDPrm();
+        prm.sched = new AdaDelta(new AdaDeltaPrm());
+        prm.numPasses = 5;
+        prm.batchSize = 3;
+        prm.autoSelectLr = false;
+        return prm;
+    }
+
+    @Test
+    public void testLearningRatesOfUntouchedParameters() {
+        int numDims = 3;
+        DifferentiableBatchFunction f = new SparseSumSquaresBatchFunction(new double[numDims], numDims);
+        AdaDelta sparse = new AdaDelta(new AdaDeltaPrm());
+        AdaDelta dense = new AdaDelta(new AdaDeltaPrm());
+        sparse.init(f);
+        dense.init(f);
+        double[][] grads = new double[][] { {3, 0, 1}, {0, 0, -2}, {0, 0, 5}, {-1, 0, 2}, {0, 0, 0} };
+        for (int t=0; t<grads.length; t++) {
+            IntDoubleVector g = new IntDoubleUnsortedVector();
+            for (int i=0; i<numDims; i++) {
+                if (grads[t][i] != 0) {
+                    g.add(i, grads[t][i]);
+                }
+            }
+            sparse.takeNoteOfGradient(g);
+            dense.takeNoteOfGradient(new IntDoubleDenseVector(grads[t]));
+            for (int i=0; i<numDims; i++) {
+                assertEquals(dense.getLearningRate(t, i), sparse.getLearningRate(t, i), 1e-13);
+            }
+        }
+    }
+
+    @Test
+    public void testRecomputedLearningRatesEqualCached() {
+        double[] centers = new double[40];
+        for (int i=0; i<centers.length; i++) {
+            centers[i] = i % 7 - 3;
+        }
+        SparseSumSquaresBatchFunction f = new SparseSumSquaresBatchFunction(centers, 8);
+
+        // The lazy regularizer also reads the learning rates of the last step.
+        SGDPrm cachedPrm = getPrm();
+        cachedPrm.l2Lambda = 0.1;
+        Prng.seed(42);
+        double[] expected = new double[8];
+        new SGD(cachedPrm).minimize(f, new IntDoubleDenseVector(expected));
+
+        AdaDeltaPrm sched = new AdaDeltaPrm();
+        sched.cacheLearningRates = false;
+        for (StateStorage storage : new StateStorage[]{ StateStorage.OFF_HEAP, StateStorage.SPARSE }) {
+            sched.storage = storage;
+            SGDPrm prm = getPrm();
+            prm.sched = new AdaDelta(Prm.clonePrm(sched));
+            prm.l2Lambda = 0.1;
+            Prng.seed(42);
+            double[] actual = new double[8];
+            new SGD(prm).minimize(f, new IntDoubleDenseVector(actual));
+            JUnitUtils.assertArrayEquals(expected, actual, 0.0);
+        }
+    }
+
+    @Test
+    public void testSparseStateGrowsOnFirstTouch() {
+        int numDims = 100000;
+        DifferentiableBatchFunction f = new SparseSumSquaresBatchFunction(new double[1], numDims);
+        AdaDeltaPrm prm = new AdaDeltaPrm();
+        prm.storage = StateStorage.SPARSE;
+        AdaDelta sparse = new AdaDelta(prm);
+        AdaDeltaPrm densePrm = new AdaDeltaPrm();
+        densePrm.storage = StateStorage.DOUBLE;
+        AdaDelta dense = new AdaDelta(densePrm);
+        sparse.init(f);
+        dense.init(f);
+        long initialBytes = sparse.getStateBytes();
+        for (int t=0; t<100; t++) {
+            IntDoubleVector g = new IntDoubleUnsortedVector();
+            g.add((t * 7919) % numDims, t % 5 - 2.0);
+            g.add((t * 104729) % numDims, 1.0);
+            sparse.takeNoteOfGradient(g);
+            dense.takeNoteOfGradient(g.copy());
+        }
+        for (int i=0; i<numDims; i += 997) {
+            assertEquals(dense.getLearningRate(0, i), sparse.getLearningRate(0, i), 0.0);
+        }
+        assertTrue(initialBytes < 1000);
+        assertTrue(sparse.getStateBytes() < dense.getStateBytes() / 100);
+        
+        AdaDelta copy = (AdaDelta) sparse.copy();
+        assertEquals(sparse.getStateBytes(), copy.getStateBytes());
+        assertEquals(sparse.getLearningRate(0, 7919), copy.getLearningRate(0, 7919), 0.0);
+    }
+
+    @Test
+    public void testStateBytes() {
+        DifferentiableBatchFunction f = new SparseSumSquaresBatchFunction(new double[1], 1000);
+        AdaDeltaPrm cachedPrm = new AdaDeltaPrm();
+        cachedPrm.storage = StateStorage.DOUBLE;
+        AdaDelta cached = new AdaDelta(cachedPrm);
+        cached.init(f);
+        assertEquals(28000, cached.getStateBytes());
+        
+        AdaDeltaPrm prm = new AdaDeltaPrm();
+        prm.cacheLearningRates = false;
+        prm.storage = StateStorage.FLOAT;
+        AdaDelta compact = new AdaDelta(prm);
+        compact.init(f);
+        assertEquals(12000, compact.getStateBytes());
+        assertTrue(compact.getStateBytes() < cached.getStateBytes());
+    }
     
-}
\ No newline at end of file
+}
@@ -1,10 +1,20 @@
 package edu.jhu.hlt.optimize;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 import org.junit.Test;
 
 import edu.jhu.hlt.optimize.AdaGrad.AdaGradPrm;
 import edu.jhu.hlt.optimize.SGD.SGDPrm;
 import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
+import edu.jhu.hlt.optimize.function.SparseSumSquaresBatchFunction;
+import edu.jhu.hlt.optimize.state.StateStorage;
+import edu.jhu.hlt.util.JUnitUtils;
+import edu.jhu.prim.vector.IntDoubleDenseVector;
+import edu.jhu.prim.vector.IntDoubleUnsortedVector;
+import edu.jhu.prim.vector.IntDoubleVector;
+import edu.jhu.util.Prng;
 
 public class AdaGradTest extends AbstractBatchOptimizerTest {
 
@@ -36,5 +46,58 @@ public class AdaGradTest extends AbstractBatchOptimizerTest {
             SGDTest.runSgdAutoSelectLr(new AdaGrad(sched));  
         }
     }
+
+    @Test
+    public void testStorageBackends() {
+        double[] expected = runWithStorage(StateStorage.DOUBLE);
+        // Off-heap storage keeps full precision.
+        JUnitUtils.assertArrayEquals(expected, runWithStorage(StateStorage.OFF_HEAP), 0.0);
+        JUnitUtils.assertArrayEquals(expected, runWithStorage(StateStorage.SPARSE), 0.0);
+        // Single precision only perturbs the learning rates.
+        JUnitUtils.assertArrayEquals(expected, runWithStorage(StateStorage.FLOAT), 1e-6);
+        
+        AdaGradPrm prm = new AdaGradPrm();
+        prm.storage = StateStorage.FLOAT;
+        AdaGrad sched = new AdaGrad(prm);
+        sched.init(new SparseSumSquaresBatchFunction(new double[1], 1000));
+        assertEquals(4000, sched.getStateBytes());
+    }
+
+    @Test
+    public void testCopyIsCheap() {
+        int numDims = 1000000;
+        AdaGradPrm prm = new AdaGradPrm();
+        prm.storage = StateStorage.COPY_ON_WRITE;
+        AdaGrad sched = new AdaGrad(prm);
+        sched.init(new SparseSumSquaresBatchFunction(new double[1], numDims));
+        IntDoubleVector g = new IntDoubleUnsortedVector();
+        g.add(3, 2.0);
+        sched.takeNoteOfGradient(g);
+        AdaGrad copy = (AdaGrad) sched.copy();
+        // The copy shares the state of the original, rather than duplicating it.
+        assertTrue(copy.getStateBytes() < 8L * numDims / 100);
+        copy.takeNoteOfGradient(g);
+        assertTrue(copy.getLearningRate(0, 3) < sched.getLearningRate(0, 3));
+        assertEquals(sched.getLearningRate(0, 4), copy.getLearningRate(0, 4), 0.0);
+    }
+
+    private static double[] runWithStorage(StateStorage storage) {
+        double[] centers = new double[40];
+        for (int i=0; i<centers.length; i++) {
+            centers[i] = i % 7 - 3;
+        }
+        AdaGradPrm sched = new AdaGradPrm();
+        sched.eta = 1.0;
+        sched.storage = storage;
+        SGDPrm prm = new SGDPrm();
+        prm.sched = new AdaGrad(sched);
+        prm.numPasses = 5;
+        prm.batchSize = 3;
+        prm.autoSelectLr = false;
+        Prng.seed(42);
+        double[] point = new double[8];
+        new SGD(prm).minimize(new SparseSumSquaresBatchFunction(centers, 8), new IntDoubleDenseVector(point));
+        return point;
+    }
     
 }
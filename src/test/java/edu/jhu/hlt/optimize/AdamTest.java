@@ -0,0 +1,154 @@
+package edu.jhu.hlt.optimize;
+
+import static edu.jhu.hlt.optimize.AbstractBatchOptimizerTest.bf;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import edu.jhu.hlt.optimize.Adam.AdamPrm;
+import edu.jhu.hlt.optimize.SGD.SGDPrm;
+import edu.jhu.hlt.optimize.function.AbstractDifferentiableBatchFunction;
+import edu.jhu.hlt.optimize.function.FunctionAsBatchFunction;
+import edu.jhu.hlt.optimize.function.ValueGradient;
+import edu.jhu.hlt.optimize.functions.SumSquares;
+import edu.jhu.hlt.optimize.state.StateStorage;
+import edu.jhu.hlt.util.JUnitUtils;
+import edu.jhu.prim.vector.IntDoubleDenseVector;
+import edu.jhu.prim.vector.IntDoubleUnsortedVector;
+import edu.jhu.prim.vector.IntDoubleVector;
+
+public class AdamTest {
+
+    /** The function x_0^2 of two dimensions, with a sparse gradient. */
+    private static class FirstCoordSquared extends AbstractDifferentiableBatchFunction {
+
+        @Override
+        public double getValue(IntDoubleVector point, int[] batch) {
+            return point.get(0) * point.get(0);
+        }
+
+        @Override
+        public IntDoubleVector getGradient(IntDoubleVector point, int[] batch) {
+            IntDoubleUnsortedVector gradient = new IntDoubleUnsortedVector();
+            gradient.add(0, 2 * point.get(0));
+            return gradient;
+        }
+
+        @Override
+        public ValueGradient getValueGradient(IntDoubleVector point, int[] batch) {
+            return new ValueGradient(getValue(point, batch), getGradient(point, batch));
+        }
+
+        @Override
+        public int getNumDimensions() {
+            return 2;
+        }
+
+        @Override
+        public int getNumExamples() {
+            return 10;
+        }
+
+    }
+
+    @Test
+    public void testLazyMomentsEqualDense() {
+        for (StateStorage storage : new StateStorage[]{ StateStorage.DOUBLE, StateStorage.COPY_ON_WRITE, StateStorage.SPARSE }) {
+            AdamPrm prm = new AdamPrm();
+            prm.eta = 0.1;
+            prm.storage = storage;
+            Adam adam = new Adam(prm);
+            adam.init(new FunctionAsBatchFunction(new SumSquares(2), 1));
+
+            // Coordinate 0 has a nonzero gradient on steps 1 and 4.
+            double[][] grads = new double[][] { {3, 1}, {0, -2}, {0, 5}, {-1, 2} };
+            double m = 0, v = 0;
+            IntDoubleVector step = null;
+            for (int t=0; t<grads.length; t++) {
+                IntDoubleUnsortedVector g = new IntDoubleUnsortedVector();
+                for (int i=0; i<2; i++) {
+                    if (grads[t][i] != 0) {
+                        g.add(i, grads[t][i]);
+                    }
+                }
+                adam.takeNoteOfGradient(g);
+                adam.scaleGradient(t, g, false);
+                step = g;
+                m = prm.beta1 * m + (1 - prm.beta1) * grads[t][0];
+                v = prm.beta2 * v + (1 - prm.beta2) * grads[t][0] * grads[t][0];
+            }
+            double mHat = m / (1 - Math.pow(prm.beta1, 4));
+            double vHat = v / (1 - Math.pow(prm.beta2, 4));
+            assertEquals(-0.1 * mHat / (Math.sqrt(vHat) + prm.constantAddend), step.get(0), 1e-13);
+        }
+    }
+
+    @Test
+    public void testCopyIsIndependent() {
+        for (StateStorage storage : new StateStorage[]{ StateStorage.DOUBLE, StateStorage.COPY_ON_WRITE, StateStorage.SPARSE }) {
+            AdamPrm prm = new AdamPrm();
+            prm.storage = storage;
+            Adam adam = new Adam(prm);
+            adam.init(new FunctionAsBatchFunction(new SumSquares(2), 1));
+            adam.takeNoteOfGradient(new IntDoubleDenseVector(new double[] { 1, 2 }));
+            Adam copy = (Adam) adam.copy();
+            adam.takeNoteOfGradient(new IntDoubleDenseVector(new double[] { 3, 0 }));
+            copy.takeNoteOfGradient(new IntDoubleDenseVector(new double[] { 3, 0 }));
+
+            IntDoubleVector g1 = new IntDoubleDenseVector(new double[] { 1, 1 });
+            IntDoubleVector g2 = new IntDoubleDenseVector(new double[] { 1, 1 });
+            adam.scaleGradient(1, g1, false);
+            copy.scaleGradient(1, g2, false);
+            JUnitUtils.assertArrayEquals(g1.toNativeArray(), g2.toNativeArray(), 1e-13);
+
+            // Further updates to the copy leave the original alone.
+            copy.takeNoteOfGradient(new IntDoubleDenseVector(new double[] { -5, 7 }));
+            IntDoubleVector g3 = new IntDoubleDenseVector(new double[] { 1, 1 });
+            adam.scaleGradient(1, g3, false);
+            JUnitUtils.assertArrayEquals(g1.toNativeArray(), g3.toNativeArray(), 1e-13);
+        }
+    }
+
+    @Test
+    public void testFirstStepIsEta() {
+        AdamPrm prm = new AdamPrm();
+        prm.eta = 0.1;
+        Adam adam = new Adam(prm);
+        adam.init(new FunctionAsBatchFunction(new SumSquares(2), 1));
+        IntDoubleVector g = new IntDoubleDenseVector(new double[] { 5, -0.5 });
+        adam.takeNoteOfGradient(g);
+        adam.scaleGradient(0, g, true);
+        JUnitUtils.assertArrayEquals(new double[] { 0.1, -0.1 }, g.toNativeArray(), 1e-8);
+    }
+
+    @Test
+    public void testOffsetSumSquares() {
+        AdamPrm adamPrm = new AdamPrm();
+        adamPrm.eta = 0.1;
+        SGDPrm prm = new SGDPrm();
+        prm.sched = new Adam(adamPrm);
+        prm.numPasses = 100;
+        prm.batchSize = 1;
+        prm.autoSelectLr = false;
+        double[] initial = new double[] { 9, 2, -7};
+        double[] offsets = new double[] { 3, -5, 11};
+        new SGD(prm).minimize(bf(new SumSquares(offsets)), new IntDoubleDenseVector(initial));
+        JUnitUtils.assertArrayEquals(new double[] { -3, 5, -11 }, initial, 1e-2);
+    }
+
+    @Test
+    public void testAdamWDecaysUntouchedWeights() {
+        AdamPrm adamPrm = new AdamPrm();
+        adamPrm.eta = 0.1;
+        SGDPrm prm = Adam.getAdamWPrm(adamPrm, 0.5);
+        prm.numPasses = 1;
+        prm.batchSize = 1;
+        prm.autoSelectLr = false;
+        // The objective depends only on the first coordinate.
+        double[] point = new double[] { 9, 1 };
+        new SGD(prm).minimize(new FirstCoordSquared(), new IntDoubleDenseVector(point));
+        // Ten steps, each decaying the weights by (1 - eta * weightDecay).
+        assertEquals(Math.pow(1 - 0.1 * 0.5, 10), point[1], 1e-13);
+    }
+
+}
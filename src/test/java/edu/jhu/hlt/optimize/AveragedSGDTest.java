@@ -0,0 +1,174 @@
+package edu.jhu.hlt.optimize;
+
+import static edu.jhu.hlt.optimize.AbstractBatchOptimizerTest.bf;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import edu.jhu.hlt.optimize.AdaGrad.AdaGradPrm;
+import edu.jhu.hlt.optimize.AveragedSGD.AveragedSGDPrm;
+import edu.jhu.hlt.optimize.SGD.SGDPrm;
+import edu.jhu.hlt.optimize.function.SparseLinearBatchFunction;
+import edu.jhu.hlt.optimize.function.SparseSumSquaresBatchFunction;
+import edu.jhu.hlt.optimize.function.SumSquaresBatchFunction;
+import edu.jhu.hlt.optimize.functions.XSquared;
+import edu.jhu.hlt.util.JUnitUtils;
+import edu.jhu.prim.vector.IntDoubleDenseVector;
+import edu.jhu.prim.vector.IntDoubleVector;
+import edu.jhu.util.Prng;
+
+public class AveragedSGDTest {
+
+    /**
+     * SGD which also keeps the dense average of the points after each
+     * iteration, optionally applying an L2 penalty to every coordinate on
+     * every iteration.
+     */
+    private static class DenseAveragingSGD extends SGD {
+
+        private GainSchedule sched;
+        private double l2Lambda;
+        private int start;
+        private double[] sums;
+        private int count;
+
+        public DenseAveragingSGD(SGDPrm prm, int start, int numDims) {
+            this(prm, 0.0, start, numDims);
+        }
+
+        public DenseAveragingSGD(SGDPrm prm, double l2Lambda, int start, int numDims) {
+            super(prm);
+            this.sched = prm.sched;
+            this.l2Lambda = l2Lambda;
+            this.start = start;
+            this.sums = new double[numDims];
+        }
+
+        @Override
+        protected void takeStep(int iterCount, IntDoubleVector point, IntDoubleVector step) {
+            super.takeStep(iterCount, point, step);
+            for (int i=0; i<sums.length && l2Lambda != 0.0; i++) {
+                point.set(i, point.get(i) * (1.0 - sched.getLearningRate(iterCount, i) * l2Lambda));
+            }
+            if (iterCount + 1 > start) {
+                for (int i=0; i<sums.length; i++) {
+                    sums[i] += point.get(i);
+                }
+                count++;
+            }
+        }
+
+        public double[] getAverage() {
+            double[] avg = new double[sums.length];
+            for (int i=0; i<sums.length; i++) {
+                avg[i] = sums[i] / count;
+            }
+            return avg;
+        }
+
+    }
+
+    @Test
+    public void testLazyAverageEqualsDenseAverage() {
+        double[] centers = new double[50];
+        for (int i=0; i<centers.length; i++) {
+            centers[i] = i % 7 - 3;
+        }
+        SparseSumSquaresBatchFunction f = new SparseSumSquaresBatchFunction(centers, 10);
+
+        Prng.seed(42);
+        AveragedSGDPrm prm = getPrm();
+        double[] actual = new double[10];
+        new AveragedSGD(prm).minimize(f, new IntDoubleDenseVector(actual));
+
+        Prng.seed(42);
+        // Averaging starts after the first pass of 25 batches.
+        DenseAveragingSGD sgd = new DenseAveragingSGD(getPrm(), 25, 10);
+        sgd.minimize(f, new IntDoubleDenseVector(new double[10]));
+        JUnitUtils.assertArrayEquals(sgd.getAverage(), actual, 1e-10);
+    }
+
+    @Test
+    public void testLazyAverageEqualsEagerlyRegularizedAverage() {
+        int numDims = 10;
+        double[] coefs = new double[50];
+        for (int i=0; i<coefs.length; i++) {
+            coefs[i] = i % 7 - 3;
+        }
+        SparseLinearBatchFunction f = new SparseLinearBatchFunction(coefs, numDims);
+        // A uniform schedule, whose rates are recorded globally, and a
+        // per-parameter one, whose rates change only when a parameter is touched.
+        for (boolean uniform : new boolean[] { true, false }) {
+            Prng.seed(42);
+            AveragedSGDPrm prm = getPrm();
+            prm.sched = getSchedule(uniform);
+            prm.l2Lambda = 0.5;
+            double[] actual = new double[numDims];
+            new AveragedSGD(prm).minimize(f, new IntDoubleDenseVector(actual));
+
+            Prng.seed(42);
+            SGDPrm densePrm = getPrm();
+            densePrm.sched = getSchedule(uniform);
+            DenseAveragingSGD sgd = new DenseAveragingSGD(densePrm, 0.5, 25, numDims);
+            sgd.minimize(f, new IntDoubleDenseVector(new double[numDims]));
+            JUnitUtils.assertArrayEquals(sgd.getAverage(), actual, 1e-10);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsL1() {
+        AveragedSGDPrm prm = getPrm();
+        prm.l1Lambda = 0.1;
+        new AveragedSGD(prm);
+    }
+
+    @Test
+    public void testConvergesOnNoisyFunction() {
+        Prng.seed(12345);
+        double[][] centers = new double[200][3];
+        double[] mean = new double[3];
+        for (int i=0; i<centers.length; i++) {
+            for (int j=0; j<centers[i].length; j++) {
+                centers[i][j] = Prng.nextDouble() * 10 - 5;
+                mean[j] += centers[i][j] / centers.length;
+            }
+        }
+        AveragedSGDPrm prm = new AveragedSGDPrm(0.1, 10, 1);
+        prm.autoSelectLr = false;
+        double[] point = new double[3];
+        new AveragedSGD(prm).minimize(new SumSquaresBatchFunction(centers), new IntDoubleDenseVector(point));
+        JUnitUtils.assertArrayEquals(mean, point, 5e-2);
+    }
+
+    @Test
+    public void testNoAveragingBeforeStart() {
+        AveragedSGDPrm prm = new AveragedSGDPrm(0.1, 1, 1);
+        prm.autoSelectLr = false;
+        prm.averageStart = 2;
+        double[] actual = new double[] { 9 };
+        new AveragedSGD(prm).minimize(bf(new XSquared()), new IntDoubleDenseVector(actual));
+        // The unaveraged point is returned.
+        double[] expected = new double[] { 9 };
+        new SGD(prm).minimize(bf(new XSquared()), new IntDoubleDenseVector(expected));
+        assertEquals(expected[0], actual[0], 1e-13);
+    }
+
+    private static GainSchedule getSchedule(boolean uniform) {
+        if (uniform) {
+            GainSchedule sched = new AveragedSGDPrm().sched;
+            sched.setEta0(0.3);
+            return sched;
+        } else {
+            AdaGradPrm adaGrad = new AdaGradPrm();
+            adaGrad.eta = 0.3;
+            return new AdaGrad(adaGrad);
+        }
+    }
+
+    private static AveragedSGDPrm getPrm() {
+        AveragedSGDPrm prm = new AveragedSGDPrm(0.1, 4, 2);
+        prm.autoSelectLr = false;
+        return prm;
+    }
+
+}
@@ -1,8 +1,12 @@
 package edu.jhu.hlt.optimize;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
+import java.util.Random;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -69,6 +73,127 @@ public class BatchSamplerTest {
         }  
     }
     
+    @Test
+    public void testBufferMatchesAllocating() {
+        for (boolean withReplacement : new boolean[]{ true, false }) {
+            Prng.seed(2);
+            BatchSampler alloc = new BatchSampler(withReplacement, 20, 7);
+            int[][] expected = new int[10][];
+            for (int trial=0; trial<expected.length; trial++) {
+                expected[trial] = alloc.sampleBatch();
+            }
+            Prng.seed(2);
+            BatchSampler reuse = new BatchSampler(withReplacement, 20, 7);
+            int[] batch = new int[7];
+            for (int trial=0; trial<expected.length; trial++) {
+                assertSame(batch, reuse.sampleBatch(batch));
+                assertArrayEquals(expected[trial], batch);
+            }
+        }
+    }
+
+    @Test
+    public void testOwnRandomIsReproducibleAndLeavesPrngAlone() {
+        for (boolean withReplacement : new boolean[]{ true, false }) {
+            Prng.seed(2);
+            long expectedNext = Prng.nextLong();
+            Prng.seed(2);
+            BatchSampler first = new BatchSampler(withReplacement, 20, 7, new Random(5));
+            BatchSampler second = new BatchSampler(withReplacement, 20, 7, new Random(5));
+            int[] histogram = new int[20];
+            for (int trial=0; trial<20; trial++) {
+                int[] batch = first.sampleBatch();
+                assertArrayEquals(batch, second.sampleBatch());
+                for (int i : batch) {
+                    histogram[i]++;
+                }
+            }
+            if (!withReplacement) {
+                // 20 batches of 7 cover the 20 examples exactly 7 times.
+                for (int count : histogram) {
+                    assertEquals(7, count);
+                }
+            }
+            assertEquals(expectedNext, Prng.nextLong());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBufferOfWrongLength() {
+        new BatchSampler(false, 20, 7).sampleBatch(new int[6]);
+    }
+    
+    @Test
+    public void testImportanceFrequencies() {
+        double[] weights = new double[] { 1, 0, 2, 3, 14 };
+        BatchSampler samp = new BatchSampler(false, weights.length, 10);
+        samp.setImportanceWeights(weights, 0.0);
+        int trials = 20000;
+        int[] histogram = new int[weights.length];
+        int[] batch = new int[10];
+        for (int trial=0; trial<trials; trial++) {
+            for (int i : samp.sampleBatch(batch)) {
+                histogram[i]++;
+            }
+        }
+        System.out.println(Arrays.toString(histogram));
+        for (int i=0; i<weights.length; i++) {
+            assertEquals(weights[i] / 20, samp.getProbability(i), 1e-13);
+            assertEquals(weights[i] / 20, (double) histogram[i] / trials / batch.length, 5e-3);
+        }
+        assertEquals(0, histogram[1]);
+    }
+
+    @Test
+    public void testImportanceMultipliersAreUnbiased() {
+        double[] weights = new double[] { 1, 0, 2, 3, 14 };
+        double[] values = new double[] { 5, -1, 2, 7, 0.5 };
+        BatchSampler samp = new BatchSampler(false, weights.length, 1);
+        samp.setImportanceWeights(weights, 0.2);
+        // The expected reweighted value of a draw is the average value.
+        double expected = 0;
+        double sumProb = 0;
+        for (int i=0; i<weights.length; i++) {
+            expected += samp.getProbability(i) * samp.getMultiplier(i) * values[i];
+            sumProb += samp.getProbability(i);
+            // The uniform mix bounds the multipliers.
+            assertTrue(samp.getMultiplier(i) <= 1.0 / 0.2 + 1e-13);
+        }
+        assertEquals(1.0, sumProb, 1e-13);
+        assertEquals(13.5 / weights.length, expected, 1e-13);
+    }
+
+    @Test
+    public void testImportanceRebuildIsAmortized() {
+        int numExamples = 4;
+        BatchSampler samp = new BatchSampler(false, numExamples, 1);
+        // With no known weights, sampling is uniform.
+        samp.setImportanceWeights(null, 0.0);
+        assertEquals(0.25, samp.getProbability(0), 1e-13);
+        for (int i=0; i<numExamples-1; i++) {
+            samp.updateWeight(i, i + 1);
+        }
+        samp.sampleBatch();
+        // Fewer updates than examples leave the table as it was.
+        assertEquals(0.25, samp.getProbability(0), 1e-13);
+        samp.updateWeight(0, 2.0);
+        assertEquals(0.25, samp.getProbability(0), 1e-13);
+        samp.sampleBatch();
+        // The last example's weight is still unknown, so it gets the mean of the others.
+        // The weights are { 2, 2, 3, 7/3 }, which sum to 28/3.
+        assertEquals(6.0 / 28, samp.getProbability(0), 1e-13);
+        assertEquals(7.0 / 28, samp.getProbability(3), 1e-13);
+        // Uniform sampling has no reweighting.
+        assertEquals(1.0, new BatchSampler(true, numExamples, 1).getMultiplier(0), 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeImportanceWeight() {
+        BatchSampler samp = new BatchSampler(false, 3, 1);
+        samp.setImportanceWeights(null, 0.1);
+        samp.updateWeight(1, -1.0);
+    }
+    
     private void testSampling(boolean withReplacement, int batchSize, int numExamples, int trials) {
         int[] histogram = new int[numExamples];
         
@@ -0,0 +1,182 @@
+package edu.jhu.hlt.optimize;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import edu.jhu.hlt.optimize.AdaDelta.AdaDeltaPrm;
+import edu.jhu.hlt.optimize.AdaGrad.AdaGradPrm;
+import edu.jhu.hlt.optimize.BottouSchedule.BottouSchedulePrm;
+import edu.jhu.hlt.optimize.RMSProp.RMSPropPrm;
+import edu.jhu.hlt.optimize.StepSchedule.StepSchedulePrm;
+import edu.jhu.hlt.optimize.WarmupSchedule.WarmupSchedulePrm;
+import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
+import edu.jhu.hlt.optimize.function.SparseSumSquaresBatchFunction;
+import edu.jhu.hlt.optimize.state.StateStorage;
+import edu.jhu.hlt.util.Threads;
+import edu.jhu.prim.vector.IntDoubleUnsortedVector;
+import edu.jhu.prim.vector.IntDoubleVector;
+import edu.jhu.util.Timer;
+
+public class ConcurrentGainScheduleTest {
+
+    private static final Logger log = Logger.getLogger(ConcurrentGainScheduleTest.class);
+
+    private static final int NUM_DIMS = 8;
+    private static final DifferentiableBatchFunction f = new SparseSumSquaresBatchFunction(new double[1], NUM_DIMS);
+
+    @Test
+    public void testAtomicAdaGradLosesNoUpdates() {
+        int numThreads = 4;
+        int numGrads = 20000;
+        AdaGradPrm prm = new AdaGradPrm();
+        prm.storage = StateStorage.ATOMIC;
+        AdaGrad sched = new AdaGrad(prm);
+        sched.init(f);
+        noteGradients(sched, numThreads, numGrads);
+        // Every gradient is 1.0 on every parameter, so the sums are exact.
+        double expected = prm.eta / Math.sqrt(prm.constantAddend + numThreads * numGrads);
+        for (int i=0; i<NUM_DIMS; i++) {
+            assertEquals(expected, sched.getLearningRate(0, i), 0.0);
+        }
+    }
+
+    @Test
+    public void testStripedAdaDeltaMatchesSerial() {
+        AdaDeltaPrm prm = new AdaDeltaPrm();
+        prm.numLockStripes = 4;
+        prm.storage = StateStorage.DOUBLE;
+        AdaDelta locked = new AdaDelta(prm);
+        AdaDelta unlocked = new AdaDelta(new AdaDeltaPrm());
+        locked.init(f);
+        unlocked.init(f);
+        for (int t=0; t<50; t++) {
+            IntDoubleVector g = new IntDoubleUnsortedVector();
+            g.add(t % NUM_DIMS, t % 3 - 1.0);
+            g.add((t * 5) % NUM_DIMS, 0.5);
+            locked.takeNoteOfGradient(g);
+            unlocked.takeNoteOfGradient(g);
+            for (int i=0; i<NUM_DIMS; i++) {
+                assertEquals(unlocked.getLearningRate(t, i), locked.getLearningRate(t, i), 0.0);
+            }
+        }
+        
+        // All the threads' steps are counted, and the rates stay well defined.
+        noteGradients(locked, 4, 5000);
+        for (int i=0; i<NUM_DIMS; i++) {
+            double lr = locked.getLearningRate(0, i);
+            assertTrue(lr > 0 && !Double.isInfinite(lr));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testStripedAdaDeltaRequiresCachedRates() {
+        AdaDeltaPrm prm = new AdaDeltaPrm();
+        prm.numLockStripes = 4;
+        prm.cacheLearningRates = false;
+        new AdaDelta(prm);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testStripedAdaDeltaRequiresIndependentEntries() {
+        AdaDeltaPrm prm = new AdaDeltaPrm();
+        prm.numLockStripes = 4;
+        prm.storage = StateStorage.COPY_ON_WRITE;
+        new AdaDelta(prm);
+    }
+
+    /**
+     * Logs the cost of sharing a schedule, as the time per gradient for a
+     * single thread and for several threads updating the same parameters.
+     */
+    @Test
+    public void testThreadSafetyOfSchedules() {
+        AdaDeltaPrm striped = new AdaDeltaPrm();
+        striped.storage = StateStorage.DOUBLE;
+        striped.numLockStripes = 16;
+        assertTrue(new AdaDelta(striped).isThreadSafe());
+        AdaDeltaPrm relaxed = new AdaDeltaPrm();
+        relaxed.storage = StateStorage.DOUBLE;
+        assertFalse(new AdaDelta(relaxed).isThreadSafe());
+        assertTrue(new AdaDelta(relaxed).allowsRelaxedWrites());
+        relaxed.cacheLearningRates = false;
+        assertFalse(new AdaDelta(relaxed).allowsRelaxedWrites());
+
+        RMSPropPrm rmsProp = new RMSPropPrm();
+        rmsProp.storage = StateStorage.ATOMIC;
+        assertFalse(new RMSProp(rmsProp).isThreadSafe());
+        assertTrue(new RMSProp(rmsProp).allowsRelaxedWrites());
+        rmsProp.storage = StateStorage.SPARSE;
+        assertFalse(new RMSProp(rmsProp).allowsRelaxedWrites());
+
+        // Wrappers are as safe as the schedule they wrap.
+        AdaGradPrm atomic = new AdaGradPrm();
+        atomic.storage = StateStorage.ATOMIC;
+        assertTrue(new StepSchedule(new AdaGrad(atomic), new StepSchedulePrm()).isThreadSafe());
+        assertTrue(new WarmupSchedule(new BottouSchedule(new BottouSchedulePrm()), new WarmupSchedulePrm()).isThreadSafe());
+    }
+
+    @Test
+    public void testContentionCost() {
+        AdaGradPrm relaxed = new AdaGradPrm();
+        relaxed.storage = StateStorage.DOUBLE;
+        AdaGradPrm atomic = new AdaGradPrm();
+        atomic.storage = StateStorage.ATOMIC;
+        AdaDeltaPrm relaxedDelta = new AdaDeltaPrm();
+        relaxedDelta.storage = StateStorage.DOUBLE;
+        AdaDeltaPrm striped = new AdaDeltaPrm();
+        striped.storage = StateStorage.DOUBLE;
+        striped.numLockStripes = 64;
+        GainSchedule[] scheds = new GainSchedule[] { new AdaGrad(relaxed), new AdaGrad(atomic),
+                new AdaDelta(relaxedDelta), new AdaDelta(striped) };
+        String[] names = new String[] { "AdaGrad (relaxed)", "AdaGrad (atomic)", "AdaDelta (relaxed)", "AdaDelta (striped)" };
+        int numGrads = 20000;
+        for (int s=0; s<scheds.length; s++) {
+            for (int numThreads : new int[] { 1, 4 }) {
+                scheds[s].init(f);
+                Timer timer = new Timer();
+                timer.start();
+                noteGradients(scheds[s], numThreads, numGrads);
+                timer.stop();
+                log.info(String.format("%s with %d threads: %.1f ns per gradient", names[s], numThreads,
+                        timer.totMs() * 1e6 / (numThreads * numGrads)));
+            }
+        }
+    }
+
+    /** Notes a gradient of all ones, the given number of times on each of several threads. */
+    private static void noteGradients(final GainSchedule sched, int numThreads, final int numGrads) {
+        ExecutorService pool = Threads.newDaemonThreadPool(numThreads, "sched-test");
+        try {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int w=0; w<numThreads; w++) {
+                futures.add(pool.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        IntDoubleVector g = new IntDoubleUnsortedVector();
+                        for (int i=0; i<NUM_DIMS; i++) {
+                            g.add(i, 1.0);
+                        }
+                        for (int t=0; t<numGrads; t++) {
+                            sched.takeNoteOfGradient(g);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            Threads.getAll(futures);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+}
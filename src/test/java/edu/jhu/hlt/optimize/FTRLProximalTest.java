@@ -0,0 +1,80 @@
+package edu.jhu.hlt.optimize;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import edu.jhu.hlt.optimize.FTRLProximal.FTRLProximalPrm;
+import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
+import edu.jhu.hlt.optimize.function.SumSquaresBatchFunction;
+import edu.jhu.hlt.optimize.state.StateStorage;
+import edu.jhu.hlt.util.JUnitUtils;
+import edu.jhu.prim.vector.IntDoubleDenseVector;
+import edu.jhu.util.Prng;
+
+public class FTRLProximalTest extends AbstractBatchOptimizerTest {
+
+    @Override
+    protected Optimizer<DifferentiableBatchFunction> getOptimizer() {
+        FTRLProximalPrm prm = new FTRLProximalPrm(10, 0.0, 0.0, 100);
+        return new FTRLProximal(prm);
+    }
+
+    /** Examples whose first coordinate is far from zero and whose others are near zero. */
+    private static SumSquaresBatchFunction getFunction() {
+        Prng.seed(12345);
+        double[][] centers = new double[100][4];
+        for (int i=0; i<centers.length; i++) {
+            centers[i][0] = 3 + Prng.nextDouble() - 0.5;
+            for (int j=1; j<centers[i].length; j++) {
+                centers[i][j] = 0.01 * (Prng.nextDouble() - 0.5);
+            }
+        }
+        return new SumSquaresBatchFunction(centers);
+    }
+
+    @Test
+    public void testL1GivesExactZeros() {
+        SumSquaresBatchFunction f = getFunction();
+        Prng.seed(1);
+        double[] point = new double[4];
+        new FTRLProximal(new FTRLProximalPrm(0.5, 5.0, 0.0, 5)).minimize(f, new IntDoubleDenseVector(point));
+        assertTrue(Math.abs(point[0] - 3) < 0.1);
+        for (int j=1; j<point.length; j++) {
+            assertEquals(0.0, point[j], 0.0);
+        }
+
+        // Without the L1 penalty, the small coordinates are nonzero.
+        Prng.seed(1);
+        point = new double[4];
+        new FTRLProximal(new FTRLProximalPrm(0.5, 0.0, 0.0, 5)).minimize(f, new IntDoubleDenseVector(point));
+        for (int j=1; j<point.length; j++) {
+            assertTrue(point[j] != 0.0);
+        }
+    }
+
+    @Test
+    public void testWarmStartAndStorage() {
+        SumSquaresBatchFunction f = getFunction();
+        double[] expected = null;
+        for (StateStorage storage : new StateStorage[]{ StateStorage.DOUBLE, StateStorage.SPARSE }) {
+            FTRLProximalPrm prm = new FTRLProximalPrm(1.0, 0.0, 0.1, 0);
+            prm.storage = storage;
+            // With no steps, the point is unchanged.
+            double[] point = new double[] { 2.0, -1.0, 0.0, 0.5 };
+            new FTRLProximal(prm).minimize(f, new IntDoubleDenseVector(point));
+            JUnitUtils.assertArrayEquals(new double[] { 2.0, -1.0, 0.0, 0.5 }, point, 1e-13);
+
+            prm.numPasses = 3;
+            Prng.seed(1);
+            new FTRLProximal(prm).minimize(f, new IntDoubleDenseVector(point));
+            if (expected == null) {
+                expected = point;
+            } else {
+                JUnitUtils.assertArrayEquals(expected, point, 0.0);
+            }
+        }
+    }
+
+}
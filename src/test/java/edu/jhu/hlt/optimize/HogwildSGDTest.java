@@ -0,0 +1,178 @@
+package edu.jhu.hlt.optimize;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import edu.jhu.hlt.optimize.AdaGrad.AdaGradPrm;
+import edu.jhu.hlt.optimize.HogwildSGD.HogwildSGDPrm;
+import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
+import edu.jhu.hlt.optimize.function.NonstationaryFunction;
+import edu.jhu.hlt.optimize.function.SparseSumSquaresBatchFunction;
+import edu.jhu.hlt.optimize.functions.SumSquares;
+import edu.jhu.hlt.optimize.state.StateStorage;
+import edu.jhu.hlt.util.JUnitUtils;
+import edu.jhu.hlt.util.math.Vectors;
+import edu.jhu.prim.vector.IntDoubleDenseVector;
+
+public class HogwildSGDTest extends AbstractBatchOptimizerTest {
+
+    private static final Logger log = Logger.getLogger(HogwildSGDTest.class);
+
+    @Override
+    protected Optimizer<DifferentiableBatchFunction> getOptimizer() {
+        // A single worker behaves exactly like serial SGD.
+        HogwildSGDPrm prm = new HogwildSGDPrm();
+        prm.sched.setEta0(0.1 * 10);
+        prm.numPasses = 100;
+        prm.batchSize = 1;
+        prm.numThreads = 1;
+        return new HogwildSGD(prm);
+    }
+
+    @Test
+    public void testMultipleThreads() {
+        for (int numThreads : new int[]{ 1, 2, 4 }) {
+            HogwildSGDPrm prm = new HogwildSGDPrm();
+            prm.sched.setEta0(0.1);
+            prm.numPasses = 1000;
+            prm.batchSize = 1;
+            prm.numThreads = numThreads;
+            HogwildSGD opt = new HogwildSGD(prm);
+
+            double[] initial = new double[] { 9, 2, -7};
+            double[] offsets = new double[] { 3, -5, 11};
+            opt.maximize(negate(bf(new SumSquares(offsets))), new IntDoubleDenseVector(initial));
+            double[] max = initial;
+            Vectors.scale(offsets, -1.0);
+            JUnitUtils.assertArrayEquals(offsets, max, 1e-3);
+        }
+    }
+
+    /** A sparse function which checks that its iteration hook is never called concurrently or out of order. */
+    private static class CheckedNonstationaryFunction extends SparseSumSquaresBatchFunction implements NonstationaryFunction {
+        final AtomicBoolean inHook = new AtomicBoolean(false);
+        volatile int lastIter = -1;
+        volatile boolean failed = false;
+        public CheckedNonstationaryFunction(double[] centers, int numDims) {
+            super(centers, numDims);
+        }
+        @Override
+        public void updatateIterAndMax(int curIter, int maxIter) {
+            if (!inHook.compareAndSet(false, true)) {
+                failed = true;
+            }
+            if (curIter <= lastIter || curIter >= maxIter) {
+                failed = true;
+            }
+            lastIter = curIter;
+            Thread.yield();
+            inHook.set(false);
+        }
+    }
+
+    @Test
+    public void testNonstationaryHookIsSerialized() {
+        int numDims = 50;
+        double[] centers = new double[1000];
+        for (int i=0; i<centers.length; i++) {
+            centers[i] = i % 7;
+        }
+        CheckedNonstationaryFunction f = new CheckedNonstationaryFunction(centers, numDims);
+        HogwildSGDPrm prm = new HogwildSGDPrm();
+        prm.sched.setEta0(0.1);
+        prm.numPasses = 20;
+        prm.batchSize = 1;
+        prm.numThreads = 4;
+        new HogwildSGD(prm).minimize(f, new IntDoubleDenseVector(new double[numDims]));
+        assertFalse(f.failed);
+        assertTrue(f.lastIter >= 0);
+    }
+
+    /**
+     * Measures how the throughput scales with the number of threads on a
+     * sparse function. The timings are machine dependent, so they are only
+     * reported.
+     */
+    @Test
+    public void testThroughputScaling() {
+        int numDims = 10000;
+        double[] centers = new double[100000];
+        for (int i=0; i<centers.length; i++) {
+            centers[i] = i % 13;
+        }
+        DifferentiableBatchFunction f = new SparseSumSquaresBatchFunction(centers, numDims);
+        int[] threadCounts = new int[] { 1, 2, 4 };
+        double[] examplesPerSec = new double[threadCounts.length];
+        for (int t=0; t<threadCounts.length; t++) {
+            HogwildSGDPrm prm = new HogwildSGDPrm();
+            prm.sched.setEta0(0.1);
+            prm.numPasses = 5;
+            prm.batchSize = 10;
+            prm.numThreads = threadCounts[t];
+            prm.computeInitialValue = false;
+            HogwildSGD opt = new HogwildSGD(prm);
+            opt.minimize(f, new IntDoubleDenseVector(new double[numDims]));
+            examplesPerSec[t] = opt.getExamplesPerSec();
+            assertTrue(examplesPerSec[t] > 0);
+        }
+        for (int t=0; t<threadCounts.length; t++) {
+            log.info(String.format("Hogwild with %d threads: %.3g examples/sec, speedup %.2fx over 1 thread",
+                    threadCounts[t], examplesPerSec[t], examplesPerSec[t] / examplesPerSec[0]));
+        }
+    }
+
+    private static HogwildSGDPrm getAdaGradPrm(StateStorage storage, boolean relaxed) {
+        AdaGradPrm sched = new AdaGradPrm();
+        sched.eta = 1.0;
+        sched.storage = storage;
+        HogwildSGDPrm prm = new HogwildSGDPrm();
+        prm.sched = new AdaGrad(sched);
+        prm.numPasses = 100;
+        prm.batchSize = 1;
+        prm.numThreads = 2;
+        prm.relaxedScheduleWrites = relaxed;
+        return prm;
+    }
+
+    @Test
+    public void testScheduleThreadSafety() {
+        // Thread-safe schedules need no flag.
+        assertTrue(runAdaGrad(getAdaGradPrm(StateStorage.ATOMIC, false)));
+        // Relaxed writes must be asked for.
+        assertFalse(runAdaGrad(getAdaGradPrm(StateStorage.DOUBLE, false)));
+        assertTrue(runAdaGrad(getAdaGradPrm(StateStorage.DOUBLE, true)));
+        // Storage whose writes restructure the state is never allowed.
+        assertFalse(runAdaGrad(getAdaGradPrm(StateStorage.SPARSE, true)));
+        assertFalse(runAdaGrad(getAdaGradPrm(StateStorage.COPY_ON_WRITE, true)));
+        // A single worker may use any schedule.
+        HogwildSGDPrm prm = getAdaGradPrm(StateStorage.COPY_ON_WRITE, false);
+        prm.numThreads = 1;
+        assertTrue(runAdaGrad(prm));
+    }
+
+    /** Runs Hogwild with the given options, returning false if they are rejected. */
+    private boolean runAdaGrad(HogwildSGDPrm prm) {
+        double[] initial = new double[] { 9, 2, -7};
+        double[] offsets = new double[] { 3, -5, 11};
+        try {
+            new HogwildSGD(prm).minimize(bf(new SumSquares(offsets)), new IntDoubleDenseVector(initial));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        Vectors.scale(offsets, -1.0);
+        JUnitUtils.assertArrayEquals(offsets, initial, 1e-1);
+        return true;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRequiresDensePoint() {
+        HogwildSGD opt = (HogwildSGD) getOptimizer();
+        opt.minimize(bf(new SumSquares(3)), new IntDoubleDenseVector(1));
+    }
+
+}
@@ -0,0 +1,61 @@
+package edu.jhu.hlt.optimize;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import edu.jhu.hlt.optimize.BottouSchedule.BottouSchedulePrm;
+import edu.jhu.hlt.optimize.WarmupSchedule.WarmupSchedulePrm;
+import edu.jhu.prim.vector.IntDoubleDenseVector;
+import edu.jhu.prim.vector.IntDoubleVector;
+
+public class LazyRegularizerTest {
+
+    @Test
+    public void testCumulativeL1Penalty() {
+        LazyRegularizer reg = new LazyRegularizer(1.0, 0.0, 1);
+        IntDoubleVector point = new IntDoubleDenseVector(new double[] { 0.5 });
+        // The penalty of 1.0 is clipped at zero after shrinking by only 0.5.
+        reg.catchUp(point, 0, 1, 1.0);
+        assertEquals(0.0, point.get(0), 0.0);
+        // The unapplied 0.5 carries over, so a step to 1.2 is shrunk by 1.5, not 1.0.
+        point.set(0, 1.2);
+        reg.catchUp(point, 0, 2, 1.0);
+        assertEquals(0.0, point.get(0), 0.0);
+        // Only the new penalty of 1.0 plus the 0.3 left over is owed next.
+        point.set(0, 2.0);
+        reg.catchUp(point, 0, 3, 1.0);
+        assertEquals(0.7, point.get(0), 1e-13);
+    }
+
+    @Test
+    public void testCatchUpMissedIterations() {
+        LazyRegularizer reg = new LazyRegularizer(0.1, 0.0, 2);
+        IntDoubleVector point = new IntDoubleDenseVector(new double[] { 3.0, -3.0 });
+        reg.catchUp(point, 0, 5, 1.0);
+        reg.catchUp(point, 1, 5, 1.0);
+        assertEquals(2.5, point.get(0), 1e-13);
+        assertEquals(-2.5, point.get(1), 1e-13);
+    }
+
+    @Test
+    public void testUniformRatesUseEachIterationsRate() {
+        BottouSchedulePrm constant = new BottouSchedulePrm();
+        constant.initialLr = 0.4;
+        constant.lambda = 0.0;
+        WarmupSchedulePrm warmup = new WarmupSchedulePrm();
+        warmup.numWarmupIters = 4;
+        GainSchedule sched = new WarmupSchedule(new BottouSchedule(constant), warmup);
+        LazyRegularizer reg = new LazyRegularizer(0.0, 0.5, 1, true);
+        IntDoubleVector point = new IntDoubleDenseVector(new double[] { 2.0 });
+        // The rate on iteration t is 0.1 (t + 1).
+        double expected = 2.0;
+        for (int t=0; t<4; t++) {
+            reg.advance(t, sched);
+            expected *= 1.0 - 0.1 * (t + 1) * 0.5;
+        }
+        reg.catchUp(point, 0, 4, 0.4);
+        assertEquals(expected, point.get(0), 1e-13);
+    }
+
+}
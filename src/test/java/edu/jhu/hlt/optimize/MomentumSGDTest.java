@@ -0,0 +1,203 @@
+package edu.jhu.hlt.optimize;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import edu.jhu.hlt.optimize.BottouSchedule.BottouSchedulePrm;
+import edu.jhu.hlt.optimize.MomentumSGD.MomentumSGDPrm;
+import edu.jhu.hlt.optimize.function.AbstractDifferentiableBatchFunction;
+import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
+import edu.jhu.hlt.optimize.function.SparseSumSquaresBatchFunction;
+import edu.jhu.hlt.optimize.function.ValueGradient;
+import edu.jhu.hlt.optimize.functions.SumSquares;
+import edu.jhu.hlt.util.JUnitUtils;
+import edu.jhu.prim.vector.IntDoubleDenseVector;
+import edu.jhu.prim.vector.IntDoubleUnsortedVector;
+import edu.jhu.prim.vector.IntDoubleVector;
+import edu.jhu.util.Prng;
+
+public class MomentumSGDTest extends AbstractBatchOptimizerTest {
+
+    @Override
+    protected Optimizer<DifferentiableBatchFunction> getOptimizer() {
+        return new MomentumSGD(getConvergentPrm(false));
+    }
+
+    /** The linear function \sum_i c_i x_{i mod d}, each example of which has a constant one-hot gradient. */
+    private static class SparseLinear extends AbstractDifferentiableBatchFunction {
+
+        private double[] coefs;
+        private int numDims;
+
+        public SparseLinear(double[] coefs, int numDims) {
+            this.coefs = coefs;
+            this.numDims = numDims;
+        }
+
+        @Override
+        public double getValue(IntDoubleVector point, int[] batch) {
+            return getValueGradient(point, batch).getValue();
+        }
+
+        @Override
+        public IntDoubleVector getGradient(IntDoubleVector point, int[] batch) {
+            return getValueGradient(point, batch).getGradient();
+        }
+
+        @Override
+        public ValueGradient getValueGradient(IntDoubleVector point, int[] batch) {
+            double value = 0.0;
+            IntDoubleUnsortedVector gradient = new IntDoubleUnsortedVector();
+            for (int i : batch) {
+                value += coefs[i] * point.get(i % numDims);
+                gradient.add(i % numDims, coefs[i]);
+            }
+            return new ValueGradient(value, gradient);
+        }
+
+        @Override
+        public int getNumDimensions() {
+            return numDims;
+        }
+
+        @Override
+        public int getNumExamples() {
+            return coefs.length;
+        }
+
+    }
+
+    /** SGD with a dense velocity, updated on every coordinate at every iteration. */
+    private static class DenseMomentumSGD extends SGD {
+
+        private MomentumSGDPrm prm;
+        private double[] velocity;
+
+        public DenseMomentumSGD(MomentumSGDPrm prm, int numDims) {
+            super(prm);
+            this.prm = prm;
+            this.velocity = new double[numDims];
+        }
+
+        @Override
+        protected void takeStep(int iterCount, IntDoubleVector point, IntDoubleVector step) {
+            for (int i=0; i<velocity.length; i++) {
+                double s = step.get(i);
+                velocity[i] = prm.momentum * velocity[i] + s;
+                point.add(i, prm.nesterov ? prm.momentum * velocity[i] + s : velocity[i]);
+            }
+        }
+
+    }
+
+    @Test
+    public void testLazyEqualsDenseHeavyBall() {
+        testLazyEqualsDense(false);
+    }
+
+    @Test
+    public void testLazyEqualsDenseNesterov() {
+        testLazyEqualsDense(true);
+    }
+
+    private void testLazyEqualsDense(boolean nesterov) {
+        double[] coefs = new double[30];
+        for (int i=0; i<coefs.length; i++) {
+            coefs[i] = i % 4 - 1.5;
+        }
+        SparseLinear f = new SparseLinear(coefs, 10);
+
+        Prng.seed(42);
+        double[] actual = new double[10];
+        new MomentumSGD(getPrm(nesterov)).minimize(f, new IntDoubleDenseVector(actual));
+
+        Prng.seed(42);
+        double[] expected = new double[10];
+        new DenseMomentumSGD(getPrm(nesterov), 10).minimize(f, new IntDoubleDenseVector(expected));
+        JUnitUtils.assertArrayEquals(expected, actual, 1e-10);
+    }
+
+    @Test
+    public void testLazyVersusDenseHeavyBall() {
+        testLazyVersusDenseOnSparseSumSquares(false);
+    }
+
+    @Test
+    public void testLazyVersusDenseNesterov() {
+        testLazyVersusDenseOnSparseSumSquares(true);
+    }
+
+    /**
+     * The gradient of each example depends on its coordinate, so the lazy
+     * optimizer evaluates it at a stale point and the trajectories differ.
+     * Both should still reach the same minimum.
+     */
+    private void testLazyVersusDenseOnSparseSumSquares(boolean nesterov) {
+        int numDims = 10;
+        double[] centers = new double[100];
+        double[] mean = new double[numDims];
+        for (int i=0; i<centers.length; i++) {
+            centers[i] = i % 7 - 3;
+            mean[i % numDims] += centers[i] / (centers.length / numDims);
+        }
+        SparseSumSquaresBatchFunction f = new SparseSumSquaresBatchFunction(centers, numDims);
+
+        Prng.seed(42);
+        double[] lazy = new double[numDims];
+        new MomentumSGD(getConvergentPrm(nesterov)).minimize(f, new IntDoubleDenseVector(lazy));
+
+        Prng.seed(42);
+        double[] dense = new double[numDims];
+        new DenseMomentumSGD(getConvergentPrm(nesterov), numDims).minimize(f, new IntDoubleDenseVector(dense));
+
+        JUnitUtils.assertArrayEquals(mean, dense, 1e-1);
+        JUnitUtils.assertArrayEquals(mean, lazy, 1e-1);
+        // The objective at the minimum is large, so the two should be within a small fraction of each other.
+        double denseValue = f.getValue(new IntDoubleDenseVector(dense));
+        double lazyValue = f.getValue(new IntDoubleDenseVector(lazy));
+        assertEquals(denseValue, lazyValue, 1e-3 * denseValue);
+    }
+
+    private static MomentumSGDPrm getPrm(boolean nesterov) {
+        MomentumSGDPrm prm = new MomentumSGDPrm(0.1, 3, 2);
+        prm.momentum = 0.8;
+        prm.nesterov = nesterov;
+        prm.autoSelectLr = false;
+        return prm;
+    }
+
+    @Test
+    public void testNesterovSumSquares() {
+        MomentumSGDPrm prm = getConvergentPrm(true);
+        double[] initial = new double[] { 9, 2, -7};
+        double[] offsets = new double[] { 3, -5, 11};
+        new MomentumSGD(prm).minimize(bf(new SumSquares(offsets)), new IntDoubleDenseVector(initial));
+        JUnitUtils.assertArrayEquals(new double[] { -3, 5, -11 }, initial, 1e-10);
+    }
+
+    private static MomentumSGDPrm getConvergentPrm(boolean nesterov) {
+        BottouSchedulePrm sched = new BottouSchedulePrm();
+        sched.initialLr = 0.1;
+        sched.lambda = 0.01;
+        MomentumSGDPrm prm = new MomentumSGDPrm();
+        prm.sched = new BottouSchedule(sched);
+        prm.numPasses = 100;
+        prm.batchSize = 1;
+        prm.momentum = 0.5;
+        prm.nesterov = nesterov;
+        prm.autoSelectLr = false;
+        return prm;
+    }
+
+    @Test
+    public void testAutoSelectLr() {
+        MomentumSGDPrm prm = new MomentumSGDPrm(0.005, 7, 1);
+        prm.momentum = 0.5;
+        double[] initial = new double[] { 9, 2, -7};
+        double[] offsets = new double[] { 3, -5, 11};
+        new MomentumSGD(prm).minimize(bf(new SumSquares(offsets)), new IntDoubleDenseVector(initial));
+        JUnitUtils.assertArrayEquals(new double[] { -3, 5, -11 }, initial, 1e-1);
+    }
+
+}
@@ -0,0 +1,119 @@
+package edu.jhu.hlt.optimize;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import edu.jhu.hlt.optimize.RMSProp.RMSPropPrm;
+import edu.jhu.hlt.optimize.SGD.SGDPrm;
+import edu.jhu.hlt.optimize.StepSchedule.StepSchedulePrm;
+import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
+import edu.jhu.hlt.optimize.function.SparseSumSquaresBatchFunction;
+import edu.jhu.hlt.optimize.state.StateStorage;
+import edu.jhu.prim.vector.IntDoubleDenseVector;
+import edu.jhu.prim.vector.IntDoubleUnsortedVector;
+import edu.jhu.prim.vector.IntDoubleVector;
+
+public class RMSPropTest extends AbstractBatchOptimizerTest {
+
+    @Override
+    protected Optimizer<DifferentiableBatchFunction> getOptimizer() {
+        RMSPropPrm sched = new RMSPropPrm();
+        sched.eta = 1.0;
+        // With a constant rate, RMSProp's nearly sign-like steps oscillate
+        // about the optimum, so decay the rate to converge.
+        StepSchedulePrm step = new StepSchedulePrm();
+        step.stepSize = 30;
+        step.decay = 0.5;
+        
+        SGDPrm prm = new SGDPrm();
+        prm.sched = new StepSchedule(new RMSProp(sched), step);
+        prm.numPasses = 100;        
+        prm.batchSize = 1;
+        prm.autoSelectLr = false;
+        return new SGD(prm);
+    }
+
+    @Test
+    public void testSgdAutoSelectLr() {
+        {
+            // Test with the initial learning rate too small
+            RMSPropPrm sched = new RMSPropPrm();
+            sched.eta = 0.05;
+            SGDTest.runSgdAutoSelectLr(new RMSProp(sched));        
+        }
+        {
+            // Test with the initial learning rate too large
+            RMSPropPrm sched = new RMSPropPrm();
+            sched.eta = 10;
+            SGDTest.runSgdAutoSelectLr(new RMSProp(sched));  
+        }
+    }
+
+    @Test
+    public void testLearningRatesOfUntouchedParameters() {
+        int numDims = 3;
+        DifferentiableBatchFunction f = new SparseSumSquaresBatchFunction(new double[numDims], numDims);
+        for (StateStorage storage : new StateStorage[]{ StateStorage.DOUBLE, StateStorage.SPARSE }) {
+            RMSPropPrm prm = new RMSPropPrm();
+            prm.storage = storage;
+            RMSProp sparse = new RMSProp(prm);
+            RMSProp dense = new RMSProp(new RMSPropPrm());
+            sparse.init(f);
+            dense.init(f);
+            double[][] grads = new double[][] { {3, 0, 1}, {0, 0, -2}, {0, 0, 5}, {-1, 0, 2}, {0, 0, 0} };
+            for (int t=0; t<grads.length; t++) {
+                IntDoubleVector g = new IntDoubleUnsortedVector();
+                for (int i=0; i<numDims; i++) {
+                    if (grads[t][i] != 0) {
+                        g.add(i, grads[t][i]);
+                    }
+                }
+                sparse.takeNoteOfGradient(g);
+                dense.takeNoteOfGradient(new IntDoubleDenseVector(grads[t]));
+                for (int i=0; i<numDims; i++) {
+                    assertEquals(dense.getLearningRate(t, i), sparse.getLearningRate(t, i), 1e-13);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLearningRatesRecover() {
+        DifferentiableBatchFunction f = new SparseSumSquaresBatchFunction(new double[1], 1);
+        RMSPropPrm prm = new RMSPropPrm();
+        prm.eta = 1.0;
+        prm.decayRate = 0.5;
+        RMSProp sched = new RMSProp(prm);
+        sched.init(f);
+        IntDoubleVector g = new IntDoubleUnsortedVector();
+        g.add(0, 2.0);
+        sched.takeNoteOfGradient(g);
+        // v = 0.5 * 4
+        assertEquals(1.0 / Math.sqrt(2.0 + prm.constantAddend), sched.getLearningRate(0, 0), 1e-13);
+        for (int t=0; t<3; t++) {
+            sched.takeNoteOfGradient(new IntDoubleUnsortedVector());
+        }
+        // Unlike AdaGrad, the rate grows back once the gradients are small.
+        assertEquals(1.0 / Math.sqrt(2.0 / 8 + prm.constantAddend), sched.getLearningRate(0, 0), 1e-13);
+    }
+
+    @Test
+    public void testCopyIsCheap() {
+        int numDims = 1000000;
+        RMSPropPrm prm = new RMSPropPrm();
+        prm.storage = StateStorage.COPY_ON_WRITE;
+        RMSProp sched = new RMSProp(prm);
+        sched.init(new SparseSumSquaresBatchFunction(new double[1], numDims));
+        IntDoubleVector g = new IntDoubleUnsortedVector();
+        g.add(3, 2.0);
+        sched.takeNoteOfGradient(g);
+        RMSProp copy = (RMSProp) sched.copy();
+        // Neither the accumulators nor the step counters are duplicated.
+        assertTrue(copy.getStateBytes() < 12L * numDims / 100);
+        copy.takeNoteOfGradient(g);
+        assertTrue(copy.getLearningRate(1, 3) < sched.getLearningRate(1, 3));
+    }
+
+}
@@ -0,0 +1,205 @@
+package edu.jhu.hlt.optimize;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import edu.jhu.hlt.optimize.SAGA.SAGAPrm;
+import edu.jhu.hlt.optimize.function.AbstractLinearBatchFunction;
+import edu.jhu.hlt.util.JUnitUtils;
+import edu.jhu.prim.vector.IntDoubleDenseVector;
+import edu.jhu.prim.vector.IntDoubleUnsortedVector;
+import edu.jhu.prim.vector.IntDoubleVector;
+import edu.jhu.util.Prng;
+
+public class SAGATest {
+
+    /** Least squares, \sum_i \frac{1}{2} (x \cdot a_i - y_i)^2, with sparse features. */
+    static class LeastSquares extends AbstractLinearBatchFunction {
+
+        private IntDoubleVector[] features;
+        private double[] labels;
+        private int numDims;
+
+        public LeastSquares(IntDoubleVector[] features, double[] labels, int numDims) {
+            this.features = features;
+            this.labels = labels;
+            this.numDims = numDims;
+        }
+
+        @Override
+        public IntDoubleVector getFeatures(int i) {
+            return features[i];
+        }
+
+        @Override
+        public double getLoss(int i, double margin) {
+            double diff = margin - labels[i];
+            return 0.5 * diff * diff;
+        }
+
+        @Override
+        public double getLossDerivative(int i, double margin) {
+            return margin - labels[i];
+        }
+
+        @Override
+        public int getNumDimensions() {
+            return numDims;
+        }
+
+        @Override
+        public int getNumExamples() {
+            return features.length;
+        }
+
+    }
+
+    /** Logistic regression, \sum_i \log(1 + e^{-y_i x \cdot a_i}), with labels in {-1, 1}. */
+    static class Logistic extends AbstractLinearBatchFunction {
+
+        private IntDoubleVector[] features;
+        private double[] labels;
+        private int numDims;
+
+        public Logistic(IntDoubleVector[] features, double[] labels, int numDims) {
+            this.features = features;
+            this.labels = labels;
+            this.numDims = numDims;
+        }
+
+        @Override
+        public IntDoubleVector getFeatures(int i) {
+            return features[i];
+        }
+
+        @Override
+        public double getLoss(int i, double margin) {
+            return Math.log1p(Math.exp(-labels[i] * margin));
+        }
+
+        @Override
+        public double getLossDerivative(int i, double margin) {
+            return -labels[i] / (1.0 + Math.exp(labels[i] * margin));
+        }
+
+        @Override
+        public int getNumDimensions() {
+            return numDims;
+        }
+
+        @Override
+        public int getNumExamples() {
+            return features.length;
+        }
+
+        /** Gets the gradient of the average loss plus \frac{\lambda}{2} ||x||_2^2. */
+        public double[] getRegularizedGradient(double[] point, double lambda) {
+            double[] grad = new double[numDims];
+            for (int i=0; i<features.length; i++) {
+                double deriv = getLossDerivative(i, features[i].dot(new IntDoubleDenseVector(point)));
+                for (int j=0; j<numDims; j++) {
+                    grad[j] += deriv * features[i].get(j) / features.length;
+                }
+            }
+            for (int j=0; j<numDims; j++) {
+                grad[j] += lambda * point[j];
+            }
+            return grad;
+        }
+
+    }
+
+    /**
+     * Gets a consistent problem whose minimum (of zero) is at the given
+     * point. Each example has two of the features.
+     */
+    static LeastSquares getFunction(double[] opt) {
+        Prng.seed(12345);
+        int numExamples = 200;
+        IntDoubleVector[] features = new IntDoubleVector[numExamples];
+        double[] labels = new double[numExamples];
+        for (int i=0; i<numExamples; i++) {
+            features[i] = new IntDoubleUnsortedVector();
+            int j = i % opt.length;
+            int k = (i / opt.length + j + 1) % opt.length;
+            features[i].add(j, Prng.nextDouble() + 0.5);
+            if (k != j) {
+                features[i].add(k, Prng.nextDouble() - 0.5);
+            }
+            labels[i] = features[i].dot(new IntDoubleDenseVector(opt));
+        }
+        return new LeastSquares(features, labels, opt.length);
+    }
+
+    @Test
+    public void testMinimize() {
+        double[] opt = new double[] { 3, -5, 11, 0, 1, -2, 7, 4 };
+        LeastSquares f = getFunction(opt);
+        double[] point = new double[opt.length];
+        new SAGA(new SAGAPrm(0.2, 60)).minimize(f, new IntDoubleDenseVector(point));
+        JUnitUtils.assertArrayEquals(opt, point, 1e-6);
+        assertEquals(0.0, f.getValue(new IntDoubleDenseVector(point)), 1e-10);
+    }
+
+    /**
+     * Gets a separable logistic regression problem, which only has a
+     * minimum once regularized. Each example has two of the features.
+     */
+    static Logistic getLogistic(int numExamples, int numDims) {
+        Prng.seed(12345);
+        IntDoubleVector[] features = new IntDoubleVector[numExamples];
+        double[] labels = new double[numExamples];
+        for (int i=0; i<numExamples; i++) {
+            features[i] = new IntDoubleUnsortedVector();
+            int j = i % numDims;
+            int k = (i / numDims + j + 1) % numDims;
+            features[i].add(j, Prng.nextDouble() + 0.5);
+            if (k != j) {
+                features[i].add(k, Prng.nextDouble() - 0.5);
+            }
+            labels[i] = (j % 2 == 0) ? 1 : -1;
+        }
+        return new Logistic(features, labels, numDims);
+    }
+
+    @Test
+    public void testRegularizedLogisticConvergesLinearly() {
+        Logistic f = getLogistic(200, 8);
+        double lambda = 0.1;
+        double[] gradNorms = new double[3];
+        for (int k=0; k<gradNorms.length; k++) {
+            Prng.seed(42);
+            SAGAPrm prm = new SAGAPrm(0.5, 10 * (k + 1));
+            prm.l2Lambda = lambda;
+            prm.computeValueOnNonFinalIter = false;
+            double[] point = new double[8];
+            new SAGA(prm).minimize(f, new IntDoubleDenseVector(point));
+            gradNorms[k] = new IntDoubleDenseVector(f.getRegularizedGradient(point, lambda)).getL2Norm();
+        }
+        // Each further 10 passes shrink the gradient by a similar, large factor.
+        assertTrue(gradNorms[1] < 1e-3 * gradNorms[0]);
+        assertTrue(gradNorms[2] < 1e-3 * gradNorms[1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsTooLargeL2() {
+        SAGAPrm prm = new SAGAPrm(0.5, 1);
+        prm.l2Lambda = 2.0;
+        new SAGA(prm).minimize(getLogistic(10, 2), new IntDoubleDenseVector(new double[2]));
+    }
+
+    @Test
+    public void testWithoutReplacement() {
+        double[] opt = new double[] { 1, 2, 3, 4, 5 };
+        LeastSquares f = getFunction(opt);
+        double[] point = new double[opt.length];
+        SAGAPrm prm = new SAGAPrm(0.2, 60);
+        prm.withReplacement = false;
+        prm.computeValueOnNonFinalIter = false;
+        new SAGA(prm).minimize(f, new IntDoubleDenseVector(point));
+        JUnitUtils.assertArrayEquals(opt, point, 1e-6);
+    }
+
+}
@@ -0,0 +1,64 @@
+package edu.jhu.hlt.optimize;
+
+import org.junit.Test;
+
+import edu.jhu.hlt.optimize.BottouSchedule.BottouSchedulePrm;
+import edu.jhu.hlt.optimize.SGD.SGDPrm;
+import edu.jhu.hlt.optimize.SGDQN.SGDQNPrm;
+import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
+import edu.jhu.hlt.optimize.functions.HeterogeneousL2;
+import edu.jhu.hlt.optimize.functions.SumSquares;
+import edu.jhu.hlt.util.JUnitUtils;
+import edu.jhu.prim.vector.IntDoubleDenseVector;
+
+public class SGDQNTest extends AbstractBatchOptimizerTest {
+
+    @Override
+    protected Optimizer<DifferentiableBatchFunction> getOptimizer() {
+        SGDQNPrm prm = new SGDQNPrm();
+        prm.lambda = 1.0;
+        prm.t0 = 1;
+        prm.numPasses = 100;
+        return new SGDQN(prm);
+    }
+
+    /** A badly scaled quadratic, whose curvature along each coordinate is 1 / variance. */
+    private static DifferentiableBatchFunction getBadlyScaled(double[] variances) {
+        return bf(new HeterogeneousL2(new double[] { 3, -5, 11 }, variances));
+    }
+
+    @Test
+    public void testScalesAreInverseCurvatures() {
+        double[] variances = new double[] { 1, 10, 100 };
+        SGDQNPrm prm = new SGDQNPrm();
+        prm.lambda = 0.01;
+        prm.t0 = 200;
+        prm.numPasses = 5;
+        SGDQN opt = new SGDQN(prm);
+        opt.maximize(getBadlyScaled(variances), new IntDoubleDenseVector(new double[3]));
+        // On a quadratic, every secant ratio is the inverse curvature.
+        JUnitUtils.assertArrayEquals(variances, opt.getScales(), 1e-10);
+
+        // The scales are bounded by the curvature bound.
+        prm.lambda = 0.1;
+        opt.maximize(getBadlyScaled(variances), new IntDoubleDenseVector(new double[3]));
+        JUnitUtils.assertArrayEquals(new double[] { 1, 10, 10 }, opt.getScales(), 1e-10);
+    }
+
+    @Test
+    public void testFirstStepsMatchBottouSchedule() {
+        // Before the first update of the scales, SGD-QN is SGD with the default schedule.
+        SGDQNPrm prm = new SGDQNPrm();
+        prm.numPasses = 0.1;
+        double[] qn = new double[] { 9, 2, -7 };
+        new SGDQN(prm).maximize(negate(bf(new SumSquares(3))), new IntDoubleDenseVector(qn));
+
+        SGDPrm sgdPrm = new SGDPrm();
+        sgdPrm.numPasses = 0.1;
+        sgdPrm.autoSelectLr = false;
+        double[] sgd = new double[] { 9, 2, -7 };
+        new SGD(sgdPrm).maximize(negate(bf(new SumSquares(3))), new IntDoubleDenseVector(sgd));
+        JUnitUtils.assertArrayEquals(sgd, qn, 1e-13);
+    }
+
+}
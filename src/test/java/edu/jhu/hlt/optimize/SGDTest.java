@@ -1,14 +1,38 @@
 package edu.jhu.hlt.optimize;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Test;
 
+import edu.jhu.hlt.optimize.AdaGrad.AdaGradPrm;
 import edu.jhu.hlt.optimize.BottouSchedule.BottouSchedulePrm;
+import edu.jhu.hlt.optimize.CyclicalSchedule.CyclicalSchedulePrm;
+import edu.jhu.hlt.optimize.SGD.PassValue;
 import edu.jhu.hlt.optimize.SGD.SGDPrm;
+import edu.jhu.hlt.optimize.WarmupSchedule.WarmupSchedulePrm;
 import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
+import edu.jhu.hlt.optimize.function.NonstationaryFunction;
+import edu.jhu.hlt.optimize.function.SparseLinearBatchFunction;
+import edu.jhu.hlt.optimize.function.SumSquaresBatchFunction;
 import edu.jhu.hlt.optimize.functions.SumSquares;
+import edu.jhu.hlt.optimize.state.StateStorage;
 import edu.jhu.hlt.util.JUnitUtils;
 import edu.jhu.hlt.util.math.Vectors;
 import edu.jhu.prim.vector.IntDoubleDenseVector;
+import edu.jhu.prim.vector.IntDoubleVector;
+import edu.jhu.util.Prng;
 
 public class SGDTest extends AbstractBatchOptimizerTest {
 
@@ -41,12 +65,36 @@ public class SGDTest extends AbstractBatchOptimizerTest {
         }
     }
 
+    @Test
+    public void testSgdAutoSelectLrParallel() {
+        {
+            // Test with the initial learning rate too small
+            BottouSchedulePrm sched = new BottouSchedulePrm();
+            sched.initialLr = 0.005;
+            sched.lambda = 0.1;
+            runSgdAutoSelectLr(new BottouSchedule(sched), 4);        
+        }
+
+        {
+            // Test with the initial learning rate too large
+            BottouSchedulePrm sched = new BottouSchedulePrm();
+            sched.initialLr = 10;
+            sched.lambda = 0.01;
+            runSgdAutoSelectLr(new BottouSchedule(sched), 4);        
+        }
+    }
+
     public static void runSgdAutoSelectLr(GainSchedule sched) {
+        runSgdAutoSelectLr(sched, 1);
+    }
+
+    public static void runSgdAutoSelectLr(GainSchedule sched, int autoSelectThreads) {
         SGDPrm prm = new SGDPrm();
         prm.sched = sched;
         prm.numPasses = 7;
         prm.batchSize = 1;
         prm.autoSelectLr = true;
+        prm.autoSelectThreads = autoSelectThreads;
         SGD opt = new SGD(prm);
         
         double[] initial = new double[] { 9, 2, -7};
@@ -57,4 +105,498 @@ public class SGDTest extends AbstractBatchOptimizerTest {
         JUnitUtils.assertArrayEquals(offsets, max, 1e-1);
     }
 
-}
\ No newline at end of file
+    /** Counts the calls to the iteration hook from the threads evaluating candidate learning rates. */
+    private static class CountingNonstationaryFunction extends SumSquaresBatchFunction implements NonstationaryFunction {
+        final AtomicInteger numConcurrentCalls = new AtomicInteger(0);
+        final AtomicInteger numCalls = new AtomicInteger(0);
+        public CountingNonstationaryFunction(double[][] centers) {
+            super(centers);
+        }
+        @Override
+        public void updatateIterAndMax(int curIter, int maxIter) {
+            numCalls.incrementAndGet();
+            if (Thread.currentThread().getName().startsWith("sgd-lr")) {
+                numConcurrentCalls.incrementAndGet();
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentAutoSelectSkipsIterHook() {
+        double[][] centers = new double[20][];
+        for (int i=0; i<centers.length; i++) {
+            centers[i] = new double[] { i % 3, -i % 5 };
+        }
+        for (int autoSelectThreads : new int[] { 1, 4 }) {
+            CountingNonstationaryFunction f = new CountingNonstationaryFunction(centers);
+            SGDPrm prm = getNoAutoSelectPrm(3);
+            prm.autoSelectLr = true;
+            prm.autoSelectThreads = autoSelectThreads;
+            new SGD(prm).minimize(f, new IntDoubleDenseVector(new double[2]));
+            assertTrue(f.numCalls.get() > 0);
+            assertEquals(0, f.numConcurrentCalls.get());
+        }
+    }
+
+    @Test
+    public void testConcurrentAutoSelectIsReproducible() {
+        double[][] centers = new double[20][];
+        for (int i=0; i<centers.length; i++) {
+            centers[i] = new double[] { i % 3, -i % 5 };
+        }
+        double[][] points = new double[2][];
+        long[] nextRandoms = new long[2];
+        for (int run=0; run<2; run++) {
+            Prng.seed(7);
+            SGDPrm prm = getNoAutoSelectPrm(3);
+            prm.withReplacement = true;
+            prm.autoSelectLr = true;
+            prm.autoSelectThreads = 4;
+            points[run] = new double[2];
+            new SGD(prm).minimize(new SumSquaresBatchFunction(centers), new IntDoubleDenseVector(points[run]));
+            nextRandoms[run] = Prng.nextLong();
+        }
+        assertArrayEquals(points[0], points[1], 0.0);
+        assertEquals(nextRandoms[0], nextRandoms[1]);
+    }
+
+    @Test
+    public void testImportanceSampling() {
+        // Most examples are already fit, and a few are far away.
+        double[][] centers = new double[20][];
+        for (int i=0; i<centers.length; i++) {
+            centers[i] = (i < 3) ? new double[] { 40.0 * (i + 1), -20.0 } : new double[] { 1.0, 1.0 };
+        }
+        // The reweighting keeps the gradient unbiased, so the minimum is still the mean of the centers.
+        double[] expected = new double[] { (240.0 + 17) / 20, (-60.0 + 17) / 20 };
+        double uniformError = 0;
+        double importanceError = 0;
+        for (int seed=0; seed<5; seed++) {
+            uniformError += getSampledSgdError(centers, expected, false, seed);
+            importanceError += getSampledSgdError(centers, expected, true, seed);
+        }
+        System.out.println("Uniform error: " + uniformError + " Importance error: " + importanceError);
+        assertTrue(importanceError / 5 < 1.0);
+        // Compared to uniform sampling, also with replacement, the gradient has lower variance.
+        assertTrue(importanceError < uniformError);
+    }
+
+    private static double getSampledSgdError(double[][] centers, double[] expected, boolean importanceSampling, int seed) {
+        SGDPrm prm = new SGDPrm();
+        prm.sched.setEta0(0.02);
+        prm.numPasses = 200;
+        prm.batchSize = 2;
+        prm.autoSelectLr = false;
+        prm.computeValueOnNonFinalIter = false;
+        prm.withReplacement = true;
+        prm.importanceSampling = importanceSampling;
+        Prng.seed(seed);
+        double[] point = new double[2];
+        new SGD(prm).minimize(new SumSquaresBatchFunction(centers), new IntDoubleDenseVector(point));
+        return Math.abs(point[0] - expected[0]) + Math.abs(point[1] - expected[1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testImportanceSamplingRequiresUniformMix() {
+        SGDPrm prm = getNoAutoSelectPrm(1);
+        prm.importanceSampling = true;
+        prm.importanceUniformMix = 0.0;
+        new SGD(prm);
+    }
+
+    @Test
+    public void testLazyL2() {
+        SGDPrm prm = new SGDPrm();
+        prm.sched.setEta0(0.1);
+        prm.numPasses = 100;
+        prm.batchSize = 1;
+        prm.autoSelectLr = false;
+        prm.l2Lambda = 1.0;
+        SGD opt = new SGD(prm);
+
+        double[] initial = new double[] { 9, 2, -7};
+        double[] offsets = new double[] { 3, -5, 11};
+        opt.minimize(bf(new SumSquares(offsets)), new IntDoubleDenseVector(initial));
+        // The minimum of \sum_i (x_i + o_i)^2 + \frac{\lambda}{2} x_i^2 is at x_i = -2 o_i / (2 + \lambda).
+        double[] expected = new double[] { -2, 10./3, -22./3 };
+        JUnitUtils.assertArrayEquals(expected, initial, 1e-2);
+    }
+
+    /** SGD which regularizes every coordinate on every iteration, with the same cumulative L1 penalty. */
+    private static class EagerRegularizedSGD extends SGD {
+
+        private GainSchedule sched;
+        private double l1Lambda;
+        private double l2Lambda;
+        private double cumulativeL1;
+        private double[] appliedL1;
+
+        public EagerRegularizedSGD(SGDPrm prm, double l1Lambda, double l2Lambda, int numDims) {
+            super(prm);
+            this.sched = prm.sched;
+            this.l1Lambda = l1Lambda;
+            this.l2Lambda = l2Lambda;
+            this.appliedL1 = new double[numDims];
+        }
+
+        @Override
+        protected void takeStep(int iterCount, IntDoubleVector point, IntDoubleVector step) {
+            super.takeStep(iterCount, point, step);
+            cumulativeL1 += sched.getLearningRate(iterCount, 0) * l1Lambda;
+            for (int i=0; i<appliedL1.length; i++) {
+                double w = point.get(i) * (1.0 - sched.getLearningRate(iterCount, i) * l2Lambda);
+                double z = w;
+                if (w > 0) {
+                    w = Math.max(0.0, w - (cumulativeL1 + appliedL1[i]));
+                } else if (w < 0) {
+                    w = Math.min(0.0, w + (cumulativeL1 - appliedL1[i]));
+                }
+                appliedL1[i] += w - z;
+                point.set(i, w);
+            }
+        }
+
+    }
+
+    @Test
+    public void testLazyEqualsEagerForUniformSchedule() {
+        int numDims = 10;
+        double[] coefs = new double[60];
+        for (int i=0; i<coefs.length; i++) {
+            coefs[i] = i % 7 - 3;
+        }
+        SparseLinearBatchFunction f = new SparseLinearBatchFunction(coefs, numDims);
+        for (double[] lambdas : new double[][] { { 0.0, 0.5 }, { 0.02, 0.0 } }) {
+            double[] initial = new double[numDims];
+            for (int i=0; i<numDims; i++) {
+                initial[i] = i - 4.5;
+            }
+            Prng.seed(42);
+            SGDPrm prm = getVaryingRatePrm();
+            prm.l1Lambda = lambdas[0];
+            prm.l2Lambda = lambdas[1];
+            double[] lazy = initial.clone();
+            new SGD(prm).minimize(f, new IntDoubleDenseVector(lazy));
+
+            Prng.seed(42);
+            double[] eager = initial.clone();
+            new EagerRegularizedSGD(getVaryingRatePrm(), lambdas[0], lambdas[1], numDims).minimize(f, new IntDoubleDenseVector(eager));
+            JUnitUtils.assertArrayEquals(eager, lazy, 1e-10);
+        }
+    }
+
+    /** Gets options with a learning rate which warms up and then cycles. */
+    private static SGDPrm getVaryingRatePrm() {
+        BottouSchedulePrm bottou = new BottouSchedulePrm();
+        bottou.initialLr = 0.1;
+        bottou.lambda = 0.1;
+        WarmupSchedulePrm warmup = new WarmupSchedulePrm();
+        warmup.numWarmupIters = 40;
+        CyclicalSchedulePrm cyclical = new CyclicalSchedulePrm();
+        cyclical.halfCycle = 15;
+        SGDPrm prm = getNoAutoSelectPrm(5);
+        prm.sched = new WarmupSchedule(new CyclicalSchedule(new BottouSchedule(bottou), cyclical), warmup);
+        return prm;
+    }
+
+    /**
+     * A schedule whose state cannot be serialized, so it must reach the
+     * trials of the learning rate search through {@link #copy()}.
+     */
+    private static class UnserializableSchedule extends ConstantSchedule {
+        private static final long serialVersionUID = 1L;
+        final AtomicInteger numCopies;
+        public UnserializableSchedule(AtomicInteger numCopies) {
+            this.numCopies = numCopies;
+        }
+        @Override
+        public GainSchedule copy() {
+            numCopies.incrementAndGet();
+            UnserializableSchedule copy = new UnserializableSchedule(numCopies);
+            copy.setEta0(getEta0());
+            return copy;
+        }
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            throw new NotSerializableException("Schedule state must be copied, not serialized.");
+        }
+    }
+
+    @Test
+    public void testAutoSelectCopiesSchedule() {
+        for (int autoSelectThreads : new int[] { 1, 4 }) {
+            AtomicInteger numCopies = new AtomicInteger(0);
+            UnserializableSchedule sched = new UnserializableSchedule(numCopies);
+            SGDPrm prm = getNoAutoSelectPrm(3);
+            prm.sched = sched;
+            prm.autoSelectLr = true;
+            prm.autoSelectThreads = autoSelectThreads;
+            new SGD(prm).minimize(bf(new SumSquares(new double[] { 3, -5, 11})), new IntDoubleDenseVector(new double[3]));
+            assertTrue(numCopies.get() > 0);
+            // The options still hold the original schedule.
+            assertTrue(prm.sched == sched);
+        }
+    }
+
+    @Test
+    public void testAutoSelectWithCopyOnWriteAdaGrad() {
+        for (int autoSelectThreads : new int[] { 1, 4 }) {
+            AdaGradPrm sched = new AdaGradPrm();
+            sched.eta = 1.0;
+            sched.storage = StateStorage.COPY_ON_WRITE;
+            runSgdAutoSelectLr(new AdaGrad(sched), autoSelectThreads);
+        }
+    }
+
+    /** A schedule which implements only the {@link GainSchedule} interface. */
+    private static class ConstantSchedule implements GainSchedule {
+        private static final long serialVersionUID = 1L;
+        private double eta0 = 0.1;
+        @Override
+        public void init(DifferentiableBatchFunction function) { }
+        @Override
+        public void takeNoteOfGradient(IntDoubleVector gradient) { }
+        @Override
+        public double getLearningRate(int iterCount, int i) { return eta0; }
+        @Override
+        public GainSchedule copy() {
+            ConstantSchedule copy = new ConstantSchedule();
+            copy.eta0 = eta0;
+            return copy;
+        }
+        @Override
+        public double getEta0() { return eta0; }
+        @Override
+        public void setEta0(double eta0) { this.eta0 = eta0; }
+    }
+
+    @Test
+    public void testPlainGainSchedule() {
+        SGDPrm prm = getNoAutoSelectPrm(100);
+        prm.sched = new ConstantSchedule();
+        SGD opt = new SGD(prm);
+        double[] initial = new double[] { 9, 2, -7};
+        opt.minimize(bf(new SumSquares(new double[] { 3, -5, 11})), new IntDoubleDenseVector(initial));
+        JUnitUtils.assertArrayEquals(new double[] { -3, 5, -11 }, initial, 1e-3);
+    }
+
+    @Test
+    public void testLazyL1() {
+        SGDPrm prm = new SGDPrm();
+        prm.sched.setEta0(0.1);
+        prm.numPasses = 100;
+        prm.batchSize = 1;
+        prm.autoSelectLr = false;
+        prm.l1Lambda = 2.0;
+        SGD opt = new SGD(prm);
+
+        double[] initial = new double[] { 9, 2, -7, 3};
+        double[] offsets = new double[] { 3, -5, 11, 0.5};
+        opt.maximize(negate(bf(new SumSquares(offsets))), new IntDoubleDenseVector(initial));
+        // The minimum of \sum_i (x_i + o_i)^2 + \lambda |x_i| is at x_i = -o_i - \frac{\lambda}{2} sign(x_i), or zero.
+        double[] expected = new double[] { -2, 4, -10, 0 };
+        JUnitUtils.assertArrayEquals(expected, initial, 1e-2);
+        // The L1 penalty should give an exact zero.
+        assertEquals(0.0, initial[3], 0.0);
+    }
+
+    @Test
+    public void testAsyncValue() {
+        List<PassValue> expected = runForPassValues(false);
+        List<PassValue> actual = runForPassValues(true);
+        assertEquals(expected.size(), actual.size());
+        for (int i=0; i<expected.size(); i++) {
+            assertEquals(expected.get(i).iterCount, actual.get(i).iterCount);
+            assertEquals(expected.get(i).passCount, actual.get(i).passCount, 1e-13);
+            assertEquals(expected.get(i).value, actual.get(i).value, 1e-13);
+        }
+    }
+
+    @Test
+    public void testRelativeImprovementCriterion() {
+        SGDPrm prm = getNoAutoSelectPrm(100);
+        prm.stoppingCriteria.add(new RelativeImprovementCriterion(1e-3));
+        SGD opt = new SGD(prm);
+        double[] initial = new double[] { 9, 2, -7};
+        assertTrue(opt.minimize(bf(new SumSquares(new double[] { 3, -5, 11})), new IntDoubleDenseVector(initial)));
+        // The initial value and fewer than one per pass.
+        assertTrue(opt.getPassValues().size() < 101);
+        JUnitUtils.assertArrayEquals(new double[] { -3, 5, -11 }, initial, 1e-1);
+    }
+
+    @Test
+    public void testGradientNormCriterion() {
+        SGDPrm prm = getNoAutoSelectPrm(100);
+        prm.stoppingCriteria.add(new GradientNormCriterion(1e-2));
+        SGD opt = new SGD(prm);
+        double[] initial = new double[] { 9, 2, -7};
+        DifferentiableBatchFunction f = bf(new SumSquares(new double[] { 3, -5, 11}));
+        assertTrue(opt.minimize(f, new IntDoubleDenseVector(initial)));
+        assertTrue(opt.getPassValues().size() < 101);
+        assertTrue(Math.sqrt(f.getGradient(new IntDoubleDenseVector(initial)).getL2Norm()) <= 1e-2);
+    }
+
+    @Test
+    public void testCriteriaSeeRegularizer() {
+        // At the regularized optimum the unregularized gradient has norm sqrt(13), so
+        // the criterion is only met if it includes the L1 penalty.
+        SGDPrm prm = getNoAutoSelectPrm(100);
+        prm.l1Lambda = 2.0;
+        prm.stoppingCriteria.add(new GradientNormCriterion(1e-2));
+        SGD opt = new SGD(prm);
+        double[] initial = new double[] { 9, 2, -7, 3};
+        assertTrue(opt.minimize(bf(new SumSquares(new double[] { 3, -5, 11, 0.5})), new IntDoubleDenseVector(initial)));
+        assertTrue(opt.getPassValues().size() < 101);
+        JUnitUtils.assertArrayEquals(new double[] { -2, 4, -10, 0 }, initial, 1e-2);
+    }
+
+    @Test
+    public void testHeldOutCriterion() {
+        SGDPrm prm = getNoAutoSelectPrm(100);
+        // The held-out optimum differs from the training optimum, so the
+        // held-out value worsens once training moves past it.
+        DifferentiableBatchFunction heldOut = bf(new SumSquares(new double[] { 0, 0, 0}));
+        HeldOutCriterion crit = new HeldOutCriterion(heldOut, 3);
+        prm.stoppingCriteria.add(crit);
+        SGD opt = new SGD(prm);
+        double[] initial = new double[] { 9, 2, -7};
+        assertTrue(opt.minimize(bf(new SumSquares(new double[] { 1, 1, 1})), new IntDoubleDenseVector(initial)));
+        assertTrue(opt.getPassValues().size() < 101);
+        assertEquals(heldOut.getValue(crit.getBestPoint()), crit.getBestValue(), 1e-13);
+        assertTrue(crit.getBestValue() < heldOut.getValue(new IntDoubleDenseVector(initial)));
+    }
+
+    @Test
+    public void testNotConverged() {
+        SGDPrm prm = getNoAutoSelectPrm(2);
+        prm.stoppingCriteria.add(new GradientNormCriterion(1e-10));
+        SGD opt = new SGD(prm);
+        assertFalse(opt.minimize(bf(new SumSquares(new double[] { 3, -5, 11})), new IntDoubleDenseVector(new double[] { 9, 2, -7})));
+        assertEquals(3, opt.getPassValues().size());
+    }
+
+    @Test
+    public void testCheckpointResume() throws IOException {
+        File file = File.createTempFile("sgd", ".ckpt");
+        file.deleteOnExit();
+        SumSquaresBatchFunction f = getSumSquaresBatchFunction();
+
+        // Train to completion, checkpointing after each pass but the last.
+        Prng.seed(42);
+        SGDPrm prm = getCheckpointPrm(null);
+        prm.checkpointFile = file;
+        new SGD(prm).minimize(f, new IntDoubleDenseVector(new double[3]));
+        double[] expected = new double[3];
+        Prng.seed(42);
+        new SGD(getCheckpointPrm(null)).minimize(f, new IntDoubleDenseVector(expected));
+
+        // Resume from the last checkpoint, with a different random state.
+        Prng.seed(7);
+        double[] actual = new double[] { 1, 2, 3 };
+        new SGD(getCheckpointPrm(null)).resume(f, new IntDoubleDenseVector(actual), file);
+        for (int i=0; i<expected.length; i++) {
+            assertEquals(expected[i], actual[i], 0.0);
+        }
+    }
+
+    @Test
+    public void testCheckpointResumeWithAutoSelect() throws IOException {
+        File file = File.createTempFile("sgd", ".ckpt");
+        file.deleteOnExit();
+        SumSquaresBatchFunction f = getSumSquaresBatchFunction(200);
+
+        // Checkpoint only after the third pass, while auto-selection runs after every second.
+        Prng.seed(42);
+        SGDPrm prm = getCheckpointPrm(null);
+        prm.checkpointFile = file;
+        prm.checkpointFreq = 3;
+        double[] expected = new double[3];
+        new SGD(prm).minimize(f, new IntDoubleDenseVector(expected));
+
+        Prng.seed(7);
+        double[] actual = new double[3];
+        SGDPrm resumePrm = getCheckpointPrm(null);
+        resumePrm.checkpointFreq = 3;
+        GainSchedule sched = resumePrm.sched;
+        new SGD(resumePrm).resume(f, new IntDoubleDenseVector(actual), file);
+        for (int i=0; i<expected.length; i++) {
+            assertEquals(expected[i], actual[i], 0.0);
+        }
+        // The restored schedule is not installed in the caller's options.
+        assertSame(sched, resumePrm.sched);
+    }
+
+    @Test
+    public void testCheckpointOnStopBy() throws IOException {
+        File file = File.createTempFile("sgd", ".ckpt");
+        file.deleteOnExit();
+        SumSquaresBatchFunction f = getSumSquaresBatchFunction();
+
+        Prng.seed(42);
+        double[] expected = new double[3];
+        new SGD(getCheckpointPrm(null)).minimize(f, new IntDoubleDenseVector(expected));
+
+        // Stop after the first iteration, then resume.
+        Prng.seed(42);
+        SGDPrm prm = getCheckpointPrm(new Date(0));
+        prm.checkpointFile = file;
+        new SGD(prm).minimize(f, new IntDoubleDenseVector(new double[3]));
+        double[] actual = new double[3];
+        new SGD(getCheckpointPrm(null)).resume(f, new IntDoubleDenseVector(actual), file);
+        for (int i=0; i<expected.length; i++) {
+            assertEquals(expected[i], actual[i], 0.0);
+        }
+    }
+
+    private static SGDPrm getCheckpointPrm(Date stopBy) {
+        AdaGradPrm sched = new AdaGradPrm();
+        sched.eta = 0.1;
+        SGDPrm prm = new SGDPrm();
+        prm.sched = new AdaGrad(sched);
+        prm.numPasses = 6;
+        prm.batchSize = 3;
+        prm.autoSelectLr = true;
+        prm.autoSelectFreq = 2;
+        prm.l2Lambda = 0.01;
+        prm.stopBy = stopBy;
+        return prm;
+    }
+
+    private static SumSquaresBatchFunction getSumSquaresBatchFunction() {
+        return getSumSquaresBatchFunction(20);
+    }
+
+    private static SumSquaresBatchFunction getSumSquaresBatchFunction(int numExamples) {
+        double[][] centers = new double[numExamples][3];
+        for (int i=0; i<centers.length; i++) {
+            for (int j=0; j<centers[i].length; j++) {
+                centers[i][j] = i * (j + 1) % 7 - 3;
+            }
+        }
+        return new SumSquaresBatchFunction(centers);
+    }
+
+    private static SGDPrm getNoAutoSelectPrm(int numPasses) {
+        SGDPrm prm = new SGDPrm();
+        prm.sched.setEta0(0.1);
+        prm.numPasses = numPasses;
+        prm.batchSize = 1;
+        prm.autoSelectLr = false;
+        return prm;
+    }
+
+    private static List<PassValue> runForPassValues(boolean asyncValue) {
+        Prng.seed(42);
+        SGDPrm prm = new SGDPrm();
+        prm.sched.setEta0(0.1);
+        prm.numPasses = 20;
+        prm.batchSize = 1;
+        prm.autoSelectLr = false;
+        prm.asyncValue = asyncValue;
+        SGD opt = new SGD(prm);
+        opt.minimize(bf(new SumSquares(new double[] { 3, -5, 11})), new IntDoubleDenseVector(new double[] { 9, 2, -7}));
+        // The initial value and one per pass.
+        assertEquals(21, opt.getPassValues().size());
+        return opt.getPassValues();
+    }
+
+}
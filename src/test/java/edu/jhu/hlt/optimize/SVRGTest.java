@@ -0,0 +1,76 @@
+package edu.jhu.hlt.optimize;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import edu.jhu.hlt.optimize.SGD.SGDPrm;
+import edu.jhu.hlt.optimize.SVRG.SVRGPrm;
+import edu.jhu.hlt.optimize.function.BatchFunctionOpts;
+import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
+import edu.jhu.hlt.optimize.function.SumSquaresBatchFunction;
+import edu.jhu.hlt.util.JUnitUtils;
+import edu.jhu.prim.vector.IntDoubleDenseVector;
+import edu.jhu.util.Prng;
+
+public class SVRGTest {
+
+    private static double[] mean;
+
+    private static SumSquaresBatchFunction getFunction() {
+        Prng.seed(12345);
+        double[][] centers = new double[100][3];
+        mean = new double[3];
+        for (int i=0; i<centers.length; i++) {
+            for (int j=0; j<centers[i].length; j++) {
+                centers[i][j] = Prng.nextDouble() * 10 - 5;
+                mean[j] += centers[i][j] / centers.length;
+            }
+        }
+        return new SumSquaresBatchFunction(centers);
+    }
+
+    @Test
+    public void testMinimize() {
+        SumSquaresBatchFunction f = getFunction();
+        double[] point = new double[] { 9, 2, -7 };
+        new SVRG(new SVRGPrm(0.1, 20, 1)).minimize(f, new IntDoubleDenseVector(point));
+        JUnitUtils.assertArrayEquals(mean, point, 1e-8);
+    }
+
+    @Test
+    public void testMaximize() {
+        SumSquaresBatchFunction f = getFunction();
+        double[] point = new double[] { 9, 2, -7 };
+        new SVRG(new SVRGPrm(0.05, 20, 5)).maximize(new BatchFunctionOpts.NegateFunction(f), new IntDoubleDenseVector(point));
+        JUnitUtils.assertArrayEquals(mean, point, 1e-8);
+    }
+
+    @Test
+    public void testLazyEqualsDense() {
+        double[] opt = new double[] { 3, -5, 11, 0, 1, -2, 7, 4 };
+        DifferentiableBatchFunction f = SAGATest.getFunction(opt);
+        double[] lazy = new double[opt.length];
+        Prng.seed(42);
+        new SVRG(new SVRGPrm(0.1, 3, 2)).minimize(f, new IntDoubleDenseVector(lazy));
+        // Hiding the linear structure makes SVRG add the full gradient to every coordinate on every step.
+        double[] dense = new double[opt.length];
+        Prng.seed(42);
+        new SVRG(new SVRGPrm(0.1, 3, 2)).minimize(new BatchFunctionOpts.AddFunctions(f), new IntDoubleDenseVector(dense));
+        JUnitUtils.assertArrayEquals(dense, lazy, 1e-10);
+    }
+
+    @Test
+    public void testMoreAccurateThanSgd() {
+        SumSquaresBatchFunction f = getFunction();
+        double[] svrg = new double[] { 9, 2, -7 };
+        new SVRG(new SVRGPrm(0.1, 4, 1)).minimize(f, new IntDoubleDenseVector(svrg));
+        // SGD with the same number of gradient computations.
+        SGDPrm prm = new SGDPrm(0.1, 20, 1);
+        prm.autoSelectLr = false;
+        double[] sgd = new double[] { 9, 2, -7 };
+        new SGD(prm).minimize(f, new IntDoubleDenseVector(sgd));
+        assertTrue(f.getValue(new IntDoubleDenseVector(svrg)) < f.getValue(new IntDoubleDenseVector(sgd)));
+    }
+
+}
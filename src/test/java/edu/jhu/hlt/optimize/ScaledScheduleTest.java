@@ -0,0 +1,183 @@
+package edu.jhu.hlt.optimize;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import edu.jhu.hlt.optimize.AdaGrad.AdaGradPrm;
+import edu.jhu.hlt.optimize.BottouSchedule.BottouSchedulePrm;
+import edu.jhu.hlt.optimize.CosineSchedule.CosineSchedulePrm;
+import edu.jhu.hlt.optimize.CyclicalSchedule.CyclicalSchedulePrm;
+import edu.jhu.hlt.optimize.SGD.SGDPrm;
+import edu.jhu.hlt.optimize.StepSchedule.StepSchedulePrm;
+import edu.jhu.hlt.optimize.WarmupSchedule.WarmupSchedulePrm;
+import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
+import edu.jhu.prim.vector.IntDoubleDenseVector;
+import edu.jhu.prim.vector.IntDoubleVector;
+
+public class ScaledScheduleTest extends AbstractBatchOptimizerTest {
+
+    @Override
+    protected Optimizer<DifferentiableBatchFunction> getOptimizer() {
+        AdaGradPrm adaGrad = new AdaGradPrm();
+        adaGrad.eta = 0.1 * 100;
+        WarmupSchedulePrm warmup = new WarmupSchedulePrm();
+        warmup.numWarmupIters = 10;
+        CosineSchedulePrm cosine = new CosineSchedulePrm();
+        cosine.period = 300;
+        cosine.minMultiplier = 0.01;
+
+        SGDPrm prm = new SGDPrm();
+        prm.sched = new WarmupSchedule(new CosineSchedule(new AdaGrad(adaGrad), cosine), warmup);
+        prm.numPasses = 100;
+        prm.batchSize = 1;
+        prm.autoSelectLr = false;
+        return new SGD(prm);
+    }
+
+    @Test
+    public void testSgdAutoSelectLr() {
+        StepSchedulePrm step = new StepSchedulePrm();
+        step.stepSize = 50;
+        step.decay = 0.5;
+        SGDTest.runSgdAutoSelectLr(new StepSchedule(getConstant(0.5), step));
+    }
+
+    @Test
+    public void testWarmup() {
+        WarmupSchedulePrm prm = new WarmupSchedulePrm();
+        prm.numWarmupIters = 4;
+        GainSchedule sched = new WarmupSchedule(getConstant(2.0), prm);
+        assertEquals(0.5, sched.getLearningRate(0, 0), 1e-13);
+        assertEquals(1.5, sched.getLearningRate(2, 0), 1e-13);
+        assertEquals(2.0, sched.getLearningRate(3, 0), 1e-13);
+        assertEquals(2.0, sched.getLearningRate(100, 0), 1e-13);
+    }
+
+    @Test
+    public void testCosine() {
+        CosineSchedulePrm prm = new CosineSchedulePrm();
+        prm.period = 10;
+        prm.minMultiplier = 0.2;
+        GainSchedule sched = new CosineSchedule(getConstant(1.0), prm);
+        assertEquals(1.0, sched.getLearningRate(0, 0), 1e-13);
+        assertEquals(0.6, sched.getLearningRate(5, 0), 1e-13);
+        assertEquals(0.2, sched.getLearningRate(10, 0), 1e-13);
+        assertEquals(0.2, sched.getLearningRate(25, 0), 1e-13);
+
+        // With restarts and doubling periods, the periods are [0,10), [10,30), [30,70).
+        prm.restarts = true;
+        prm.periodGrowth = 2.0;
+        sched = new CosineSchedule(getConstant(1.0), prm);
+        assertEquals(1.0, sched.getLearningRate(10, 0), 1e-13);
+        assertEquals(0.6, sched.getLearningRate(20, 0), 1e-13);
+        assertEquals(1.0, sched.getLearningRate(30, 0), 1e-13);
+        assertEquals(0.6, sched.getLearningRate(50, 0), 1e-13);
+    }
+
+    @Test
+    public void testCosineRestartsMatchLoop() {
+        for (double periodGrowth : new double[] { 1.0, 1.5, 2.0, 3.0 }) {
+            CosineSchedulePrm prm = new CosineSchedulePrm();
+            prm.period = 10;
+            prm.minMultiplier = 0.2;
+            prm.restarts = true;
+            prm.periodGrowth = periodGrowth;
+            GainSchedule sched = new CosineSchedule(getConstant(1.0), prm);
+            for (int iter = 0; iter < 5000; iter++) {
+                assertEquals(getCosineByLoop(prm, iter), sched.getLearningRate(iter, 0), 1e-10);
+            }
+        }
+    }
+
+    /** Gets the cosine multiplier by stepping through the periods one at a time. */
+    private static double getCosineByLoop(CosineSchedulePrm prm, int iterCount) {
+        double t = iterCount;
+        double period = prm.period;
+        while (t >= period) {
+            t -= period;
+            period *= prm.periodGrowth;
+        }
+        return prm.minMultiplier + (1.0 - prm.minMultiplier) * 0.5 * (1.0 + Math.cos(Math.PI * t / period));
+    }
+
+    @Test
+    public void testStep() {
+        StepSchedulePrm prm = new StepSchedulePrm();
+        prm.stepSize = 3;
+        prm.decay = 0.5;
+        GainSchedule sched = new StepSchedule(getConstant(1.0), prm);
+        assertEquals(1.0, sched.getLearningRate(2, 0), 1e-13);
+        assertEquals(0.5, sched.getLearningRate(3, 0), 1e-13);
+        assertEquals(0.25, sched.getLearningRate(8, 0), 1e-13);
+    }
+
+    @Test
+    public void testCyclical() {
+        CyclicalSchedulePrm prm = new CyclicalSchedulePrm();
+        prm.halfCycle = 4;
+        prm.minMultiplier = 0.2;
+        GainSchedule sched = new CyclicalSchedule(getConstant(1.0), prm);
+        assertEquals(0.2, sched.getLearningRate(0, 0), 1e-13);
+        assertEquals(0.6, sched.getLearningRate(2, 0), 1e-13);
+        assertEquals(1.0, sched.getLearningRate(4, 0), 1e-13);
+        assertEquals(0.6, sched.getLearningRate(6, 0), 1e-13);
+        assertEquals(0.2, sched.getLearningRate(8, 0), 1e-13);
+    }
+
+    @Test
+    public void testComposedScaleGradientMatchesLearningRates() {
+        WarmupSchedulePrm warmup = new WarmupSchedulePrm();
+        warmup.numWarmupIters = 5;
+        StepSchedulePrm step = new StepSchedulePrm();
+        step.stepSize = 2;
+        step.decay = 0.5;
+        GainSchedule sched = new WarmupSchedule(new StepSchedule(getConstant(3.0), step), warmup);
+        sched.setEta0(4.0);
+        assertEquals(4.0, sched.getEta0(), 0.0);
+        GainSchedule copy = sched.copy();
+        sched.setEta0(5.0);
+        assertEquals(4.0, copy.getEta0(), 0.0);
+
+        for (int t=0; t<8; t++) {
+            IntDoubleVector g = new IntDoubleDenseVector(new double[]{ 1.0, -2.0 });
+            AbstractGainSchedule.scaleGradient(copy, t, g, false);
+            assertEquals(-1.0 * copy.getLearningRate(t, 0), g.get(0), 1e-13);
+            assertEquals(2.0 * copy.getLearningRate(t, 1), g.get(1), 1e-13);
+        }
+    }
+
+    @Test
+    public void testMultiplierComputedOncePerIteration() {
+        final int[] numCalls = new int[1];
+        GainSchedule sched = new ScaledSchedule(getConstant(1.0)) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected double getMultiplier(int iterCount) {
+                numCalls[0]++;
+                return 0.5;
+            }
+            @Override
+            public GainSchedule copy() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        for (int t=0; t<3; t++) {
+            IntDoubleVector g = new IntDoubleDenseVector(new double[100]);
+            AbstractGainSchedule.scaleGradient(sched, t, g, false);
+            for (int i=0; i<100; i++) {
+                sched.getLearningRate(t, i);
+            }
+        }
+        assertEquals(3, numCalls[0]);
+    }
+
+    /** Gets a schedule with a constant learning rate. */
+    private static GainSchedule getConstant(double lr) {
+        BottouSchedulePrm prm = new BottouSchedulePrm();
+        prm.initialLr = lr;
+        prm.lambda = 0.0;
+        return new BottouSchedule(prm);
+    }
+
+}
@@ -0,0 +1,91 @@
+package edu.jhu.hlt.optimize;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.jhu.hlt.optimize.AdaGrad.AdaGradPrm;
+import edu.jhu.hlt.optimize.SGD.SGDPrm;
+import edu.jhu.hlt.optimize.SketchedAdaGrad.SketchedAdaGradPrm;
+import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
+import edu.jhu.hlt.optimize.function.SparseSumSquaresBatchFunction;
+import edu.jhu.hlt.util.Prm;
+import edu.jhu.prim.vector.IntDoubleUnsortedVector;
+import edu.jhu.prim.vector.IntDoubleVector;
+
+public class SketchedAdaGradTest extends AbstractBatchOptimizerTest {
+
+    @Override
+    protected Optimizer<DifferentiableBatchFunction> getOptimizer() {
+        SketchedAdaGradPrm sched = new SketchedAdaGradPrm();
+        sched.eta = 0.1 * 100;
+        sched.width = 16;
+        sched.depth = 2;
+
+        SGDPrm prm = new SGDPrm();
+        prm.sched = new SketchedAdaGrad(sched);
+        prm.numPasses = 100;
+        prm.batchSize = 1;
+        prm.autoSelectLr = false;
+        return new SGD(prm);
+    }
+
+    @Test
+    public void testLearningRatesAreConservative() {
+        testLearningRatesAreConservative(true);
+        testLearningRatesAreConservative(false);
+    }
+
+    private void testLearningRatesAreConservative(boolean conservativeUpdate) {
+        int numDims = 1000;
+        DifferentiableBatchFunction f = new SparseSumSquaresBatchFunction(new double[1], numDims);
+        AdaGrad exact = new AdaGrad(new AdaGradPrm());
+        SketchedAdaGradPrm prm = new SketchedAdaGradPrm();
+        prm.width = 4096;
+        prm.depth = 3;
+        prm.conservativeUpdate = conservativeUpdate;
+        SketchedAdaGrad sketch = new SketchedAdaGrad(prm);
+        exact.init(f);
+        sketch.init(f);
+
+        Random random = new Random(7);
+        for (int t=0; t<200; t++) {
+            IntDoubleVector g = new IntDoubleUnsortedVector();
+            for (int k=0; k<10; k++) {
+                // Skew the indices so that some parameters are frequent.
+                int i = (int) (numDims * Math.pow(random.nextDouble(), 3));
+                g.add(i, random.nextGaussian());
+            }
+            exact.takeNoteOfGradient(g);
+            sketch.takeNoteOfGradient(g);
+        }
+        int numExact = 0;
+        for (int i=0; i<numDims; i++) {
+            double exactLr = exact.getLearningRate(0, i);
+            double sketchLr = sketch.getLearningRate(0, i);
+            assertTrue(sketchLr <= exactLr * (1 + 1e-12));
+            if (sketchLr == exactLr) {
+                numExact++;
+            }
+        }
+        // With a sketch this wide, most parameters avoid collisions in some row.
+        assertTrue(numExact > numDims / 2);
+    }
+
+    @Test
+    public void testMemoryIsIndependentOfDimension() {
+        SketchedAdaGradPrm prm = new SketchedAdaGradPrm();
+        prm.width = 1000;
+        prm.depth = 4;
+        SketchedAdaGrad small = new SketchedAdaGrad(prm);
+        small.init(new SparseSumSquaresBatchFunction(new double[1], 10));
+        SketchedAdaGrad large = new SketchedAdaGrad(Prm.clonePrm(prm));
+        large.init(new SparseSumSquaresBatchFunction(new double[1], 100000000));
+        assertEquals(32000, small.getStateBytes());
+        assertEquals(32000, large.getStateBytes());
+    }
+
+}
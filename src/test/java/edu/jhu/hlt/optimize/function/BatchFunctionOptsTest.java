@@ -0,0 +1,41 @@
+package edu.jhu.hlt.optimize.function;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import edu.jhu.hlt.optimize.function.BatchFunctionOpts.AddFunctions;
+import edu.jhu.hlt.optimize.function.BatchFunctionOpts.NegateFunction;
+import edu.jhu.hlt.optimize.function.BatchFunctionOpts.ScaleFunction;
+import edu.jhu.hlt.optimize.functions.SumSquares;
+import edu.jhu.hlt.util.JUnitUtils;
+import edu.jhu.prim.vector.IntDoubleDenseVector;
+import edu.jhu.prim.vector.IntDoubleUnsortedVector;
+import edu.jhu.prim.vector.IntDoubleVector;
+
+public class BatchFunctionOptsTest {
+
+    @Test
+    public void testAccumulateValueGradient() {
+        DifferentiableBatchFunction f1 = new FunctionAsBatchFunction(new SumSquares(new double[]{ 1, 2, 3 }), 10);
+        DifferentiableBatchFunction f2 = new FunctionAsBatchFunction(new SumSquares(new double[]{ -3, 0, 5 }), 10);
+        AccumulatingBatchFunction f = new AddFunctions(new ScaleFunction(f1, 0.5), new NegateFunction(f2));
+        IntDoubleVector point = new IntDoubleDenseVector(new double[]{ 0.1, -0.2, 0.3 });
+        int[] batch = new int[]{ 1, 2 };
+
+        ValueGradient expected = f.getValueGradient(point, batch);
+        // Start from a non-empty vector to check that the gradient is added.
+        IntDoubleVector gradient = new IntDoubleUnsortedVector();
+        gradient.add(1, 7.0);
+        double value = f.accumulateValueGradient(point, batch, 2.0, gradient);
+
+        assertEquals(expected.getValue(), value, 1e-13);
+        double[] expectedGrad = expected.getGradient().toNativeArray();
+        for (int i=0; i<expectedGrad.length; i++) {
+            expectedGrad[i] *= 2.0;
+        }
+        expectedGrad[1] += 7.0;
+        JUnitUtils.assertArrayEquals(expectedGrad, new IntDoubleDenseVector(gradient).toNativeArray(), 1e-13);
+    }
+
+}
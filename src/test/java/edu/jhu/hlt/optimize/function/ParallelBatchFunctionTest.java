@@ -0,0 +1,67 @@
+package edu.jhu.hlt.optimize.function;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import edu.jhu.hlt.optimize.SGD;
+import edu.jhu.hlt.optimize.SGD.SGDPrm;
+import edu.jhu.hlt.util.JUnitUtils;
+import edu.jhu.prim.vector.IntDoubleDenseVector;
+import edu.jhu.prim.vector.IntDoubleVector;
+import edu.jhu.util.Prng;
+
+public class ParallelBatchFunctionTest {
+
+    private static SumSquaresBatchFunction getFunction() {
+        Prng.seed(12345);
+        double[][] centers = new double[1000][5];
+        for (int i=0; i<centers.length; i++) {
+            for (int j=0; j<centers[i].length; j++) {
+                centers[i][j] = Prng.nextDouble() * 10 - 5;
+            }
+        }
+        return new SumSquaresBatchFunction(centers);
+    }
+
+    @Test
+    public void testSameAsSerial() {
+        SumSquaresBatchFunction f = getFunction();
+        ParallelBatchFunction pf = new ParallelBatchFunction(f, 4, 10);
+        IntDoubleVector point = new IntDoubleDenseVector(new double[]{ 1, -2, 3, -4, 5 });
+        int[] batch = new int[777];
+        for (int i=0; i<batch.length; i++) {
+            batch[i] = (i * 7) % f.getNumExamples();
+        }
+        ValueGradient expected = f.getValueGradient(point, batch);
+        ValueGradient actual = pf.getValueGradient(point, batch);
+        assertEquals(expected.getValue(), actual.getValue(), 1e-8);
+        assertEquals(expected.getValue(), pf.getValue(point, batch), 1e-8);
+        JUnitUtils.assertArrayEquals(expected.getGradient().toNativeArray(), actual.getGradient().toNativeArray(), 1e-8);
+        JUnitUtils.assertArrayEquals(expected.getGradient().toNativeArray(), pf.getGradient(point, batch).toNativeArray(), 1e-8);
+        // Small batches are evaluated serially.
+        assertEquals(f.getValue(point, new int[]{ 3, 4 }), pf.getValue(point, new int[]{ 3, 4 }), 1e-13);
+        pf.shutdown();
+    }
+
+    @Test
+    public void testSgdSameAsSerial() {
+        SumSquaresBatchFunction f = getFunction();
+        ParallelBatchFunction pf = new ParallelBatchFunction(f, 4, 10);
+        double[] expected = runSgd(f);
+        double[] actual = runSgd(pf);
+        JUnitUtils.assertArrayEquals(expected, actual, 1e-8);
+        pf.shutdown();
+    }
+
+    private static double[] runSgd(DifferentiableBatchFunction f) {
+        Prng.seed(123);
+        SGDPrm prm = new SGDPrm(1e-4, 3, 200);
+        prm.autoSelectLr = false;
+        SGD sgd = new SGD(prm);
+        double[] point = new double[f.getNumDimensions()];
+        sgd.minimize(f, new IntDoubleDenseVector(point));
+        return point;
+    }
+
+}
@@ -1,6 +1,8 @@
 package edu.jhu.hlt.optimize.function;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 import java.util.Arrays;
 
@@ -82,5 +84,36 @@ public class SampleFunctionTest {
         
         // TODO: test no-argument version of getValue().
     }
+
+    @Test
+    public void testConvertedBatchIsReused() throws InterruptedException {
+        Prng.seed(123456789);
+        final MockFunction f = new MockFunction(100, 10);
+        final SampleFunction sf = new SampleFunction(f, 10);
+        final IntDoubleVector point = new IntDoubleDenseVector();
+        sf.getValue(point, new int[]{ 1, 3 });
+        int[] first = f.selected;
+        sf.getValue(point, new int[]{ 5, 7 });
+        assertSame(first, f.selected);
+        JUnitUtils.assertArrayEquals(new int[]{ 30, 81 }, f.selected);
+
+        // Each thread converts into its own buffer.
+        final int[][] other = new int[1][];
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                sf.getValue(point, new int[]{ 1, 3 });
+                other[0] = f.selected;
+            }
+        };
+        thread.start();
+        thread.join();
+        assertNotSame(first, other[0]);
+        JUnitUtils.assertArrayEquals(new int[]{ 30, 81 }, first);
+
+        int[] conv = new int[2];
+        assertSame(conv, sf.convertBatch(new int[]{ 1, 3 }, conv));
+        JUnitUtils.assertArrayEquals(new int[]{ 17, 78 }, conv);
+    }
     
 }
@@ -0,0 +1,52 @@
+package edu.jhu.hlt.optimize.function;
+
+import edu.jhu.prim.vector.IntDoubleUnsortedVector;
+import edu.jhu.prim.vector.IntDoubleVector;
+
+/**
+ * The function \sum_i c_i x_{i mod d}, each example of which has a constant
+ * one-hot gradient. Since the gradient does not depend on the point, lazy and
+ * eager updates of the coordinates it does not touch follow the same path.
+ */
+public class SparseLinearBatchFunction extends AbstractDifferentiableBatchFunction {
+
+    private double[] coefs;
+    private int numDims;
+
+    public SparseLinearBatchFunction(double[] coefs, int numDims) {
+        this.coefs = coefs;
+        this.numDims = numDims;
+    }
+
+    @Override
+    public double getValue(IntDoubleVector point, int[] batch) {
+        return getValueGradient(point, batch).getValue();
+    }
+
+    @Override
+    public IntDoubleVector getGradient(IntDoubleVector point, int[] batch) {
+        return getValueGradient(point, batch).getGradient();
+    }
+
+    @Override
+    public ValueGradient getValueGradient(IntDoubleVector point, int[] batch) {
+        double value = 0.0;
+        IntDoubleUnsortedVector gradient = new IntDoubleUnsortedVector();
+        for (int i : batch) {
+            value += coefs[i] * point.get(i % numDims);
+            gradient.add(i % numDims, coefs[i]);
+        }
+        return new ValueGradient(value, gradient);
+    }
+
+    @Override
+    public int getNumDimensions() {
+        return numDims;
+    }
+
+    @Override
+    public int getNumExamples() {
+        return coefs.length;
+    }
+
+}
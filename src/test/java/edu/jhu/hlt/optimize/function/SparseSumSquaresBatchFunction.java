@@ -0,0 +1,49 @@
+package edu.jhu.hlt.optimize.function;
+
+import edu.jhu.prim.vector.IntDoubleUnsortedVector;
+import edu.jhu.prim.vector.IntDoubleVector;
+
+/** The function \sum_i (x_{i mod d} - c_i)^2, each example of which has a one-hot gradient. */
+public class SparseSumSquaresBatchFunction extends AbstractDifferentiableBatchFunction {
+
+    private double[] centers;
+    private int numDims;
+
+    public SparseSumSquaresBatchFunction(double[] centers, int numDims) {
+        this.centers = centers;
+        this.numDims = numDims;
+    }
+
+    @Override
+    public double getValue(IntDoubleVector point, int[] batch) {
+        return getValueGradient(point, batch).getValue();
+    }
+
+    @Override
+    public IntDoubleVector getGradient(IntDoubleVector point, int[] batch) {
+        return getValueGradient(point, batch).getGradient();
+    }
+
+    @Override
+    public ValueGradient getValueGradient(IntDoubleVector point, int[] batch) {
+        double value = 0.0;
+        IntDoubleUnsortedVector gradient = new IntDoubleUnsortedVector();
+        for (int i : batch) {
+            double diff = point.get(i % numDims) - centers[i];
+            value += diff * diff;
+            gradient.add(i % numDims, 2 * diff);
+        }
+        return new ValueGradient(value, gradient);
+    }
+
+    @Override
+    public int getNumDimensions() {
+        return numDims;
+    }
+
+    @Override
+    public int getNumExamples() {
+        return centers.length;
+    }
+
+}
@@ -0,0 +1,49 @@
+package edu.jhu.hlt.optimize.function;
+
+import edu.jhu.prim.vector.IntDoubleDenseVector;
+import edu.jhu.prim.vector.IntDoubleVector;
+
+/** The function \sum_i \sum_j (x_j - c_{ij})^2 where i ranges over the examples in the batch. */
+public class SumSquaresBatchFunction extends AbstractDifferentiableBatchFunction {
+
+    private double[][] centers;
+
+    public SumSquaresBatchFunction(double[][] centers) {
+        this.centers = centers;
+    }
+
+    @Override
+    public double getValue(IntDoubleVector point, int[] batch) {
+        return getValueGradient(point, batch).getValue();
+    }
+
+    @Override
+    public IntDoubleVector getGradient(IntDoubleVector point, int[] batch) {
+        return getValueGradient(point, batch).getGradient();
+    }
+
+    @Override
+    public ValueGradient getValueGradient(IntDoubleVector point, int[] batch) {
+        double value = 0.0;
+        IntDoubleDenseVector gradient = new IntDoubleDenseVector(getNumDimensions());
+        for (int i : batch) {
+            for (int j=0; j<getNumDimensions(); j++) {
+                double diff = point.get(j) - centers[i][j];
+                value += diff * diff;
+                gradient.add(j, 2 * diff);
+            }
+        }
+        return new ValueGradient(value, gradient);
+    }
+
+    @Override
+    public int getNumDimensions() {
+        return centers[0].length;
+    }
+
+    @Override
+    public int getNumExamples() {
+        return centers.length;
+    }
+
+}
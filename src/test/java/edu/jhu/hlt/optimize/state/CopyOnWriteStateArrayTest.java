@@ -0,0 +1,56 @@
+package edu.jhu.hlt.optimize.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CopyOnWriteStateArrayTest {
+
+    private static final int CHUNK_BYTES = 8 * CopyOnWriteStateArray.CHUNK_SIZE;
+
+    @Test
+    public void testCopiesAreIndependent() {
+        int size = 3 * CopyOnWriteStateArray.CHUNK_SIZE + 5;
+        StateArray arr = new CopyOnWriteStateArray(size);
+        arr.set(0, 1.0);
+        arr.set(size - 1, 2.0);
+        StateArray copy = arr.copy();
+        StateArray copy2 = copy.copy();
+        arr.set(0, 3.0);
+        copy.add(size - 1, 1.0);
+        assertEquals(3.0, arr.get(0), 0.0);
+        assertEquals(2.0, arr.get(size - 1), 0.0);
+        assertEquals(1.0, copy.get(0), 0.0);
+        assertEquals(3.0, copy.get(size - 1), 0.0);
+        assertEquals(1.0, copy2.get(0), 0.0);
+        assertEquals(2.0, copy2.get(size - 1), 0.0);
+    }
+
+    @Test
+    public void testOnlyWrittenChunksAreAllocated() {
+        int numChunks = 1000;
+        StateArray arr = new CopyOnWriteStateArray(numChunks * CopyOnWriteStateArray.CHUNK_SIZE);
+        long refBytes = 8L * numChunks;
+        assertEquals(refBytes, arr.getNumBytes());
+        arr.set(5, 1.0);
+        arr.set(6, 1.0);
+        assertEquals(refBytes + CHUNK_BYTES, arr.getNumBytes());
+
+        // A copy shares the chunk until one of them writes to it.
+        StateArray copy = arr.copy();
+        assertEquals(refBytes, arr.getNumBytes());
+        assertEquals(refBytes, copy.getNumBytes());
+        copy.set(7, 1.0);
+        assertEquals(refBytes + CHUNK_BYTES, copy.getNumBytes());
+        assertEquals(0.0, arr.get(7), 0.0);
+        assertTrue(arr.getNumBytes() < 8L * arr.size() / 100);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testOutOfRange() {
+        // The index is within the last chunk, but past the end of the array.
+        new CopyOnWriteStateArray(10).get(10);
+    }
+
+}
@@ -0,0 +1,53 @@
+package edu.jhu.hlt.optimize.state;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LazyDecayStateTest {
+
+    @Test
+    public void testGapsAndSteps() {
+        for (StateStorage storage : StateStorage.values()) {
+            LazyDecayState state = new LazyDecayState(storage, 10, 2);
+            assertEquals(1, state.nextStep());
+            state.setUpdated(3, 1);
+            assertEquals(2, state.nextStep());
+            assertEquals(3, state.nextStep());
+            assertEquals(1, state.getGap(3, 3));
+            assertEquals(2, state.getStepsSinceUpdate(3));
+            assertEquals(3, state.getStepsSinceUpdate(4));
+            // A later step which was already applied is kept.
+            state.setUpdated(3, 3);
+            state.setUpdated(3, 2);
+            assertEquals(-2, state.getGap(3, 2));
+            assertEquals(0, state.getStepsSinceUpdate(3));
+        }
+    }
+
+    @Test
+    public void testCopiesAreIndependent() {
+        for (StateStorage storage : StateStorage.values()) {
+            LazyDecayState state = new LazyDecayState(storage, 10, 2);
+            int step = state.nextStep();
+            state.getArray(0).set(1, 2.0);
+            state.getArray(1).set(1, 3.0);
+            state.setUpdated(1, step);
+            LazyDecayState copy = state.copy();
+            state.getArray(0).set(1, 5.0);
+            state.setUpdated(1, state.nextStep());
+            assertEquals(2.0, copy.getArray(0).get(1), 0.0);
+            assertEquals(3.0, copy.getArray(1).get(1), 0.0);
+            assertEquals(1, copy.getNumSteps());
+            assertEquals(0, copy.getStepsSinceUpdate(1));
+        }
+    }
+
+    @Test
+    public void testDecay() {
+        assertEquals(2.0 * 0.5 * 0.5 * 0.5, LazyDecayState.decay(2.0, 0.5, 3), 1e-15);
+        assertEquals(2.0, LazyDecayState.decay(2.0, 0.5, 0), 0.0);
+        assertEquals(2.0, LazyDecayState.decay(2.0, 0.5, -1), 0.0);
+    }
+
+}
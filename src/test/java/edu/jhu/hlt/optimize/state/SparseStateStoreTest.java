@@ -0,0 +1,72 @@
+package edu.jhu.hlt.optimize.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SparseStateStoreTest {
+
+    @Test
+    public void testGetSet() {
+        SparseStateStore store = new SparseStateStore(1000, 2);
+        assertEquals(0.0, store.get(5, 0), 0.0);
+        assertEquals(0, store.getNumTouched());
+        // Setting an untouched parameter to zero does not add it.
+        store.set(5, 1, 0.0);
+        assertEquals(0, store.getNumTouched());
+        store.set(5, 1, 3.0);
+        store.set(999, 0, -1.0);
+        assertEquals(0.0, store.get(5, 0), 0.0);
+        assertEquals(3.0, store.get(5, 1), 0.0);
+        assertEquals(-1.0, store.get(999, 0), 0.0);
+        assertEquals(2, store.getNumTouched());
+    }
+
+    @Test
+    public void testGrowsThenCompactsToDense() {
+        int numDims = 10000;
+        SparseStateStore store = new SparseStateStore(numDims, 3);
+        for (int i=0; i<numDims; i += 2) {
+            store.set(i, 2, i);
+            if (i < 100) {
+                assertFalse(store.isDense());
+                assertTrue(store.getNumBytes() < 8L * 3 * numDims / 10);
+            }
+        }
+        // Half the parameters have been touched, which is denser than a half
+        // full hash table can store compactly.
+        assertTrue(store.isDense());
+        assertEquals(8L * 3 * numDims, store.getNumBytes());
+        for (int i=0; i<numDims; i++) {
+            assertEquals((i % 2 == 0) ? i : 0.0, store.get(i, 2), 0.0);
+            assertEquals(0.0, store.get(i, 0), 0.0);
+        }
+    }
+
+    @Test
+    public void testCopyAllPreservesSharing() {
+        StateArray[] fields = StateStorage.SPARSE.newArrays(100, 2);
+        StateArray other = StateStorage.DOUBLE.newArray(100);
+        fields[0].set(3, 1.0);
+        fields[1].set(3, 2.0);
+        other.set(3, 4.0);
+        StateArray[] copies = SparseStateStore.copyAll(fields[0], fields[1], null, other);
+        assertEquals(null, copies[2]);
+        copies[0].set(7, 5.0);
+        // The copied views share one store, separate from the original.
+        assertEquals(copies[0].getNumBytes(), copies[1].getNumBytes());
+        assertEquals(1.0, copies[0].get(3), 0.0);
+        assertEquals(2.0, copies[1].get(3), 0.0);
+        assertEquals(4.0, copies[3].get(3), 0.0);
+        assertEquals(5.0, copies[0].get(7), 0.0);
+        assertEquals(0.0, fields[0].get(7), 0.0);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testOutOfRange() {
+        new SparseStateStore(10, 1).get(10, 0);
+    }
+
+}
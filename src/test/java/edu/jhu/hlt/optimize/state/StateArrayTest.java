@@ -0,0 +1,109 @@
+package edu.jhu.hlt.optimize.state;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Test;
+
+public class StateArrayTest {
+
+    @Test
+    public void testGetSetCopy() {
+        for (StateStorage storage : StateStorage.values()) {
+            StateArray arr = storage.newArray(5);
+            assertEquals(5, arr.size());
+            for (int i=0; i<arr.size(); i++) {
+                assertEquals(0.0, arr.get(i), 0.0);
+            }
+            arr.set(1, 0.5);
+            arr.set(4, -3.25);
+            StateArray copy = arr.copy();
+            arr.set(1, 2.0);
+            assertEquals(2.0, arr.get(1), 0.0);
+            assertEquals(0.5, copy.get(1), 0.0);
+            assertEquals(-3.25, copy.get(4), 0.0);
+            assertEquals(0.0, copy.get(0), 0.0);
+        }
+    }
+
+    @Test
+    public void testAdd() {
+        for (StateStorage storage : StateStorage.values()) {
+            StateArray arr = storage.newArray(4);
+            assertEquals(1.5, arr.add(2, 1.5), 0.0);
+            assertEquals(-0.5, arr.add(2, -2.0), 0.0);
+            assertEquals(-0.5, arr.get(2), 0.0);
+            assertEquals(0.0, arr.get(3), 0.0);
+        }
+    }
+
+    @Test
+    public void testPrecisionAndSize() {
+        double x = 1.0 / 3.0;
+        StateArray d = StateStorage.DOUBLE.newArray(10);
+        StateArray f = StateStorage.FLOAT.newArray(10);
+        StateArray o = StateStorage.OFF_HEAP.newArray(10);
+        d.set(3, x);
+        f.set(3, x);
+        o.set(3, x);
+        assertEquals(x, d.get(3), 0.0);
+        assertEquals(x, o.get(3), 0.0);
+        assertEquals((float) x, f.get(3), 0.0);
+        assertEquals(80, d.getNumBytes());
+        assertEquals(40, f.getNumBytes());
+        assertEquals(80, o.getNumBytes());
+    }
+
+    @Test
+    public void testFloatLosesSmallAdditionsToLargeSums() {
+        StateArray d = StateStorage.DOUBLE.newArray(1);
+        StateArray f = StateStorage.FLOAT.newArray(1);
+        d.set(0, 1 << 25);
+        f.set(0, 1 << 25);
+        assertEquals((1 << 25) + 1.0, d.add(0, 1.0), 0.0);
+        assertEquals(1 << 25, f.add(0, 1.0), 0.0);
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        for (StateStorage storage : StateStorage.values()) {
+            StateArray arr = storage.newArray(3);
+            arr.set(0, 1.5);
+            arr.set(2, -7.0);
+            StateArray other = (StateArray) deserialize(serialize(arr));
+            assertEquals(3, other.size());
+            assertEquals(1.5, other.get(0), 0.0);
+            assertEquals(0.0, other.get(1), 0.0);
+            assertEquals(-7.0, other.get(2), 0.0);
+        }
+    }
+
+    @Test
+    public void testMemoryReport() {
+        assertEquals("AdaGrad state: 4.00 MB (8.00 MB in dense arrays, 50.0% saved)",
+                StateStorage.getMemoryReport("AdaGrad", 4000000, 8000000));
+    }
+
+    private static byte[] serialize(Object obj) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(obj);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+
+}